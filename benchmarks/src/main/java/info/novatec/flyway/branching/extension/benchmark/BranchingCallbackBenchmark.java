@@ -0,0 +1,174 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.benchmark;
+
+import info.novatec.flyway.branching.extension.BranchingCallback;
+import info.novatec.flyway.branching.extension.plan.MigrationPlanner;
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+import info.novatec.flyway.branching.extension.release.ReleaseTableImpl;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the hot paths of {@link BranchingCallback} against an in-memory
+ * H2 database that has already been migrated to the head release.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BranchingCallbackBenchmark {
+    /**
+     * The number of releases.
+     */
+    @Param({"1", "8" })
+    private int releases;
+
+    /**
+     * The number of migrations per release.
+     */
+    @Param({"10", "100" })
+    private int migrationsPerRelease;
+
+    /**
+     * The generated migrations.
+     */
+    private MigrationTree migrationTree;
+
+    /**
+     * The jdbc url of the benchmark database.
+     */
+    private String url;
+
+    /**
+     * Connection kept open for the release table benchmark.
+     */
+    private Connection connection;
+
+    /**
+     * The release table of the benchmark database.
+     */
+    private ReleaseTableImpl releaseTable;
+
+    /**
+     * The planned release chain.
+     */
+    private ReleaseChain releaseChain;
+
+    /**
+     * Creates the migrations and migrates the database to the head release.
+     * @throws IOException
+     *             if creating the migrations fails
+     * @throws SQLException
+     *             if connecting to the database fails
+     */
+    @Setup(Level.Trial)
+    public final void setup() throws IOException, SQLException {
+        migrationTree = MigrationTree.create(releases, migrationsPerRelease);
+        url = "jdbc:h2:mem:callback" + System.nanoTime() + ";DB_CLOSE_DELAY=-1";
+
+        Flyway flyway = createFlyway();
+        flyway.setCallbacks(new BranchingCallback(flyway));
+        flyway.migrate();
+
+        connection = DriverManager.getConnection(url, "sa", null);
+        DbSupport dbSupport = DbSupportFactory.createDbSupport(connection,
+                false);
+        releaseTable = new ReleaseTableImpl(dbSupport, dbSupport
+                .getCurrentSchema().getTable("releasetable"), "main",
+                getClass().getClassLoader());
+        releaseChain = new MigrationPlanner(flyway,
+                new String[] {migrationTree.getLocation()}).plan();
+    }
+
+    /**
+     * Shuts the database down and deletes the migrations.
+     * @throws SQLException
+     *             if shutting down the database fails
+     */
+    @TearDown(Level.Trial)
+    public final void tearDown() throws SQLException {
+        connection.createStatement().execute("SHUTDOWN");
+        connection.close();
+        migrationTree.delete();
+    }
+
+    /**
+     * Constructs the callback, i.e. plans the release chain, reads the
+     * current release and switches the locations.
+     * @return the callback
+     */
+    @Benchmark
+    public final BranchingCallback constructCallback() {
+        return new BranchingCallback(createFlyway());
+    }
+
+    /**
+     * Gets the locations from the head release on, which is the lookup the
+     * callback does when it switches the locations of a release.
+     * @return the locations
+     */
+    @Benchmark
+    public final String[] getLocationsFrom() {
+        return releaseChain.getLocationsFrom(migrationTree.getHeadRelease());
+    }
+
+    /**
+     * Reads the current release from the release table.
+     * @return the current release
+     */
+    @Benchmark
+    public final String getCurrentRelease() {
+        return releaseTable.getCurrentRelease();
+    }
+
+    /**
+     * Creates a flyway instance pointing to the benchmark database.
+     * @return the flyway instance
+     */
+    private Flyway createFlyway() {
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(url, "sa", null);
+        flyway.setLocations(migrationTree.getLocation());
+        flyway.setValidateOnMigrate(false);
+        flyway.setBaselineOnMigrate(true);
+        flyway.setBaselineVersion("0");
+        return flyway;
+    }
+}
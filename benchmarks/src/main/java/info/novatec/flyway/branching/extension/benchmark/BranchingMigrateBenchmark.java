@@ -0,0 +1,134 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.benchmark;
+
+import info.novatec.flyway.branching.extension.BranchingCallback;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks a full branching migrate of an empty in-memory H2 database
+ * through all releases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BranchingMigrateBenchmark {
+    /**
+     * The number of releases.
+     */
+    @Param({"1", "8" })
+    private int releases;
+
+    /**
+     * The number of migrations per release.
+     */
+    @Param({"10", "100" })
+    private int migrationsPerRelease;
+
+    /**
+     * The generated migrations.
+     */
+    private MigrationTree migrationTree;
+
+    /**
+     * The jdbc url of the database of the current invocation.
+     */
+    private String url;
+
+    /**
+     * Connection keeping the database of the current invocation open.
+     */
+    private Connection connection;
+
+    /**
+     * Creates the migrations.
+     * @throws IOException
+     *             if creating the migrations fails
+     */
+    @Setup(Level.Trial)
+    public final void setupTrial() throws IOException {
+        migrationTree = MigrationTree.create(releases, migrationsPerRelease);
+    }
+
+    /**
+     * Deletes the migrations.
+     */
+    @TearDown(Level.Trial)
+    public final void tearDownTrial() {
+        migrationTree.delete();
+    }
+
+    /**
+     * Creates an empty database.
+     * @throws SQLException
+     *             if connecting to the database fails
+     */
+    @Setup(Level.Invocation)
+    public final void setupInvocation() throws SQLException {
+        url = "jdbc:h2:mem:migrate" + System.nanoTime() + ";DB_CLOSE_DELAY=-1";
+        connection = DriverManager.getConnection(url, "sa", null);
+    }
+
+    /**
+     * Drops the database.
+     * @throws SQLException
+     *             if shutting down the database fails
+     */
+    @TearDown(Level.Invocation)
+    public final void tearDownInvocation() throws SQLException {
+        connection.createStatement().execute("SHUTDOWN");
+        connection.close();
+    }
+
+    /**
+     * Migrates the empty database through all releases.
+     * @return the number of applied migrations
+     */
+    @Benchmark
+    public final int migrate() {
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(url, "sa", null);
+        flyway.setLocations(migrationTree.getLocation());
+        flyway.setValidateOnMigrate(false);
+        flyway.setBaselineOnMigrate(true);
+        flyway.setBaselineVersion("0");
+        flyway.setCallbacks(new BranchingCallback(flyway));
+        return flyway.migrate();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Generated migration tree on the file system with a configurable number of
+ * releases and migrations per release. The first release is "main", the
+ * following ones are named "r1", "r2" and so on. The last migration of each
+ * release switches the release table to the next release.
+ */
+public final class MigrationTree {
+    /**
+     * The directory containing the release folders.
+     */
+    private final File baseDirectory;
+
+    /**
+     * The number of releases.
+     */
+    private final int releases;
+
+    /**
+     * Creates a new instance of {@link MigrationTree}.
+     * @param baseDirectoryToUse
+     *            the directory containing the release folders
+     * @param releasesToUse
+     *            the number of releases
+     */
+    private MigrationTree(final File baseDirectoryToUse,
+            final int releasesToUse) {
+        this.baseDirectory = baseDirectoryToUse;
+        this.releases = releasesToUse;
+    }
+
+    /**
+     * Creates a new migration tree in a temporary directory.
+     * @param releases
+     *            the number of releases
+     * @param migrationsPerRelease
+     *            the number of migrations per release
+     * @return the migration tree
+     * @throws IOException
+     *             if writing the migrations fails
+     */
+    public static MigrationTree create(final int releases,
+            final int migrationsPerRelease) throws IOException {
+        File baseDirectory = File.createTempFile("migrations", "");
+        if (!baseDirectory.delete() || !baseDirectory.mkdir()) {
+            throw new IOException("Could not create directory "
+                    + baseDirectory);
+        }
+
+        for (int release = 0; release < releases; release++) {
+            File releaseDirectory = new File(baseDirectory,
+                    getRelease(release));
+            if (!releaseDirectory.mkdir()) {
+                throw new IOException("Could not create directory "
+                        + releaseDirectory);
+            }
+            for (int migration = 1; migration <= migrationsPerRelease;
+                    migration++) {
+                String table = "T_" + release + "_" + migration;
+                write(new File(releaseDirectory, "V" + (release + 1) + "_"
+                        + migration + "__DDL_Create_" + table + ".sql"),
+                        "create table " + table + " (ID int not null);\n"
+                        + "insert into " + table + " (ID) values (1);\n");
+            }
+            if (release + 1 < releases) {
+                String next = getRelease(release + 1);
+                write(new File(releaseDirectory, "V" + (release + 1) + "_"
+                        + (migrationsPerRelease + 1) + "__CM_Release_" + next
+                        + ".sql"), "update \"releasetable\" set "
+                        + "\"CURRENT_RELEASE\" = '" + next + "';\n");
+            }
+        }
+        return new MigrationTree(baseDirectory, releases);
+    }
+
+    /**
+     * Gets the name of the release at given position.
+     * @param release
+     *            the position of the release
+     * @return the release name
+     */
+    public static String getRelease(final int release) {
+        if (release == 0) {
+            return "main";
+        }
+        return "r" + release;
+    }
+
+    /**
+     * Gets the flyway location of the release folders.
+     * @return the location
+     */
+    public String getLocation() {
+        return "filesystem:" + baseDirectory.getAbsolutePath();
+    }
+
+    /**
+     * Gets the name of the last release.
+     * @return the head release
+     */
+    public String getHeadRelease() {
+        return getRelease(releases - 1);
+    }
+
+    /**
+     * Deletes the migration tree.
+     */
+    public void delete() {
+        delete(baseDirectory);
+    }
+
+    /**
+     * Deletes given file or directory recursively.
+     * @param file
+     *            the file to delete
+     */
+    private static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Writes given content to a file.
+     * @param file
+     *            the file
+     * @param content
+     *            the content
+     * @throws IOException
+     *             if writing fails
+     */
+    private static void write(final File file, final String content)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * JMH benchmarks for the hot paths of the branching extension.
+ */
+package info.novatec.flyway.branching.extension.benchmark;
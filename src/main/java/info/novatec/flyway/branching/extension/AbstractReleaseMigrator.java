@@ -0,0 +1,403 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import info.novatec.flyway.branching.extension.metrics.BaseBranchingListener;
+import info.novatec.flyway.branching.extension.metrics.BranchingListener;
+import info.novatec.flyway.branching.extension.plan.PlannedMigration;
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+import info.novatec.flyway.branching.extension.release.ReleaseTable;
+import info.novatec.flyway.branching.extension.release.ReleaseTableImpl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.resolver.ResolvedMigration;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.flywaydb.core.internal.dbsupport.Schema;
+import org.flywaydb.core.internal.metadatatable.AppliedMigration;
+import org.flywaydb.core.internal.metadatatable.MetaDataTable;
+import org.flywaydb.core.internal.metadatatable.MetaDataTableImpl;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
+import org.flywaydb.core.internal.util.jdbc.TransactionCallback;
+import org.flywaydb.core.internal.util.jdbc.TransactionTemplate;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+
+/**
+ * Base class of the migrators applying the release chain without flyway's
+ * migrate. The migrations are resolved from the catalog of the release
+ * chain and recorded in the flyway metadata table by the migrator itself.
+ * <p>
+ * Like flyway's migrate, the migrators serialize concurrent runs by
+ * locking the tables within the transactions applying the migrations,
+ * always the release table first and the metadata table second. The
+ * applied version is read again once the locks are held, so migrations
+ * applied by another process meanwhile are skipped.
+ * </p>
+ */
+abstract class AbstractReleaseMigrator {
+    /**
+     * Logger.
+     */
+    private static final Log LOG =
+            LogFactory.getLog(AbstractReleaseMigrator.class);
+
+    /**
+     * The {@link Flyway} instance.
+     */
+    private final Flyway flyway;
+
+    /**
+     * The chain of releases below the configured base locations.
+     */
+    private final ReleaseChain releaseChain;
+
+    /**
+     * The listener notified about the applied migrations and the release
+     * switches.
+     */
+    private final BranchingListener listener;
+
+    /**
+     * Callback running while the release table and the flyway metadata table
+     * are locked.
+     * @param <T>
+     *            the result type
+     */
+    protected interface LockedCallback<T> {
+        /**
+         * Runs within the transaction holding the locks.
+         * @param releaseTable
+         *            the locked release table
+         * @param metaDataTable
+         *            the locked flyway metadata table
+         * @param latestVersion
+         *            the latest applied version, read after locking
+         * @return the result
+         */
+        T doLocked(ReleaseTable releaseTable, MetaDataTable metaDataTable,
+                MigrationVersion latestVersion);
+    }
+
+    /**
+     * Creates a new instance of {@link AbstractReleaseMigrator}.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param releaseChainToUse
+     *            the release chain below the locations of the flyway instance
+     */
+    AbstractReleaseMigrator(final Flyway flywayInstance,
+            final ReleaseChain releaseChainToUse) {
+        this(flywayInstance, releaseChainToUse, new BaseBranchingListener());
+    }
+
+    /**
+     * Creates a new instance of {@link AbstractReleaseMigrator} notifying
+     * given listener about the applied migrations and the release switches.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param releaseChainToUse
+     *            the release chain below the locations of the flyway instance
+     * @param listenerToUse
+     *            the listener, notified from the threads applying the
+     *            migrations
+     */
+    AbstractReleaseMigrator(final Flyway flywayInstance,
+            final ReleaseChain releaseChainToUse,
+            final BranchingListener listenerToUse) {
+        this.flyway = flywayInstance;
+        this.releaseChain = releaseChainToUse;
+        this.listener = listenerToUse;
+    }
+
+    /**
+     * Gets the {@link Flyway} instance.
+     * @return the flyway instance
+     */
+    protected final Flyway getFlyway() {
+        return flyway;
+    }
+
+    /**
+     * Gets the chain of releases below the configured base locations.
+     * @return the release chain
+     */
+    protected final ReleaseChain getReleaseChain() {
+        return releaseChain;
+    }
+
+    /**
+     * Gets the listener notified about the applied migrations and the
+     * release switches.
+     * @return the listener
+     */
+    protected final BranchingListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Gets the schema of the release table and the flyway metadata table,
+     * i.e. the first schema managed by flyway or the current schema of the
+     * connection if none is configured. The schema is created if it does
+     * not exist yet.
+     * @param dbSupport
+     *            database-specific functionality
+     * @return the schema
+     */
+    protected final Schema getSchema(final DbSupport dbSupport) {
+        String[] schemas = flyway.getSchemas();
+        if (schemas.length == 0) {
+            return dbSupport.getCurrentSchema();
+        }
+
+        Schema schema = dbSupport.getSchema(schemas[0]);
+        if (!schema.exists()) {
+            LOG.info(String.format("Creating schema %s", schema));
+            schema.create();
+        }
+        return schema;
+    }
+
+    /**
+     * Creates the release table in given schema.
+     * @param dbSupport
+     *            database-specific functionality
+     * @param schema
+     *            the schema of the release table
+     * @return the release table
+     */
+    protected final ReleaseTable createReleaseTable(final DbSupport dbSupport,
+            final Schema schema) {
+        return ReleaseTableImpl.forSchema(dbSupport, schema);
+    }
+
+    /**
+     * Creates the flyway metadata table in given schema.
+     * @param dbSupport
+     *            database-specific functionality
+     * @param schema
+     *            the schema of the metadata table
+     * @return the metadata table
+     */
+    protected final MetaDataTable createMetaDataTable(
+            final DbSupport dbSupport, final Schema schema) {
+        return new MetaDataTableImpl(dbSupport,
+                schema.getTable(flyway.getTable()));
+    }
+
+    /**
+     * Runs a callback in a transaction on given connection, after locking
+     * the release table and the flyway metadata table.
+     * @param <T>
+     *            the result type
+     * @param connection
+     *            the jdbc connection of the tables
+     * @param releaseTable
+     *            the release table
+     * @param metaDataTable
+     *            the flyway metadata table
+     * @param callback
+     *            the callback to run
+     * @return the result of the callback
+     */
+    protected final <T> T executeLocked(final Connection connection,
+            final ReleaseTable releaseTable,
+            final MetaDataTable metaDataTable,
+            final LockedCallback<T> callback) {
+        return new TransactionTemplate(connection)
+                .execute(new TransactionCallback<T>() {
+                    public T doInTransaction() {
+                        releaseTable.lock();
+                        metaDataTable.lock();
+                        return callback.doLocked(releaseTable, metaDataTable,
+                                getLatestVersion(metaDataTable));
+                    }
+                });
+    }
+
+    /**
+     * Runs a callback in a transaction on a connection of its own, after
+     * locking the release table and the flyway metadata table. Used for
+     * migrations that must not run in a transaction: they are executed on
+     * their connection while the locks are held and recorded through the
+     * locked tables, as flyway does with its metadata table.
+     * @param <T>
+     *            the result type
+     * @param callback
+     *            the callback to run
+     * @return the result of the callback
+     */
+    protected final <T> T executeLocked(final LockedCallback<T> callback) {
+        Connection connection = null;
+        try {
+            connection = flyway.getDataSource().getConnection();
+            DbSupport dbSupport = DbSupportFactory.createDbSupport(connection,
+                    false);
+            Schema schema = getSchema(dbSupport);
+            return executeLocked(connection,
+                    createReleaseTable(dbSupport, schema),
+                    createMetaDataTable(dbSupport, schema), callback);
+        } catch (SQLException e) {
+            throw new FlywayException("Error getting database connection for "
+                    + "locking the metadata table. Reason: "
+                    + ExceptionUtils.getRootCauseMessage(e), e);
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Gets the migrations above the latest applied version, i.e. those not
+     * applied by another process meanwhile.
+     * @param migrations
+     *            the planned migrations
+     * @param latestVersion
+     *            the latest applied version
+     * @return the pending migrations
+     */
+    protected static List<PlannedMigration> getPending(
+            final List<PlannedMigration> migrations,
+            final MigrationVersion latestVersion) {
+        List<PlannedMigration> pending = new ArrayList<PlannedMigration>();
+        for (PlannedMigration migration : migrations) {
+            if (migration.getMigration().getVersion().compareTo(
+                    latestVersion) > 0) {
+                pending.add(migration);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Switches the release table to given release, unless it is already at
+     * this or a later release of the chain. The listener is notified about
+     * the switch.
+     * @param releaseTable
+     *            the release table
+     * @param release
+     *            the release to switch to
+     */
+    protected final void switchRelease(final ReleaseTable releaseTable,
+            final String release) {
+        String tableRelease = releaseTable.getCurrentRelease();
+        if (releaseChain.indexOf(release) > releaseChain.indexOf(
+                tableRelease)) {
+            releaseTable.setCurrentRelease(release);
+            listener.releaseSwitched(tableRelease, release);
+        }
+    }
+
+    /**
+     * Stores the fingerprint of the release chain if given release is the
+     * head release.
+     * @param connection
+     *            the jdbc connection of the release table
+     * @param releaseTable
+     *            the release table
+     * @param release
+     *            the release the database has been migrated to
+     */
+    protected final void storeFingerprint(final Connection connection,
+            final ReleaseTable releaseTable, final String release) {
+        if (!release.equalsIgnoreCase(releaseChain.getHeadRelease())) {
+            return;
+        }
+        new TransactionTemplate(connection)
+                .execute(new TransactionCallback<Void>() {
+                    public Void doInTransaction() {
+                        releaseTable.setFingerprint(
+                                releaseChain.getFingerprint());
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Executes a migration and notifies the listener about it.
+     * @param connection
+     *            the jdbc connection
+     * @param plannedMigration
+     *            the migration
+     * @return the execution time in ms
+     */
+    protected final int execute(final Connection connection,
+            final PlannedMigration plannedMigration) {
+        ResolvedMigration migration = plannedMigration.getMigration();
+        LOG.info(String.format("Migrating release %s to version %s - %s",
+                plannedMigration.getRelease(), migration.getVersion(),
+                migration.getDescription()));
+        long start = System.nanoTime();
+        try {
+            migration.getExecutor().execute(connection);
+        } catch (SQLException e) {
+            throw new FlywayException(String.format(
+                    "Migration %s of release %s failed",
+                    migration.getScript(), plannedMigration.getRelease()), e);
+        }
+        long executionTime = System.nanoTime() - start;
+        listener.migrationApplied(plannedMigration.getRelease(),
+                migration.getVersion().getVersion(), executionTime);
+        return (int) TimeUnit.NANOSECONDS.toMillis(executionTime);
+    }
+
+    /**
+     * Records a migration in the flyway metadata table.
+     * @param metaDataTable
+     *            the flyway metadata table
+     * @param plannedMigration
+     *            the migration
+     * @param executionTime
+     *            the execution time in ms
+     * @param success
+     *            whether the migration succeeded
+     */
+    protected final void record(final MetaDataTable metaDataTable,
+            final PlannedMigration plannedMigration, final int executionTime,
+            final boolean success) {
+        ResolvedMigration migration = plannedMigration.getMigration();
+        metaDataTable.addAppliedMigration(new AppliedMigration(
+                migration.getVersion(), migration.getDescription(),
+                migration.getType(), migration.getScript(),
+                migration.getChecksum(), executionTime, success));
+    }
+
+    /**
+     * Gets the latest version recorded in the flyway metadata table.
+     * @param metaDataTable
+     *            the flyway metadata table
+     * @return the latest version or {@link MigrationVersion#EMPTY}
+     */
+    protected final MigrationVersion getLatestVersion(
+            final MetaDataTable metaDataTable) {
+        MigrationVersion latest = MigrationVersion.EMPTY;
+        for (AppliedMigration applied : metaDataTable.allAppliedMigrations()) {
+            if (applied.isSuccess()
+                    && applied.getVersion().compareTo(latest) > 0) {
+                latest = applied.getVersion();
+            }
+        }
+        return latest;
+    }
+}
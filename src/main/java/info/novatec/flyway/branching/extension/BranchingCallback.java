@@ -15,6 +15,11 @@
 */
 package info.novatec.flyway.branching.extension;
 
+import info.novatec.flyway.branching.extension.metrics.BaseBranchingListener;
+import info.novatec.flyway.branching.extension.metrics.BranchingListener;
+import info.novatec.flyway.branching.extension.plan.CatalogMigrationResolver;
+import info.novatec.flyway.branching.extension.plan.MigrationPlanner;
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
 import info.novatec.flyway.branching.extension.release.ReleaseTable;
 import info.novatec.flyway.branching.extension.release.ReleaseTableImpl;
 
@@ -26,18 +31,21 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.flywaydb.core.Flyway;
 import org.flywaydb.core.api.FlywayException;
 import org.flywaydb.core.api.MigrationInfo;
-import org.flywaydb.core.api.MigrationInfoService;
 import org.flywaydb.core.api.callback.FlywayCallback;
+import org.flywaydb.core.api.resolver.MigrationResolver;
 import org.flywaydb.core.internal.dbsupport.DbSupport;
 import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
 import org.flywaydb.core.internal.dbsupport.Schema;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
 import org.flywaydb.core.internal.util.jdbc.TransactionCallback;
 import org.flywaydb.core.internal.util.jdbc.TransactionTemplate;
 import org.flywaydb.core.internal.util.logging.Log;
 import org.flywaydb.core.internal.util.logging.LogFactory;
 
 /**
- * Callback for extending flywaydb for branching support.
+ * Callback for extending flywaydb for branching support. An empty schema is
+ * initialized from the newest squashed baseline script of the release chain
+ * when the callback is created (see {@link SquashedBaselineInstaller}).
  */
 public class BranchingCallback implements FlywayCallback {
     /**
@@ -51,14 +59,67 @@ public class BranchingCallback implements FlywayCallback {
     private Flyway flyway;
 
     /**
-     * The {@link ReleaseTable} instance for release branches.
+     * The current active release.
+     */
+    private String currentRelease;
+
+    /**
+     * The version of the latest migration applied through this callback.
+     */
+    private String currentVersion;
+
+    /**
+     * The chain of releases below the configured base locations.
+     */
+    private ReleaseChain releaseChain;
+
+    /**
+     * The resolver for migrations from the catalog of the release chain, if
+     * the catalog is used.
+     */
+    private CatalogMigrationResolver catalogResolver;
+
+    /**
+     * Whether the database was already at the head release of the chain with
+     * the same migrations when the callback was created.
+     */
+    private boolean upToDate;
+
+    /**
+     * The listener notified about the events of the branching migration.
+     */
+    private final BranchingListener listener;
+
+    /**
+     * The release of the latest migration applied through this callback.
+     */
+    private String migratingRelease;
+
+    /**
+     * The start time in nanoseconds of the migration in progress.
+     */
+    private long migrationStart;
+
+    /**
+     * The release table of {@link #releaseTableConnection}, reused by all
+     * callbacks on this connection.
      */
     private ReleaseTable releaseTable;
 
     /**
-     * The current active release.
+     * The jdbc connection the release table has been created for.
      */
-    private String currentRelease;
+    private Connection releaseTableConnection;
+
+    /**
+     * The schema of the release table.
+     */
+    private Schema releaseSchema;
+
+    /**
+     * Whether the schema of the release table is known to exist.
+     */
+    private boolean releaseSchemaExists;
 
     /**
      * Creates a new instance of {@link BranchingCallback}.
@@ -66,30 +127,142 @@ public class BranchingCallback implements FlywayCallback {
      *            the {@link Flyway} instance
      */
     public BranchingCallback(final Flyway flywayInstance) {
+        this(flywayInstance, new MigrationPlanner(flywayInstance,
+                flywayInstance.getLocations()).plan());
+    }
+
+    /**
+     * Creates a new instance of {@link BranchingCallback} using an already
+     * planned release chain, e.g. shared by several flyway instances with the
+     * same locations.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param releaseChainToUse
+     *            the release chain below the locations of the flyway instance
+     */
+    public BranchingCallback(final Flyway flywayInstance,
+            final ReleaseChain releaseChainToUse) {
+        this(flywayInstance, releaseChainToUse, false);
+    }
+
+    /**
+     * Creates a new instance of {@link BranchingCallback} using an already
+     * planned release chain.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param releaseChainToUse
+     *            the release chain below the locations of the flyway instance
+     * @param resolveFromCatalog
+     *            whether the sql migrations are resolved from the catalog of
+     *            the release chain instead of letting flyway scan the release
+     *            locations. Only sql migrations are supported in this mode,
+     *            java migrations and sql callbacks in the release folders are
+     *            not picked up.
+     */
+    public BranchingCallback(final Flyway flywayInstance,
+            final ReleaseChain releaseChainToUse,
+            final boolean resolveFromCatalog) {
+        this(flywayInstance, releaseChainToUse, resolveFromCatalog,
+                new BaseBranchingListener());
+    }
+
+    /**
+     * Creates a new instance of {@link BranchingCallback} notifying given
+     * listener, e.g. for recording metrics.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param releaseChainToUse
+     *            the release chain below the locations of the flyway instance
+     * @param resolveFromCatalog
+     *            whether the sql migrations are resolved from the catalog of
+     *            the release chain instead of letting flyway scan the release
+     *            locations
+     * @param listenerToUse
+     *            the listener notified about the events of the branching
+     *            migration
+     */
+    public BranchingCallback(final Flyway flywayInstance,
+            final ReleaseChain releaseChainToUse,
+            final boolean resolveFromCatalog,
+            final BranchingListener listenerToUse) {
         super();
         this.flyway = flywayInstance;
-
-        try {
-            this.releaseTable = initReleaseTable(
-                    flywayInstance.getDataSource().getConnection());
-        } catch (SQLException e) {
-            throw new FlywayException(
-                    "Error getting database connection for "
-                    + "initializing release table. Reason: "
-                    + ExceptionUtils.getRootCauseMessage(e));
+        this.releaseChain = releaseChainToUse;
+        this.listener = listenerToUse;
+
+        if (resolveFromCatalog) {
+            this.catalogResolver = new CatalogMigrationResolver(
+                    releaseChainToUse);
+            MigrationResolver[] resolvers = flywayInstance.getResolvers();
+            MigrationResolver[] newResolvers =
+                    new MigrationResolver[resolvers.length + 1];
+            System.arraycopy(resolvers, 0, newResolvers, 0, resolvers.length);
+            newResolvers[resolvers.length] = catalogResolver;
+            flywayInstance.setResolvers(newResolvers);
         }
 
+        Connection connection = null;
         try {
-            switchLocations(getCurrentRelease(flywayInstance.getDataSource()
-                    .getConnection()));
+            long start = System.nanoTime();
+            connection = flywayInstance.getDataSource().getConnection();
+            listener.connectionAcquired(elapsedNanos(start));
+            new SquashedBaselineInstaller(flywayInstance, releaseChainToUse)
+                    .install(connection);
+            upToDate = isUpToDate(connection);
+            if (catalogResolver != null) {
+                catalogResolver.setUpToDate(upToDate);
+            }
+            if (upToDate) {
+                LOG.info(String.format("Release chain %s is up to date",
+                        releaseChain));
+                switchLocations(releaseChain.getHeadRelease());
+            } else {
+                switchLocations(getCurrentRelease(connection));
+            }
         } catch (SQLException e) {
             throw new FlywayException(
                     "Error getting database connection for getting current "
                     + "release from release table. Reason: "
                             + ExceptionUtils.getRootCauseMessage(e));
+        } finally {
+            JdbcUtils.closeConnection(connection);
         }
     }
 
+    /**
+     * Gets the current active release.
+     * @return the current release
+     */
+    public final String getCurrentRelease() {
+        return currentRelease;
+    }
+
+    /**
+     * Gets the version of the latest migration applied through this
+     * callback. Tracked from the applied migrations, so no flyway info is
+     * required.
+     * @return the current version or <code>null</code> if no migration has
+     *         been applied yet
+     */
+    public final String getCurrentVersion() {
+        return currentVersion;
+    }
+
+    /**
+     * Whether the database was already at the head release of the chain with
+     * the same migrations when the callback was created. In this case the
+     * release table has only been read once and the migrate can be skipped:
+     * <pre>
+     * if (!callback.isUpToDate()) {
+     *     flyway.migrate();
+     * }
+     * </pre>
+     * @return <code>true</code> if the database is up to date
+     */
+    public final boolean isUpToDate() {
+        return upToDate;
+    }
+
     @Override
     public final void beforeClean(final Connection connection) {
         LOG.debug("before()");
@@ -98,6 +271,15 @@ public class BranchingCallback implements FlywayCallback {
     @Override
     public final void afterClean(final Connection connection) {
         LOG.debug("afterClean()");
+
+        if (releaseTable != null) {
+            releaseTable.invalidate();
+            releaseSchemaExists = false;
+        }
+        if (catalogResolver != null) {
+            catalogResolver.setUpToDate(false);
+        }
+        switchLocations(getCurrentRelease(connection));
     }
 
     @Override
@@ -109,19 +291,39 @@ public class BranchingCallback implements FlywayCallback {
     public final void afterMigrate(final Connection connection) {
         LOG.debug("afterMigrate()");
 
-        if (this.releaseTable == null) {
-                this.releaseTable = initReleaseTable(
-                        connection);
-        }
-
-        String release = releaseTable.getCurrentRelease();
+        long start = System.nanoTime();
+        final ReleaseTable table = initReleaseTable(connection);
+        String release = table.getCurrentRelease();
+        listener.releaseTableQueried(elapsedNanos(start));
         if (!currentRelease.equalsIgnoreCase(release)) {
+            int currentIndex = releaseChain.indexOf(currentRelease);
+            boolean planned = currentIndex >= 0
+                    && releaseChain.indexOf(release) > currentIndex;
             switchLocations(release);
-            int appliedMigrations = flyway.migrate();
-            String currentVersion = getCurrentVersion();
-            LOG.info(String.format(
-                    "Successfully completed %s migration(s) to version %s",
-                    appliedMigrations, currentVersion));
+            if (planned) {
+                LOG.info(String.format(
+                        "Switched to release %s at version %s", release,
+                        currentVersion));
+            } else {
+                LOG.warn(String.format(
+                        "Release %s is not part of release chain %s",
+                        release, releaseChain));
+                int appliedMigrations = flyway.migrate();
+                LOG.info(String.format(
+                        "Successfully completed %s migration(s) to version %s",
+                        appliedMigrations, currentVersion));
+            }
+        }
+
+        if (currentRelease.equalsIgnoreCase(releaseChain.getHeadRelease())) {
+            new TransactionTemplate(connection)
+                    .execute(new TransactionCallback<Void>() {
+                        public Void doInTransaction() {
+                            table.setFingerprint(
+                                    releaseChain.getFingerprint());
+                            return null;
+                        }
+                    });
         }
     }
 
@@ -130,12 +332,33 @@ public class BranchingCallback implements FlywayCallback {
             final MigrationInfo info) {
         LOG.debug(String.format("beforeEachMigrate(%s)",
                 info.getDescription()));
+
+        migrationStart = System.nanoTime();
     }
 
     @Override
     public final void afterEachMigrate(final Connection connection,
             final MigrationInfo info) {
         LOG.debug(String.format("afterEachMigrate(%s)", info.getDescription()));
+
+        if (info.getVersion() != null) {
+            currentVersion = info.getVersion().getVersion();
+
+            String release = releaseChain.getRelease(info.getVersion());
+            if (release == null) {
+                release = currentRelease;
+            }
+            if (migratingRelease == null) {
+                migratingRelease = currentRelease;
+            }
+            if (!migratingRelease.equalsIgnoreCase(release)) {
+                switchRelease(connection, release);
+                listener.releaseSwitched(migratingRelease, release);
+                migratingRelease = release;
+            }
+            listener.migrationApplied(release, currentVersion,
+                    elapsedNanos(migrationStart));
+        }
     }
 
     @Override
@@ -189,43 +412,116 @@ public class BranchingCallback implements FlywayCallback {
     }
 
     /**
-     * Initializes the release table, i.e. creates it if it is not yet existing.
+     * Records the switch to given release in the release table when its first
+     * migration has been applied, unless a migration of the previous release
+     * already switched the release table explicitly. The release table is
+     * never switched back to an earlier release of the chain.
+     * @param connection the jdbc connection
+     * @param release the release switched to
+     */
+    private void switchRelease(final Connection connection,
+            final String release) {
+        ReleaseTable table = initReleaseTable(connection);
+        String tableRelease = table.getCurrentRelease();
+        if (releaseChain.indexOf(release) > releaseChain.indexOf(tableRelease)) {
+            table.setCurrentRelease(release);
+            LOG.info(String.format("Switched release table to release %s",
+                    release));
+        }
+    }
+
+    /**
+     * Checks whether the fingerprint stored with the latest release switch
+     * matches the fingerprint of the release chain. Neither the schema nor
+     * the release table are created for this check, a missing table or
+     * fingerprint is treated as mismatch.
+     * @param connection the jdbc connection
+     * @return <code>true</code> if the fingerprints match
+     */
+    private boolean isUpToDate(final Connection connection) {
+        if (releaseChain.getHeadRelease() == null) {
+            return false;
+        }
+
+        final ReleaseTable table = getReleaseTable(connection);
+
+        long start = System.nanoTime();
+        try {
+            String fingerprint = new TransactionTemplate(connection)
+                    .execute(new TransactionCallback<String>() {
+                        public String doInTransaction() {
+                            return table.getFingerprint();
+                        }
+                    });
+            return releaseChain.getFingerprint().equals(fingerprint);
+        } catch (FlywayException e) {
+            LOG.debug(String.format(
+                    "No fingerprint available in release table %s. Reason: %s",
+                    table, ExceptionUtils.getRootCauseMessage(e)));
+            return false;
+        } finally {
+            listener.releaseTableQueried(elapsedNanos(start));
+        }
+    }
+
+    /**
+     * Initializes the release table. It is created on first access if it is
+     * not yet existing, its schema is created if it does not exist yet.
      * @param connection the jdbc connection
      * @return the initialized {@link ReleaseTable} instance
      */
     private ReleaseTable initReleaseTable(final Connection connection) {
-        final DbSupport dbSupport = DbSupportFactory.createDbSupport(
-             connection, false);
-        final Schema currentSchema = dbSupport.getCurrentSchema();
-
-        return new TransactionTemplate(connection)
-                .execute(new TransactionCallback<ReleaseTable>() {
-                    public ReleaseTable doInTransaction() {
-                    return new ReleaseTableImpl(dbSupport,
-                             currentSchema.getTable("releasetable"), "main",
-                             this.getClass().getClassLoader());
-                    }
-                });
+        ReleaseTable table = getReleaseTable(connection);
+        if (!releaseSchemaExists) {
+            if (flyway.getSchemas().length > 0 && !releaseSchema.exists()) {
+                LOG.info(String.format("Creating schema %s", releaseSchema));
+                releaseSchema.create();
+            }
+            releaseSchemaExists = true;
+        }
+        return table;
+    }
+
+    /**
+     * Gets the release table of given connection without creating anything.
+     * The release table is created once per connection, so its cached
+     * existence is reused by all callbacks on the same connection, e.g.
+     * during a migrate.
+     * @param connection the jdbc connection
+     * @return the {@link ReleaseTable} instance of the connection
+     */
+    private ReleaseTable getReleaseTable(final Connection connection) {
+        if (releaseTable == null || connection != releaseTableConnection) {
+            DbSupport dbSupport = DbSupportFactory.createDbSupport(connection,
+                    false);
+            String[] schemas = flyway.getSchemas();
+            releaseSchema = schemas.length == 0
+                    ? dbSupport.getCurrentSchema()
+                    : dbSupport.getSchema(schemas[0]);
+            releaseTable = ReleaseTableImpl.forSchema(dbSupport,
+                    releaseSchema);
+            releaseTableConnection = connection;
+            releaseSchemaExists = false;
+        }
+        return releaseTable;
     }
 
     /**
-     * Switches locations for given release.
+     * Switches locations for given release. The locations of all releases
+     * following the new release in the release chain are added as well, so
+     * a single migrate applies the whole chain. If the catalog is used the
+     * locations are cleared and the catalog resolver starts at the new
+     * release instead.
      * @param newRelease the new release to set for locations
      */
     private void switchLocations(final String newRelease) {
 
-        String[] locations = this.flyway.getLocations();
-        String[] newLocations = new String[locations.length];
-        String newLocation;
-        for (int i = 0; i < locations.length; i++) {
-            if (StringUtils.isNotBlank(this.currentRelease)
-                    && locations[i].endsWith(currentRelease)) {
-                newLocation = locations[i].substring(0,
-                        locations[i].lastIndexOf('/'));
-            } else {
-                newLocation = locations[i];
-            }
-            newLocations[i] = newLocation + "/" + newRelease;
+        String[] newLocations;
+        if (catalogResolver != null) {
+            catalogResolver.setRelease(newRelease);
+            newLocations = new String[0];
+        } else {
+            newLocations = releaseChain.getLocationsFrom(newRelease);
         }
 
         LOG.debug(String.format("Set locations to %s",
@@ -235,36 +531,31 @@ public class BranchingCallback implements FlywayCallback {
     }
 
     /**
-     * Gets the current version for latest migration.
-     * @return the current version
-     */
-    private String getCurrentVersion() {
-        String currentVersion = null;
-        MigrationInfoService migrationInfoService = flyway.info();
-        if (migrationInfoService.current() != null
-                && migrationInfoService.current().getVersion() != null) {
-            currentVersion = migrationInfoService.current().getVersion()
-                    .getVersion();
-        }
-        return currentVersion;
-    }
-
-    /**
-     * Gets the current active release.
+     * Gets the current active release. The release table is initialized
+     * and read using the same connection.
      * @param connection jdbc connection
      * @return the current release
      */
     private String getCurrentRelease(final Connection connection) {
-        if (this.releaseTable == null) {
-            this.releaseTable = initReleaseTable(
-                    connection);
-        }
+        long start = System.nanoTime();
+        final ReleaseTable table = initReleaseTable(connection);
 
-        return new TransactionTemplate(connection)
+        String release = new TransactionTemplate(connection)
                 .execute(new TransactionCallback<String>() {
                     public String doInTransaction() {
-                        return releaseTable.getCurrentRelease();
+                        return table.getCurrentRelease();
                     }
                 });
+        listener.releaseTableQueried(elapsedNanos(start));
+        return release;
+    }
+
+    /**
+     * Gets the nanoseconds elapsed since given start time.
+     * @param startNanos the start time in nanoseconds
+     * @return the elapsed nanoseconds
+     */
+    private static long elapsedNanos(final long startNanos) {
+        return System.nanoTime() - startNanos;
     }
 }
@@ -0,0 +1,221 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import info.novatec.flyway.branching.extension.plan.MigrationPlan;
+import info.novatec.flyway.branching.extension.plan.PlannedMigration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress of the deferrable releases migrated in background by a
+ * {@link DeferredReleaseMigrator}. All methods are safe to call from any
+ * thread.
+ */
+public class DeferredMigration {
+    /**
+     * State of the background migration, which is also stored in the
+     * release table. {@link #COMPLETED} is stored with the switch to a
+     * deferrable release, which is only done once all of its migrations
+     * have been applied. {@link #MIGRATING} and {@link #FAILED} are stored
+     * with the previous release.
+     */
+    public enum State {
+        /**
+         * The migrations are being applied.
+         */
+        MIGRATING,
+        /**
+         * All migrations have been applied.
+         */
+        COMPLETED,
+        /**
+         * A migration has failed, the remaining ones are not applied.
+         */
+        FAILED
+    }
+
+    /**
+     * The plan of the deferred migrations.
+     */
+    private final MigrationPlan plan;
+
+    /**
+     * The deferred releases in migration order.
+     */
+    private final List<String> releases;
+
+    /**
+     * Released when the background migration is done.
+     */
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /**
+     * The state of the background migration.
+     */
+    private volatile State state = State.MIGRATING;
+
+    /**
+     * The number of applied migrations.
+     */
+    private volatile int appliedMigrations;
+
+    /**
+     * The release currently migrated.
+     */
+    private volatile String currentRelease;
+
+    /**
+     * The failure of the background migration, if any.
+     */
+    private volatile Throwable failure;
+
+    /**
+     * Creates a new instance of {@link DeferredMigration}.
+     * @param planToUse
+     *            the plan of the deferred migrations
+     */
+    DeferredMigration(final MigrationPlan planToUse) {
+        this.plan = planToUse;
+        List<String> planned = new ArrayList<String>();
+        for (List<PlannedMigration> release
+                : planToUse.getMigrationsByRelease()) {
+            planned.add(release.get(0).getRelease());
+        }
+        this.releases = Collections.unmodifiableList(planned);
+        this.currentRelease = planToUse.getFromRelease();
+        if (planToUse.getMigrations().isEmpty()) {
+            completed();
+        }
+    }
+
+    /**
+     * Gets the state of the background migration.
+     * @return the state
+     */
+    public final State getState() {
+        return state;
+    }
+
+    /**
+     * Whether the background migration is done, i.e. completed or failed.
+     * @return <code>true</code> if the background migration is done
+     */
+    public final boolean isDone() {
+        return state != State.MIGRATING;
+    }
+
+    /**
+     * Gets the deferred releases in migration order.
+     * @return the deferred releases
+     */
+    public final List<String> getReleases() {
+        return releases;
+    }
+
+    /**
+     * Gets the release currently migrated, or the last one once done.
+     * @return the release
+     */
+    public final String getCurrentRelease() {
+        return currentRelease;
+    }
+
+    /**
+     * Gets the number of deferred migrations.
+     * @return the number of migrations
+     */
+    public final int getTotalMigrations() {
+        return plan.getMigrations().size();
+    }
+
+    /**
+     * Gets the number of deferred migrations applied so far.
+     * @return the number of applied migrations
+     */
+    public final int getAppliedMigrations() {
+        return appliedMigrations;
+    }
+
+    /**
+     * Gets the failure of the background migration.
+     * @return the failure or <code>null</code> if it has not failed
+     */
+    public final Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Waits for the background migration to be done.
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the unit of the timeout
+     * @return <code>true</code> if the background migration is done
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public final boolean await(final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    /**
+     * Called when the migration of a release starts.
+     * @param release
+     *            the release
+     */
+    final void releaseStarted(final String release) {
+        currentRelease = release;
+    }
+
+    /**
+     * Called when a migration has been applied.
+     */
+    final synchronized void migrationApplied() {
+        appliedMigrations++;
+    }
+
+    /**
+     * Called when all migrations have been applied.
+     */
+    final void completed() {
+        state = State.COMPLETED;
+        done.countDown();
+    }
+
+    /**
+     * Called when a migration has failed.
+     * @param cause
+     *            the failure
+     */
+    final void failed(final Throwable cause) {
+        failure = cause;
+        state = State.FAILED;
+        done.countDown();
+    }
+
+    @Override
+    public final String toString() {
+        return String.format("Deferred migration of %s: %s, %s of %s "
+                + "migration(s) applied", getReleases(), state,
+                appliedMigrations, getTotalMigrations());
+    }
+}
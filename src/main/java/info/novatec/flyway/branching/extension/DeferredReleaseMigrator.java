@@ -0,0 +1,457 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import info.novatec.flyway.branching.extension.metrics.BaseBranchingListener;
+import info.novatec.flyway.branching.extension.metrics.BranchingListener;
+import info.novatec.flyway.branching.extension.plan.MigrationPlan;
+import info.novatec.flyway.branching.extension.plan.MigrationPlanner;
+import info.novatec.flyway.branching.extension.plan.PlannedMigration;
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+import info.novatec.flyway.branching.extension.release.ReleaseTable;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.flywaydb.core.internal.dbsupport.Schema;
+import org.flywaydb.core.internal.metadatatable.MetaDataTable;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
+import org.flywaydb.core.internal.util.jdbc.TransactionCallback;
+import org.flywaydb.core.internal.util.jdbc.TransactionTemplate;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+
+/**
+ * Applies the blocking releases of the chain before returning and migrates
+ * the deferrable releases in background, so an application can start once
+ * the releases it needs are applied. Deferrable releases are meant for
+ * additive changes like backfills, which the application does not depend
+ * on. As releases are applied in chain order, all releases following a
+ * deferrable release have to be deferrable as well.
+ * <p>
+ * Every migration is applied in its own transaction together with its entry
+ * in the flyway metadata table, unless it must not run in a transaction,
+ * e.g. an online index build or a chunked data migration. A blocking
+ * release is switched to with its first migration. A deferrable release is
+ * switched to only with its last migration, so the release table keeps the
+ * previous release until the deferrable one is complete, and its state is
+ * stored as {@link DeferredMigration.State#COMPLETED} with the switch.
+ * Meanwhile the state of the previous release tells the state of the
+ * background migration: {@link DeferredMigration.State#MIGRATING} once a
+ * deferrable release is started and {@link DeferredMigration.State#FAILED}
+ * if it fails. The progress, including a failure, is exposed by the
+ * returned {@link DeferredMigration} as well. An incomplete background
+ * migration is resumed by the next run.
+ * </p>
+ * <p>
+ * Concurrent runs are serialized by locking the release table and the
+ * metadata table in the transaction of every migration. A migration that
+ * must not run in a transaction is executed while the locks are held on a
+ * second connection of the datasource.
+ * </p>
+ */
+public class DeferredReleaseMigrator extends AbstractReleaseMigrator {
+    /**
+     * Logger.
+     */
+    private static final Log LOG =
+            LogFactory.getLog(DeferredReleaseMigrator.class);
+
+    /**
+     * The position of the first deferrable release within the chain.
+     */
+    private final int firstDeferrable;
+
+    /**
+     * The executor migrating the deferrable releases.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Creates a new instance of {@link DeferredReleaseMigrator}.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param deferrableReleases
+     *            the releases to migrate in background
+     * @param executorToUse
+     *            the executor migrating the deferrable releases
+     */
+    public DeferredReleaseMigrator(final Flyway flywayInstance,
+            final Collection<String> deferrableReleases,
+            final ExecutorService executorToUse) {
+        this(flywayInstance, new MigrationPlanner(flywayInstance,
+                flywayInstance.getLocations()).plan(), deferrableReleases,
+                executorToUse);
+    }
+
+    /**
+     * Creates a new instance of {@link DeferredReleaseMigrator} using an
+     * already planned release chain.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param releaseChainToUse
+     *            the release chain below the locations of the flyway instance
+     * @param deferrableReleases
+     *            the releases to migrate in background
+     * @param executorToUse
+     *            the executor migrating the deferrable releases
+     */
+    public DeferredReleaseMigrator(final Flyway flywayInstance,
+            final ReleaseChain releaseChainToUse,
+            final Collection<String> deferrableReleases,
+            final ExecutorService executorToUse) {
+        this(flywayInstance, releaseChainToUse, deferrableReleases,
+                executorToUse, new BaseBranchingListener());
+    }
+
+    /**
+     * Creates a new instance of {@link DeferredReleaseMigrator} notifying
+     * given listener, e.g. for recording metrics.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param releaseChainToUse
+     *            the release chain below the locations of the flyway instance
+     * @param deferrableReleases
+     *            the releases to migrate in background
+     * @param executorToUse
+     *            the executor migrating the deferrable releases
+     * @param listenerToUse
+     *            the thread-safe listener notified about the applied
+     *            migrations and the release switches, also from the executor
+     */
+    public DeferredReleaseMigrator(final Flyway flywayInstance,
+            final ReleaseChain releaseChainToUse,
+            final Collection<String> deferrableReleases,
+            final ExecutorService executorToUse,
+            final BranchingListener listenerToUse) {
+        super(flywayInstance, releaseChainToUse, listenerToUse);
+        List<String> releases = releaseChainToUse.getReleases();
+        int first = releases.size();
+        for (String release : deferrableReleases) {
+            int index = releaseChainToUse.indexOf(release);
+            if (index < 0) {
+                throw new FlywayException(String.format(
+                        "Deferrable release %s is not part of chain %s",
+                        release, releaseChainToUse));
+            }
+            first = Math.min(first, index);
+        }
+        for (int i = first; i < releases.size(); i++) {
+            if (!containsIgnoreCase(deferrableReleases, releases.get(i))) {
+                throw new FlywayException(String.format(
+                        "Release %s follows deferrable release %s and has to "
+                                + "be deferrable as well",
+                        releases.get(i), releases.get(first)));
+            }
+        }
+        this.firstDeferrable = first;
+        this.executor = executorToUse;
+    }
+
+    /**
+     * Applies the pending migrations of the blocking releases and starts
+     * the migration of the deferrable releases in background.
+     * @return the progress of the background migration
+     */
+    public final DeferredMigration migrate() {
+        Connection connection = null;
+        try {
+            connection = getFlyway().getDataSource().getConnection();
+            final DbSupport dbSupport = DbSupportFactory.createDbSupport(
+                    connection, true);
+            final Schema schema = getSchema(dbSupport);
+            ReleaseTable releaseTable = createReleaseTable(dbSupport, schema);
+            MetaDataTable metaDataTable = createMetaDataTable(dbSupport,
+                    schema);
+
+            String lastBlocking = firstDeferrable == 0 ? null
+                    : getReleaseChain().getReleases().get(firstDeferrable - 1);
+            MigrationPlan blocking = getPlan(connection, releaseTable,
+                    metaDataTable, lastBlocking);
+            if (!blocking.getMigrations().isEmpty()) {
+                apply(connection, dbSupport, schema, releaseTable,
+                        metaDataTable, blocking, null);
+                LOG.info(String.format(
+                        "Applied %s migration(s) of the blocking releases",
+                        blocking.getMigrations().size()));
+            }
+
+            final MigrationPlan deferred = getPlan(connection, releaseTable,
+                    metaDataTable, null);
+            final DeferredMigration progress = new DeferredMigration(deferred);
+            if (progress.isDone()) {
+                storeFingerprint(connection, releaseTable,
+                        deferred.getToRelease());
+                return progress;
+            }
+
+            LOG.info("Deferring " + deferred);
+            executor.submit(new Callable<Void>() {
+                public Void call() {
+                    migrateDeferred(deferred, progress);
+                    return null;
+                }
+            });
+            return progress;
+        } catch (SQLException e) {
+            throw new FlywayException("Error getting database connection for "
+                    + "the release migration. Reason: "
+                    + ExceptionUtils.getRootCauseMessage(e), e);
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Applies the deferred migrations on a connection of its own and
+     * reports the progress.
+     * @param plan
+     *            the plan of the deferred migrations
+     * @param progress
+     *            the progress to report to
+     */
+    private void migrateDeferred(final MigrationPlan plan,
+            final DeferredMigration progress) {
+        Connection connection = null;
+        ReleaseTable releaseTable = null;
+        try {
+            connection = getFlyway().getDataSource().getConnection();
+            DbSupport dbSupport = DbSupportFactory.createDbSupport(connection,
+                    true);
+            Schema schema = getSchema(dbSupport);
+            releaseTable = createReleaseTable(dbSupport, schema);
+            apply(connection, dbSupport, schema, releaseTable,
+                    createMetaDataTable(dbSupport, schema), plan, progress);
+            storeFingerprint(connection, releaseTable, plan.getToRelease());
+            progress.completed();
+            LOG.info(progress.toString());
+        } catch (SQLException e) {
+            fail(connection, releaseTable, progress, e);
+        } catch (RuntimeException e) {
+            fail(connection, releaseTable, progress, e);
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Reports a failed background migration and stores the failure in the
+     * release table, if it has been accessed already. A failure to store it
+     * is logged only, so the cause is reported in any case.
+     * @param connection
+     *            the jdbc connection of the release table
+     * @param releaseTable
+     *            the release table or <code>null</code>
+     * @param progress
+     *            the progress to report to
+     * @param cause
+     *            the failure
+     */
+    private void fail(final Connection connection,
+            final ReleaseTable releaseTable, final DeferredMigration progress,
+            final Exception cause) {
+        LOG.error("Deferred migration of release "
+                + progress.getCurrentRelease() + " failed", cause);
+        if (releaseTable != null) {
+            try {
+                storeState(connection, releaseTable,
+                        DeferredMigration.State.FAILED);
+            } catch (RuntimeException e) {
+                LOG.warn("Unable to store the failure in release table "
+                        + releaseTable + ": " + e.getMessage());
+            }
+        }
+        progress.failed(cause);
+    }
+
+    /**
+     * Stores the state of the background migration with the latest release
+     * switch, in a transaction of its own holding the release table lock.
+     * @param connection
+     *            the jdbc connection of the release table
+     * @param releaseTable
+     *            the release table
+     * @param state
+     *            the state to store
+     */
+    private static void storeState(final Connection connection,
+            final ReleaseTable releaseTable,
+            final DeferredMigration.State state) {
+        new TransactionTemplate(connection)
+                .execute(new TransactionCallback<Void>() {
+                    public Void doInTransaction() {
+                        releaseTable.lock();
+                        releaseTable.setReleaseState(state.name());
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Computes the pending migrations from the current release.
+     * @param connection
+     *            the jdbc connection
+     * @param releaseTable
+     *            the release table
+     * @param metaDataTable
+     *            the flyway metadata table
+     * @param toRelease
+     *            the target release or <code>null</code> for the head release
+     * @return the plan
+     */
+    private MigrationPlan getPlan(final Connection connection,
+            final ReleaseTable releaseTable,
+            final MetaDataTable metaDataTable, final String toRelease) {
+        return new TransactionTemplate(connection)
+                .execute(new TransactionCallback<MigrationPlan>() {
+                    public MigrationPlan doInTransaction() {
+                        String current = releaseTable.getCurrentRelease();
+                        if (toRelease != null && getReleaseChain().indexOf(
+                                toRelease) < getReleaseChain().indexOf(
+                                        current)) {
+                            return new MigrationPlan(current, Collections
+                                    .<PlannedMigration>emptyList());
+                        }
+                        return getReleaseChain().getPlan(current,
+                                getLatestVersion(metaDataTable), toRelease);
+                    }
+                });
+    }
+
+    /**
+     * Applies the migrations of a plan, one transaction per migration.
+     * @param connection
+     *            the jdbc connection
+     * @param dbSupport
+     *            database-specific functionality of the connection
+     * @param schema
+     *            the schema to migrate
+     * @param releaseTable
+     *            the release table
+     * @param metaDataTable
+     *            the flyway metadata table
+     * @param plan
+     *            the plan to apply
+     * @param progress
+     *            the progress of deferred releases, <code>null</code> for
+     *            blocking releases
+     */
+    private void apply(final Connection connection, final DbSupport dbSupport,
+            final Schema schema, final ReleaseTable releaseTable,
+            final MetaDataTable metaDataTable, final MigrationPlan plan,
+            final DeferredMigration progress) {
+        Schema originalSchema = dbSupport.getCurrentSchema();
+        dbSupport.setCurrentSchema(schema);
+        try {
+            for (List<PlannedMigration> release
+                    : plan.getMigrationsByRelease()) {
+                if (progress != null) {
+                    progress.releaseStarted(release.get(0).getRelease());
+                    storeState(connection, releaseTable,
+                            DeferredMigration.State.MIGRATING);
+                }
+                for (int i = 0; i < release.size(); i++) {
+                    PlannedMigration migration = release.get(i);
+                    LockedCallback<Void> callback = createCallback(
+                            connection, migration, progress,
+                            i == release.size() - 1);
+                    if (migration.getMigration().getExecutor()
+                            .executeInTransaction()) {
+                        executeLocked(connection, releaseTable,
+                                metaDataTable, callback);
+                    } else {
+                        executeLocked(callback);
+                    }
+                    if (progress != null) {
+                        progress.migrationApplied();
+                    }
+                }
+            }
+        } finally {
+            dbSupport.setCurrentSchema(originalSchema);
+        }
+    }
+
+    /**
+     * Creates the callback applying a migration unless another process has
+     * applied it meanwhile. Migrations that must not run in a transaction
+     * are executed on given connection while the tables are locked in the
+     * transaction of another one.
+     * @param connection
+     *            the jdbc connection executing the migration
+     * @param migration
+     *            the migration
+     * @param progress
+     *            the progress of deferred releases, <code>null</code> for
+     *            blocking releases
+     * @param last
+     *            whether the migration is the last one of its release
+     * @return the callback
+     */
+    private LockedCallback<Void> createCallback(final Connection connection,
+            final PlannedMigration migration,
+            final DeferredMigration progress, final boolean last) {
+        return new LockedCallback<Void>() {
+            public Void doLocked(final ReleaseTable releaseTable,
+                    final MetaDataTable metaDataTable,
+                    final MigrationVersion latestVersion) {
+                if (getPending(Collections.singletonList(migration),
+                        latestVersion).isEmpty()) {
+                    return null;
+                }
+                record(metaDataTable, migration,
+                        execute(connection, migration), true);
+                if (progress == null) {
+                    switchRelease(releaseTable, migration.getRelease());
+                } else if (last) {
+                    switchRelease(releaseTable, migration.getRelease());
+                    releaseTable.setReleaseState(
+                            DeferredMigration.State.COMPLETED.name());
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Whether a collection contains a release ignoring the case.
+     * @param releases
+     *            the releases
+     * @param release
+     *            the release to look for
+     * @return <code>true</code> if the release is contained
+     */
+    private static boolean containsIgnoreCase(
+            final Collection<String> releases, final String release) {
+        for (String candidate : releases) {
+            if (candidate.equalsIgnoreCase(release)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
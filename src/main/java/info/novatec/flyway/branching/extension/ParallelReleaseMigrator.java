@@ -0,0 +1,509 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import info.novatec.flyway.branching.extension.metrics.BaseBranchingListener;
+import info.novatec.flyway.branching.extension.metrics.BranchingListener;
+import info.novatec.flyway.branching.extension.plan.MigrationGraph;
+import info.novatec.flyway.branching.extension.plan.MigrationPlan;
+import info.novatec.flyway.branching.extension.plan.MigrationPlanner;
+import info.novatec.flyway.branching.extension.plan.PlannedMigration;
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+import info.novatec.flyway.branching.extension.release.ReleaseTable;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.resolver.ResolvedMigration;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.flywaydb.core.internal.dbsupport.Schema;
+import org.flywaydb.core.internal.metadatatable.AppliedMigration;
+import org.flywaydb.core.internal.metadatatable.MetaDataTable;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
+import org.flywaydb.core.internal.util.jdbc.TransactionCallback;
+import org.flywaydb.core.internal.util.jdbc.TransactionTemplate;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+
+/**
+ * Applies the pending migrations of a release concurrently as far as their
+ * declared dependencies allow (see {@link MigrationGraph}). Every migration
+ * runs on its own connection of the datasource, in its own transaction
+ * unless it must not run in one, so the datasource has to provide one
+ * connection more than the number of threads. The releases themselves are
+ * still applied one after the other.
+ * <p>
+ * Every migration is recorded in the flyway metadata table on its own
+ * connection, within the transaction of its changes, so a migration is
+ * never applied without its entry even if the process is killed in the
+ * middle of a release. The entries are therefore inserted in the order the
+ * migrations complete: the installed rank follows the completion order,
+ * while the version rank maintained by flyway keeps the version order. The
+ * release table is switched to a release once at least one of its
+ * migrations has been recorded. If a migration fails no further migrations
+ * are started, the running ones are awaited and the failure is thrown.
+ * </p>
+ * <p>
+ * No lock is held while the migrations of a release are running, so
+ * migrations may update the release table themselves. Every migration
+ * locks the release table and the metadata table only for recording it,
+ * in the transaction of its changes. A migration recorded by a concurrent
+ * run meanwhile fails the run, which rolls back the transaction of the
+ * duplicate.
+ * </p>
+ */
+public class ParallelReleaseMigrator extends AbstractReleaseMigrator {
+    /**
+     * Logger.
+     */
+    private static final Log LOG =
+            LogFactory.getLog(ParallelReleaseMigrator.class);
+
+    /**
+     * The maximum number of migrations applied concurrently.
+     */
+    private final int threads;
+
+    /**
+     * Creates a new instance of {@link ParallelReleaseMigrator}.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param threadsToUse
+     *            the maximum number of migrations applied concurrently
+     */
+    public ParallelReleaseMigrator(final Flyway flywayInstance,
+            final int threadsToUse) {
+        this(flywayInstance, new MigrationPlanner(flywayInstance,
+                flywayInstance.getLocations()).plan(), threadsToUse);
+    }
+
+    /**
+     * Creates a new instance of {@link ParallelReleaseMigrator} using an
+     * already planned release chain.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param releaseChainToUse
+     *            the release chain below the locations of the flyway instance
+     * @param threadsToUse
+     *            the maximum number of migrations applied concurrently
+     */
+    public ParallelReleaseMigrator(final Flyway flywayInstance,
+            final ReleaseChain releaseChainToUse, final int threadsToUse) {
+        this(flywayInstance, releaseChainToUse, threadsToUse,
+                new BaseBranchingListener());
+    }
+
+    /**
+     * Creates a new instance of {@link ParallelReleaseMigrator} notifying
+     * given listener, e.g. for recording metrics.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param releaseChainToUse
+     *            the release chain below the locations of the flyway instance
+     * @param threadsToUse
+     *            the maximum number of migrations applied concurrently
+     * @param listenerToUse
+     *            the thread-safe listener notified about the applied
+     *            migrations and the release switches
+     */
+    public ParallelReleaseMigrator(final Flyway flywayInstance,
+            final ReleaseChain releaseChainToUse, final int threadsToUse,
+            final BranchingListener listenerToUse) {
+        super(flywayInstance, releaseChainToUse, listenerToUse);
+        if (threadsToUse < 1) {
+            throw new FlywayException("Invalid number of threads "
+                    + threadsToUse + ". At least one thread is required");
+        }
+        this.threads = threadsToUse;
+    }
+
+    /**
+     * Applies all pending migrations up to the head release.
+     * @return the number of applied migrations
+     */
+    public final int migrate() {
+        Connection connection = null;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            connection = getFlyway().getDataSource().getConnection();
+            DbSupport dbSupport = DbSupportFactory.createDbSupport(connection,
+                    true);
+            return migrate(connection, dbSupport, executor);
+        } catch (SQLException e) {
+            throw new FlywayException("Error getting database connection for "
+                    + "the release migration. Reason: "
+                    + ExceptionUtils.getRootCauseMessage(e), e);
+        } finally {
+            executor.shutdownNow();
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Applies all pending migrations release by release.
+     * @param connection
+     *            the jdbc connection of the release and metadata table
+     * @param dbSupport
+     *            database-specific functionality of the connection
+     * @param executor
+     *            the executor running the migrations
+     * @return the number of applied migrations
+     */
+    private int migrate(final Connection connection,
+            final DbSupport dbSupport, final ExecutorService executor) {
+        final Schema schema = getSchema(dbSupport);
+        final ReleaseTable releaseTable = createReleaseTable(dbSupport,
+                schema);
+        final MetaDataTable metaDataTable = createMetaDataTable(dbSupport,
+                schema);
+
+        MigrationPlan plan = new TransactionTemplate(connection)
+                .execute(new TransactionCallback<MigrationPlan>() {
+                    public MigrationPlan doInTransaction() {
+                        return getPendingMigrations(
+                                releaseTable.getCurrentRelease(),
+                                metaDataTable);
+                    }
+                });
+        LOG.info(plan.toString());
+
+        final boolean recordFailure = !dbSupport.supportsDdlTransactions();
+        int applied = 0;
+        for (final List<PlannedMigration> release
+                : plan.getMigrationsByRelease()) {
+            final String name = release.get(0).getRelease();
+            final Set<PlannedMigration> appliedOfRelease =
+                    new HashSet<PlannedMigration>();
+            long start = System.currentTimeMillis();
+            List<PlannedMigration> pending = new TransactionTemplate(
+                    connection).execute(
+                    new TransactionCallback<List<PlannedMigration>>() {
+                        public List<PlannedMigration> doInTransaction() {
+                            return getUnapplied(release, metaDataTable);
+                        }
+                    });
+            if (pending.isEmpty()) {
+                continue;
+            }
+            FlywayException failure = applyRelease(
+                    new MigrationGraph(pending), schema, executor,
+                    recordFailure, appliedOfRelease);
+            if (!appliedOfRelease.isEmpty()) {
+                new TransactionTemplate(connection)
+                        .execute(new TransactionCallback<Void>() {
+                            public Void doInTransaction() {
+                                releaseTable.lock();
+                                switchRelease(releaseTable, name);
+                                return null;
+                            }
+                        });
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            applied += appliedOfRelease.size();
+            LOG.info(String.format(
+                    "Applied %s migration(s) of release %s in %s ms",
+                    appliedOfRelease.size(), name,
+                    System.currentTimeMillis() - start));
+        }
+
+        storeFingerprint(connection, releaseTable, plan.getToRelease());
+        return applied;
+    }
+
+    /**
+     * Computes the pending migrations starting at the current release. In
+     * contrast to a plan from the latest applied version, migrations below
+     * it that are not applied yet are included, as concurrent migrations
+     * of a failed release may have been applied in any order.
+     * @param currentRelease
+     *            the current release of the release table
+     * @param metaDataTable
+     *            the flyway metadata table
+     * @return the plan of the pending migrations
+     */
+    private MigrationPlan getPendingMigrations(final String currentRelease,
+            final MetaDataTable metaDataTable) {
+        MigrationVersion baseline = MigrationVersion.EMPTY;
+        if (metaDataTable.hasBaselineMarker()) {
+            baseline = metaDataTable.getBaselineMarker().getVersion();
+        }
+        return new MigrationPlan(currentRelease, getUnapplied(
+                getReleaseChain().getPlan(currentRelease, baseline, null)
+                        .getMigrations(), metaDataTable));
+    }
+
+    /**
+     * Gets the migrations not recorded in the flyway metadata table yet.
+     * @param migrations
+     *            the planned migrations
+     * @param metaDataTable
+     *            the flyway metadata table
+     * @return the migrations not applied yet
+     */
+    private List<PlannedMigration> getUnapplied(
+            final List<PlannedMigration> migrations,
+            final MetaDataTable metaDataTable) {
+        Set<MigrationVersion> appliedVersions = new HashSet<MigrationVersion>();
+        for (AppliedMigration applied : metaDataTable.allAppliedMigrations()) {
+            if (!applied.isSuccess()) {
+                throw new FlywayException(String.format(
+                        "Detected failed migration to version %s (%s). "
+                                + "Please repair the metadata table first",
+                        applied.getVersion(), applied.getDescription()));
+            }
+            appliedVersions.add(applied.getVersion());
+        }
+
+        List<PlannedMigration> pending = new ArrayList<PlannedMigration>();
+        for (PlannedMigration planned : migrations) {
+            if (!appliedVersions.contains(
+                    planned.getMigration().getVersion())) {
+                pending.add(planned);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Applies the migrations of a release concurrently, each recorded in the
+     * flyway metadata table by its own task.
+     * @param graph
+     *            the dependency graph of the migrations of the release
+     * @param schema
+     *            the schema to migrate
+     * @param executor
+     *            the executor running the migrations
+     * @param recordFailure
+     *            whether a failed migration is recorded, i.e. it may have
+     *            left changes behind
+     * @param applied
+     *            the set to add the applied migrations to
+     * @return the failure of the release or <code>null</code> if all
+     *         migrations have been applied
+     */
+    private FlywayException applyRelease(final MigrationGraph graph,
+            final Schema schema, final ExecutorService executor,
+            final boolean recordFailure, final Set<PlannedMigration> applied) {
+        CompletionService<Void> completionService =
+                new ExecutorCompletionService<Void>(executor);
+        Map<Future<Void>, PlannedMigration> running =
+                new HashMap<Future<Void>, PlannedMigration>();
+        PlannedMigration failed = null;
+        Throwable failure = null;
+
+        do {
+            if (failure == null) {
+                for (PlannedMigration ready : graph.getReady(applied,
+                        new HashSet<PlannedMigration>(running.values()))) {
+                    running.put(completionService.submit(createTask(ready,
+                            schema.getName(), recordFailure)), ready);
+                }
+            }
+            if (running.isEmpty()) {
+                break;
+            }
+            try {
+                Future<Void> future = completionService.take();
+                PlannedMigration migration = running.remove(future);
+                try {
+                    future.get();
+                    applied.add(migration);
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failed = migration;
+                        failure = e.getCause();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FlywayException(
+                        "Interrupted while applying migrations", e);
+            }
+        } while (true);
+
+        if (failure == null) {
+            return null;
+        }
+        ResolvedMigration migration = failed.getMigration();
+        return new FlywayException(String.format(
+                "Migration %s of release %s failed. Reason: %s",
+                migration.getScript(), failed.getRelease(),
+                ExceptionUtils.getRootCauseMessage(failure)), failure);
+    }
+
+    /**
+     * Creates the task applying a migration on its own connection and
+     * recording it in the flyway metadata table on the same connection,
+     * within the transaction of the migration unless it must not run in
+     * one.
+     * @param planned
+     *            the migration
+     * @param schemaName
+     *            the name of the schema to migrate
+     * @param recordFailure
+     *            whether a failed migration is recorded
+     * @return the task
+     */
+    private Callable<Void> createTask(final PlannedMigration planned,
+            final String schemaName, final boolean recordFailure) {
+        return new Callable<Void>() {
+            public Void call() throws SQLException {
+                final Connection connection = getFlyway().getDataSource()
+                        .getConnection();
+                try {
+                    DbSupport dbSupport = DbSupportFactory.createDbSupport(
+                            connection, false);
+                    Schema schema = dbSupport.getSchema(schemaName);
+                    dbSupport.setCurrentSchema(schema);
+                    apply(connection, planned,
+                            createReleaseTable(dbSupport, schema),
+                            createMetaDataTable(dbSupport, schema),
+                            recordFailure);
+                } finally {
+                    JdbcUtils.closeConnection(connection);
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Applies a migration and records it in the flyway metadata table.
+     * @param connection
+     *            the jdbc connection of the migration
+     * @param planned
+     *            the migration
+     * @param releaseTable
+     *            the release table of the connection
+     * @param metaDataTable
+     *            the flyway metadata table of the connection
+     * @param recordFailure
+     *            whether a failed migration is recorded
+     */
+    private void apply(final Connection connection,
+            final PlannedMigration planned, final ReleaseTable releaseTable,
+            final MetaDataTable metaDataTable, final boolean recordFailure) {
+        try {
+            if (planned.getMigration().getExecutor().executeInTransaction()) {
+                new TransactionTemplate(connection)
+                        .execute(new TransactionCallback<Void>() {
+                            public Void doInTransaction() {
+                                int executionTime = execute(connection,
+                                        planned);
+                                recordUnique(releaseTable, metaDataTable,
+                                        planned, executionTime, true);
+                                return null;
+                            }
+                        });
+            } else {
+                recordLocked(connection, releaseTable, metaDataTable, planned,
+                        execute(connection, planned), true);
+            }
+        } catch (FlywayException e) {
+            if (recordFailure) {
+                recordLocked(connection, releaseTable, metaDataTable, planned,
+                        0, false);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Records a migration in a transaction of its own.
+     * @param connection
+     *            the jdbc connection of the tables
+     * @param releaseTable
+     *            the release table
+     * @param metaDataTable
+     *            the flyway metadata table
+     * @param planned
+     *            the migration
+     * @param executionTime
+     *            the execution time in ms
+     * @param success
+     *            whether the migration succeeded
+     */
+    private void recordLocked(final Connection connection,
+            final ReleaseTable releaseTable,
+            final MetaDataTable metaDataTable, final PlannedMigration planned,
+            final int executionTime, final boolean success) {
+        new TransactionTemplate(connection)
+                .execute(new TransactionCallback<Void>() {
+                    public Void doInTransaction() {
+                        recordUnique(releaseTable, metaDataTable, planned,
+                                executionTime, success);
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Locks the release table and the metadata table and records a
+     * migration, unless a concurrent run has recorded it meanwhile. A
+     * successful migration recorded meanwhile fails, so its transaction is
+     * rolled back.
+     * @param releaseTable
+     *            the release table
+     * @param metaDataTable
+     *            the flyway metadata table
+     * @param planned
+     *            the migration
+     * @param executionTime
+     *            the execution time in ms
+     * @param success
+     *            whether the migration succeeded
+     */
+    private void recordUnique(final ReleaseTable releaseTable,
+            final MetaDataTable metaDataTable, final PlannedMigration planned,
+            final int executionTime, final boolean success) {
+        releaseTable.lock();
+        metaDataTable.lock();
+        MigrationVersion version = planned.getMigration().getVersion();
+        for (AppliedMigration applied : metaDataTable.allAppliedMigrations()) {
+            if (applied.getVersion().equals(version)) {
+                if (!success) {
+                    return;
+                }
+                throw new FlywayException(String.format(
+                        "Migration %s of release %s has been applied by a "
+                                + "concurrent run",
+                        planned.getMigration().getScript(),
+                        planned.getRelease()));
+            }
+        }
+        record(metaDataTable, planned, executionTime, success);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import info.novatec.flyway.branching.extension.plan.ChecksumCache;
+import info.novatec.flyway.branching.extension.plan.MigrationPlanner;
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationType;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.resolver.ResolvedMigration;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.flywaydb.core.internal.dbsupport.Schema;
+import org.flywaydb.core.internal.metadatatable.AppliedMigration;
+import org.flywaydb.core.internal.metadatatable.MetaDataTable;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
+import org.flywaydb.core.internal.util.jdbc.TransactionCallback;
+import org.flywaydb.core.internal.util.jdbc.TransactionTemplate;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+
+/**
+ * Validates the applied sql migrations against the whole release chain
+ * instead of the locations of the current release, so it can be used in
+ * place of flyway's validation, which has to be disabled with
+ * {@link Flyway#setValidateOnMigrate(boolean)} once the branching callback
+ * switches the locations. Every applied migration must be part of the chain
+ * with the same description and checksum, and no migration of the chain
+ * older than the latest applied version may be missing. The checksums are
+ * looked up in a persisted {@link ChecksumCache}, so only modified scripts
+ * are read.
+ */
+public class ReleaseChainValidator extends AbstractReleaseMigrator {
+    /**
+     * Logger.
+     */
+    private static final Log LOG =
+            LogFactory.getLog(ReleaseChainValidator.class);
+
+    /**
+     * The cache of the checksums of the scripts.
+     */
+    private final ChecksumCache checksumCache;
+
+    /**
+     * Creates a new instance of {@link ReleaseChainValidator}.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param checksumCacheToUse
+     *            the cache of the checksums of the scripts
+     */
+    public ReleaseChainValidator(final Flyway flywayInstance,
+            final ChecksumCache checksumCacheToUse) {
+        this(flywayInstance, new MigrationPlanner(flywayInstance,
+                flywayInstance.getLocations()).plan(), checksumCacheToUse);
+    }
+
+    /**
+     * Creates a new instance of {@link ReleaseChainValidator} using an
+     * already planned release chain.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param releaseChainToUse
+     *            the release chain below the locations of the flyway instance
+     * @param checksumCacheToUse
+     *            the cache of the checksums of the scripts
+     */
+    public ReleaseChainValidator(final Flyway flywayInstance,
+            final ReleaseChain releaseChainToUse,
+            final ChecksumCache checksumCacheToUse) {
+        super(flywayInstance, releaseChainToUse);
+        this.checksumCache = checksumCacheToUse;
+    }
+
+    /**
+     * Validates the applied migrations and saves the checksum cache.
+     * @throws FlywayException
+     *             if an applied migration does not match the release chain
+     */
+    public final void validate() {
+        Connection connection = null;
+        try {
+            connection = getFlyway().getDataSource().getConnection();
+            validate(connection);
+        } catch (SQLException e) {
+            throw new FlywayException("Error getting database connection for "
+                    + "the validation. Reason: "
+                    + ExceptionUtils.getRootCauseMessage(e), e);
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+        checksumCache.save();
+    }
+
+    /**
+     * Validates the applied migrations using given connection. Nothing is
+     * validated if the flyway metadata table does not exist yet.
+     * @param connection
+     *            the jdbc connection
+     */
+    private void validate(final Connection connection) {
+        long start = System.currentTimeMillis();
+        DbSupport dbSupport = DbSupportFactory.createDbSupport(connection,
+                false);
+        String[] schemas = getFlyway().getSchemas();
+        Schema schema = schemas.length == 0 ? dbSupport.getCurrentSchema()
+                : dbSupport.getSchema(schemas[0]);
+        if (!schema.exists()
+                || !schema.getTable(getFlyway().getTable()).exists()) {
+            LOG.debug(String.format("No metadata table in schema %s, "
+                    + "nothing to validate", schema));
+            return;
+        }
+
+        final MetaDataTable metaDataTable = createMetaDataTable(dbSupport,
+                schema);
+        List<AppliedMigration> appliedMigrations = new TransactionTemplate(
+                connection).execute(
+                        new TransactionCallback<List<AppliedMigration>>() {
+                            public List<AppliedMigration> doInTransaction() {
+                                return metaDataTable.allAppliedMigrations();
+                            }
+                        });
+
+        MigrationVersion baseline = MigrationVersion.EMPTY;
+        for (AppliedMigration applied : appliedMigrations) {
+            if (applied.getType() == MigrationType.BASELINE
+                    || applied.getType() == MigrationType.INIT) {
+                baseline = applied.getVersion();
+            }
+        }
+
+        Set<MigrationVersion> validated = new HashSet<MigrationVersion>();
+        MigrationVersion latest = MigrationVersion.EMPTY;
+        for (AppliedMigration applied : appliedMigrations) {
+            if (applied.getType() != MigrationType.SQL
+                    || applied.getVersion().compareTo(baseline) <= 0) {
+                continue;
+            }
+            validate(applied);
+            validated.add(applied.getVersion());
+            if (applied.getVersion().compareTo(latest) > 0) {
+                latest = applied.getVersion();
+            }
+        }
+
+        for (String release : getReleaseChain().getReleases()) {
+            for (MigrationVersion version : getReleaseChain().getCatalog()
+                    .getMigrations(release).keySet()) {
+                if (version.compareTo(baseline) > 0
+                        && version.compareTo(latest) < 0
+                        && !validated.contains(version)) {
+                    throw new FlywayException(String.format(
+                            "Migration %s of release %s has not been applied "
+                            + "although later migrations have been applied",
+                            version, release));
+                }
+            }
+        }
+        LOG.info(String.format("Validated %s applied migration(s) against "
+                + "release chain %s in %s ms", validated.size(),
+                getReleaseChain(), System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Validates an applied migration against the release chain.
+     * @param applied
+     *            the applied migration
+     */
+    private void validate(final AppliedMigration applied) {
+        MigrationVersion version = applied.getVersion();
+        if (!applied.isSuccess()) {
+            throw new FlywayException(String.format(
+                    "Detected failed migration to version %s (%s)", version,
+                    applied.getDescription()));
+        }
+        String release = getReleaseChain().getRelease(version);
+        if (release == null) {
+            throw new FlywayException(String.format(
+                    "Applied migration %s (%s) is not part of release chain "
+                    + "%s", version, applied.getDescription(),
+                    getReleaseChain()));
+        }
+        ResolvedMigration resolved = getReleaseChain().getCatalog()
+                .getMigrations(release).get(version);
+        if (!resolved.getDescription().equals(applied.getDescription())) {
+            throw new FlywayException(String.format(
+                    "Description mismatch for migration %s of release %s: "
+                    + "applied '%s', resolved '%s'", version, release,
+                    applied.getDescription(), resolved.getDescription()));
+        }
+        Integer checksum = checksumCache.getChecksum(resolved);
+        if (checksum == null ? applied.getChecksum() != null
+                : !checksum.equals(applied.getChecksum())) {
+            throw new FlywayException(String.format(
+                    "Checksum mismatch for migration %s of release %s: "
+                    + "applied %s, resolved %s", version, release,
+                    applied.getChecksum(), checksum));
+        }
+    }
+}
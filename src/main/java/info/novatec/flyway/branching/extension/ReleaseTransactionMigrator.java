@@ -0,0 +1,286 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import info.novatec.flyway.branching.extension.metrics.BaseBranchingListener;
+import info.novatec.flyway.branching.extension.metrics.BranchingListener;
+import info.novatec.flyway.branching.extension.plan.MigrationPlan;
+import info.novatec.flyway.branching.extension.plan.MigrationPlanner;
+import info.novatec.flyway.branching.extension.plan.PlannedMigration;
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+import info.novatec.flyway.branching.extension.release.ReleaseTable;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.flywaydb.core.internal.dbsupport.Schema;
+import org.flywaydb.core.internal.metadatatable.MetaDataTable;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
+import org.flywaydb.core.internal.util.jdbc.TransactionCallback;
+import org.flywaydb.core.internal.util.jdbc.TransactionTemplate;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+
+/**
+ * Applies the pending migrations of the release chain release by release,
+ * each release in a single transaction together with its entries in the
+ * flyway metadata table and the release table. A release is therefore
+ * applied completely or not at all, and only one commit is issued per
+ * release. The migrations are resolved from the catalog of the release chain
+ * and executed on a single connection. Migrations that must not run in a
+ * transaction, e.g. online index builds, are applied on their own between
+ * the transactional parts of their release.
+ * <p>
+ * This requires transactional DDL. For databases without it the migration
+ * falls back to flyway's migrate with a {@link BranchingCallback}, i.e. one
+ * transaction per migration.
+ * </p>
+ * <p>
+ * Concurrent runs are serialized by locking the release table and the
+ * metadata table in every transaction. A migration that must not run in a
+ * transaction is executed while the locks are held on a second connection
+ * of the datasource.
+ * </p>
+ */
+public class ReleaseTransactionMigrator extends AbstractReleaseMigrator {
+    /**
+     * Logger.
+     */
+    private static final Log LOG =
+            LogFactory.getLog(ReleaseTransactionMigrator.class);
+
+    /**
+     * Creates a new instance of {@link ReleaseTransactionMigrator}.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     */
+    public ReleaseTransactionMigrator(final Flyway flywayInstance) {
+        this(flywayInstance, new MigrationPlanner(flywayInstance,
+                flywayInstance.getLocations()).plan());
+    }
+
+    /**
+     * Creates a new instance of {@link ReleaseTransactionMigrator} using an
+     * already planned release chain.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param releaseChainToUse
+     *            the release chain below the locations of the flyway instance
+     */
+    public ReleaseTransactionMigrator(final Flyway flywayInstance,
+            final ReleaseChain releaseChainToUse) {
+        this(flywayInstance, releaseChainToUse, new BaseBranchingListener());
+    }
+
+    /**
+     * Creates a new instance of {@link ReleaseTransactionMigrator} notifying
+     * given listener, e.g. for recording metrics. Migrations of a release
+     * rolled back later on have been reported already.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param releaseChainToUse
+     *            the release chain below the locations of the flyway instance
+     * @param listenerToUse
+     *            the listener notified about the applied migrations and the
+     *            release switches
+     */
+    public ReleaseTransactionMigrator(final Flyway flywayInstance,
+            final ReleaseChain releaseChainToUse,
+            final BranchingListener listenerToUse) {
+        super(flywayInstance, releaseChainToUse, listenerToUse);
+    }
+
+    /**
+     * Applies all pending migrations up to the head release.
+     * @return the number of applied migrations
+     */
+    public final int migrate() {
+        Connection connection = null;
+        try {
+            connection = getFlyway().getDataSource().getConnection();
+            DbSupport dbSupport = DbSupportFactory.createDbSupport(connection,
+                    true);
+            if (!supportsTransactionalReleases(dbSupport)) {
+                LOG.info(String.format("No transactional DDL support for %s. "
+                        + "Migrating one transaction per migration",
+                        dbSupport.getDbName()));
+                JdbcUtils.closeConnection(connection);
+                connection = null;
+                BranchingCallback callback = new BranchingCallback(
+                        getFlyway(), getReleaseChain(), true, getListener());
+                getFlyway().setCallbacks(callback);
+                return getFlyway().migrate();
+            }
+            return migrate(connection, dbSupport);
+        } catch (SQLException e) {
+            throw new FlywayException("Error getting database connection for "
+                    + "the release migration. Reason: "
+                    + ExceptionUtils.getRootCauseMessage(e), e);
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Whether all migrations of a release can be applied in one transaction.
+     * @param dbSupport
+     *            database-specific functionality
+     * @return <code>true</code> if the database supports transactional DDL
+     */
+    protected boolean supportsTransactionalReleases(
+            final DbSupport dbSupport) {
+        return dbSupport.supportsDdlTransactions();
+    }
+
+    /**
+     * Applies all pending migrations, one transaction per release.
+     * @param connection
+     *            the jdbc connection
+     * @param dbSupport
+     *            database-specific functionality of the connection
+     * @return the number of applied migrations
+     */
+    private int migrate(final Connection connection,
+            final DbSupport dbSupport) {
+        new SquashedBaselineInstaller(getFlyway(), getReleaseChain())
+                .install(connection);
+        final Schema schema = getSchema(dbSupport);
+        final ReleaseTable releaseTable = createReleaseTable(dbSupport,
+                schema);
+        final MetaDataTable metaDataTable = createMetaDataTable(dbSupport,
+                schema);
+
+        MigrationPlan plan = new TransactionTemplate(connection)
+                .execute(new TransactionCallback<MigrationPlan>() {
+                    public MigrationPlan doInTransaction() {
+                        return getReleaseChain().getPlan(
+                                releaseTable.getCurrentRelease(),
+                                getLatestVersion(metaDataTable), null);
+                    }
+                });
+        LOG.info(plan.toString());
+
+        Schema originalSchema = dbSupport.getCurrentSchema();
+        dbSupport.setCurrentSchema(schema);
+        try {
+            int applied = 0;
+            for (List<PlannedMigration> release
+                    : plan.getMigrationsByRelease()) {
+                long start = System.currentTimeMillis();
+                int appliedOfRelease = 0;
+                for (final List<PlannedMigration> part : split(release)) {
+                    LockedCallback<Integer> callback =
+                            new LockedCallback<Integer>() {
+                                public Integer doLocked(
+                                        final ReleaseTable lockedReleaseTable,
+                                        final MetaDataTable lockedMetaDataTable,
+                                        final MigrationVersion latestVersion) {
+                                    return applyPart(connection,
+                                            getPending(part, latestVersion),
+                                            lockedMetaDataTable,
+                                            lockedReleaseTable);
+                                }
+                            };
+                    if (part.get(0).getMigration().getExecutor()
+                            .executeInTransaction()) {
+                        appliedOfRelease += executeLocked(connection,
+                                releaseTable, metaDataTable, callback);
+                    } else {
+                        appliedOfRelease += executeLocked(callback);
+                    }
+                }
+                applied += appliedOfRelease;
+                LOG.info(String.format(
+                        "Applied %s migration(s) of release %s in %s ms",
+                        appliedOfRelease, release.get(0).getRelease(),
+                        System.currentTimeMillis() - start));
+            }
+
+            storeFingerprint(connection, releaseTable, plan.getToRelease());
+            return applied;
+        } finally {
+            dbSupport.setCurrentSchema(originalSchema);
+        }
+    }
+
+    /**
+     * Applies a part of the migrations of a release within the current
+     * transaction and switches the release table to the release. Migrations
+     * that must not run in a transaction are executed on given connection
+     * while the tables are locked in the transaction of another one.
+     * @param connection
+     *            the jdbc connection executing the migrations
+     * @param migrations
+     *            the pending migrations of the part
+     * @param metaDataTable
+     *            the locked flyway metadata table
+     * @param releaseTable
+     *            the locked release table
+     * @return the number of applied migrations
+     */
+    private int applyPart(final Connection connection,
+            final List<PlannedMigration> migrations,
+            final MetaDataTable metaDataTable,
+            final ReleaseTable releaseTable) {
+        if (migrations.isEmpty()) {
+            return 0;
+        }
+        switchRelease(releaseTable, migrations.get(0).getRelease());
+        for (PlannedMigration migration : migrations) {
+            record(metaDataTable, migration, execute(connection, migration),
+                    true);
+        }
+        return migrations.size();
+    }
+
+    /**
+     * Splits the migrations of a release into the parts applied in one
+     * transaction each. Migrations that must not run in a transaction form
+     * a part of their own.
+     * @param migrations
+     *            the migrations of the release
+     * @return the parts in execution order
+     */
+    private List<List<PlannedMigration>> split(
+            final List<PlannedMigration> migrations) {
+        List<List<PlannedMigration>> parts =
+                new ArrayList<List<PlannedMigration>>();
+        List<PlannedMigration> current = null;
+        for (PlannedMigration migration : migrations) {
+            if (!migration.getMigration().getExecutor()
+                    .executeInTransaction()) {
+                parts.add(Collections.singletonList(migration));
+                current = null;
+            } else {
+                if (current == null) {
+                    current = new ArrayList<PlannedMigration>();
+                    parts.add(current);
+                }
+                current.add(migration);
+            }
+        }
+        return parts;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import info.novatec.flyway.branching.extension.plan.MigrationPlanner;
+import info.novatec.flyway.branching.extension.plan.PlannedMigration;
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+import info.novatec.flyway.branching.extension.release.ReleaseTable;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.resolver.ResolvedMigration;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.flywaydb.core.internal.dbsupport.Schema;
+import org.flywaydb.core.internal.metadatatable.AppliedMigration;
+import org.flywaydb.core.internal.metadatatable.MetaDataTable;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
+import org.flywaydb.core.internal.util.jdbc.TransactionCallback;
+import org.flywaydb.core.internal.util.jdbc.TransactionTemplate;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+
+/**
+ * Installs the newest squashed baseline script of the release chain into an
+ * empty schema, so new databases skip replaying the history of all
+ * releases. A release folder ships its baseline as
+ * <code>B&lt;version&gt;__&lt;description&gt;.sql</code>, where the version
+ * is the latest migration of the chain the baseline supersedes. The
+ * superseded migrations are recorded in the flyway metadata table with
+ * their own checksums and the baseline script as script, so flyway's
+ * validation keeps working, and the release table is set to the release of
+ * the baseline. Migrations following the baseline are applied as usual.
+ */
+public class SquashedBaselineInstaller extends AbstractReleaseMigrator {
+    /**
+     * Logger.
+     */
+    private static final Log LOG =
+            LogFactory.getLog(SquashedBaselineInstaller.class);
+
+    /**
+     * Creates a new instance of {@link SquashedBaselineInstaller}.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     */
+    public SquashedBaselineInstaller(final Flyway flywayInstance) {
+        this(flywayInstance, new MigrationPlanner(flywayInstance,
+                flywayInstance.getLocations()).plan());
+    }
+
+    /**
+     * Creates a new instance of {@link SquashedBaselineInstaller} using an
+     * already planned release chain.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param releaseChainToUse
+     *            the release chain below the locations of the flyway instance
+     */
+    public SquashedBaselineInstaller(final Flyway flywayInstance,
+            final ReleaseChain releaseChainToUse) {
+        super(flywayInstance, releaseChainToUse);
+    }
+
+    /**
+     * Installs the newest baseline script if the schema is empty.
+     * @return <code>true</code> if the baseline has been installed,
+     *         <code>false</code> if the chain has no baseline scripts or the
+     *         schema is not empty
+     */
+    public final boolean install() {
+        if (getReleaseChain().getLatestBaseline() == null) {
+            return false;
+        }
+        Connection connection = null;
+        try {
+            connection = getFlyway().getDataSource().getConnection();
+            return install(connection);
+        } catch (SQLException e) {
+            throw new FlywayException("Error getting database connection for "
+                    + "the baseline installation. Reason: "
+                    + ExceptionUtils.getRootCauseMessage(e), e);
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Installs the newest baseline script if the schema is empty, using
+     * given connection. The database is not accessed at all if the chain
+     * has no baseline scripts.
+     * @param connection
+     *            the jdbc connection
+     * @return <code>true</code> if the baseline has been installed
+     */
+    final boolean install(final Connection connection) {
+        final PlannedMigration baseline =
+                getReleaseChain().getLatestBaseline();
+        if (baseline == null) {
+            return false;
+        }
+
+        DbSupport dbSupport = DbSupportFactory.createDbSupport(connection,
+                false);
+        Schema schema = getSchema(dbSupport);
+        if (!schema.empty()) {
+            LOG.debug(String.format("Schema %s is not empty, baseline %s of "
+                    + "release %s is not installed", schema,
+                    baseline.getMigration().getVersion(),
+                    baseline.getRelease()));
+            return false;
+        }
+
+        final ReleaseTable releaseTable = createReleaseTable(dbSupport,
+                schema);
+        final MetaDataTable metaDataTable = createMetaDataTable(dbSupport,
+                schema);
+        final List<PlannedMigration> superseded =
+                getReleaseChain().getSupersededMigrations(baseline);
+
+        Schema originalSchema = dbSupport.getCurrentSchema();
+        dbSupport.setCurrentSchema(schema);
+        try {
+            new TransactionTemplate(connection)
+                    .execute(new TransactionCallback<Void>() {
+                        public Void doInTransaction() {
+                            int executionTime = execute(connection, baseline);
+                            for (PlannedMigration migration : superseded) {
+                                recordBaselined(metaDataTable, migration,
+                                        baseline, executionTime);
+                            }
+                            switchRelease(releaseTable,
+                                    baseline.getRelease());
+                            return null;
+                        }
+                    });
+        } finally {
+            dbSupport.setCurrentSchema(originalSchema);
+        }
+
+        storeFingerprint(connection, releaseTable, baseline.getRelease());
+        LOG.info(String.format("Installed baseline %s of release %s into "
+                + "empty schema %s, %s superseded migration(s) recorded",
+                baseline.getMigration().getVersion(), baseline.getRelease(),
+                schema, superseded.size()));
+        return true;
+    }
+
+    /**
+     * Records a migration superseded by the baseline as applied. The
+     * execution time of the baseline is recorded with the migration of the
+     * baseline version.
+     * @param metaDataTable
+     *            the flyway metadata table
+     * @param plannedMigration
+     *            the superseded migration
+     * @param baseline
+     *            the baseline script
+     * @param executionTime
+     *            the execution time of the baseline in ms
+     */
+    private void recordBaselined(final MetaDataTable metaDataTable,
+            final PlannedMigration plannedMigration,
+            final PlannedMigration baseline, final int executionTime) {
+        ResolvedMigration migration = plannedMigration.getMigration();
+        boolean last = migration.getVersion().equals(
+                baseline.getMigration().getVersion());
+        metaDataTable.addAppliedMigration(new AppliedMigration(
+                migration.getVersion(), migration.getDescription(),
+                migration.getType(), baseline.getMigration().getScript(),
+                migration.getChecksum(), last ? executionTime : 0, true));
+    }
+}
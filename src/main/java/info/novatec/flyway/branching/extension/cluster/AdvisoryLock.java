@@ -0,0 +1,33 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.cluster;
+
+/**
+ * Database-wide advisory lock electing the node which performs the branching
+ * migration. The lock is bound to the connection it has been created with.
+ */
+public interface AdvisoryLock {
+    /**
+     * Tries to acquire the lock without waiting.
+     * @return <code>true</code> if the lock has been acquired
+     */
+    boolean tryLock();
+
+    /**
+     * Releases the lock acquired by {@link #tryLock()}.
+     */
+    void unlock();
+}
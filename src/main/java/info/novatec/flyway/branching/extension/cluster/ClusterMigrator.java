@@ -0,0 +1,255 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.cluster;
+
+import info.novatec.flyway.branching.extension.BranchingCallback;
+import info.novatec.flyway.branching.extension.plan.MigrationPlanner;
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+import info.novatec.flyway.branching.extension.release.ReleaseTableImpl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.callback.FlywayCallback;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.flywaydb.core.internal.dbsupport.Schema;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+
+/**
+ * Coordinates the branching migration of a database shared by the nodes of
+ * a cluster. The node acquiring the {@link AdvisoryLock} becomes the leader
+ * and migrates through the release chain, all other nodes are followers and
+ * only poll the release table until the leader has stored the fingerprint
+ * of the head release. If the leader fails before, the next follower
+ * acquiring the lock takes over.
+ */
+public class ClusterMigrator {
+    /**
+     * Logger.
+     */
+    private static final Log LOG = LogFactory.getLog(ClusterMigrator.class);
+
+    /**
+     * The {@link Flyway} instance of this node.
+     */
+    private final Flyway flyway;
+
+    /**
+     * The interval in milliseconds followers poll the release table.
+     */
+    private final long pollInterval;
+
+    /**
+     * The time in milliseconds followers wait for the head release.
+     */
+    private final long timeout;
+
+    /**
+     * Whether this node has been the leader of the latest migration.
+     */
+    private boolean leader;
+
+    /**
+     * Creates a new instance of {@link ClusterMigrator}.
+     * @param flywayInstance
+     *            the {@link Flyway} instance of this node
+     * @param pollIntervalToUse
+     *            the interval in milliseconds followers poll the release
+     *            table
+     * @param timeoutToUse
+     *            the time in milliseconds followers wait for the head release
+     */
+    public ClusterMigrator(final Flyway flywayInstance,
+            final long pollIntervalToUse, final long timeoutToUse) {
+        this.flyway = flywayInstance;
+        this.pollInterval = pollIntervalToUse;
+        this.timeout = timeoutToUse;
+    }
+
+    /**
+     * Migrates the database as leader or waits as follower until the leader
+     * has migrated it to the head release.
+     * @return the number of migrations applied by this node
+     */
+    public final int migrate() {
+        ReleaseChain releaseChain = new MigrationPlanner(flyway,
+                flyway.getLocations()).plan();
+        long deadline = System.currentTimeMillis() + timeout;
+        leader = false;
+
+        while (true) {
+            Connection connection = null;
+            try {
+                connection = flyway.getDataSource().getConnection();
+                DbSupport dbSupport = DbSupportFactory.createDbSupport(
+                        connection, false);
+                if (isAtHeadRelease(dbSupport, releaseChain)) {
+                    LOG.info(String.format(
+                            "Database is at head release %s",
+                            releaseChain.getHeadRelease()));
+                    return 0;
+                }
+
+                AdvisoryLock lock = createAdvisoryLock(dbSupport,
+                        getLockKey());
+                if (lock.tryLock()) {
+                    leader = true;
+                    LOG.info("Elected as leader for the branching migration");
+                    FlywayCallback[] callbacks = flyway.getCallbacks();
+                    try {
+                        BranchingCallback callback = new BranchingCallback(
+                                flyway, releaseChain);
+                        flyway.setCallbacks(append(callbacks, callback));
+                        return callback.isUpToDate() ? 0 : flyway.migrate();
+                    } finally {
+                        flyway.setCallbacks(callbacks);
+                        lock.unlock();
+                    }
+                }
+            } catch (SQLException e) {
+                throw new FlywayException("Error getting database connection "
+                        + "for the cluster migration. Reason: "
+                        + ExceptionUtils.getRootCauseMessage(e), e);
+            } finally {
+                JdbcUtils.closeConnection(connection);
+            }
+
+            if (System.currentTimeMillis() > deadline) {
+                throw new FlywayException(String.format(
+                        "Timeout after %s ms waiting for head release %s",
+                        timeout, releaseChain.getHeadRelease()));
+            }
+            LOG.debug(String.format("Waiting %s ms for the leader",
+                    pollInterval));
+            try {
+                Thread.sleep(pollInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FlywayException(
+                        "Interrupted while waiting for the leader", e);
+            }
+        }
+    }
+
+    /**
+     * Whether this node has been the leader of the latest migration.
+     * @return <code>true</code> if this node migrated the database
+     */
+    public final boolean isLeader() {
+        return leader;
+    }
+
+    /**
+     * Creates the advisory lock for the database of given connection.
+     * Supports PostgreSQL and H2, subclasses may add further databases. The
+     * lock table of H2 is created in the schema of the release table.
+     * @param dbSupport
+     *            database-specific functionality of the connection holding
+     *            the lock
+     * @param key
+     *            the key of the lock
+     * @return the advisory lock
+     */
+    protected AdvisoryLock createAdvisoryLock(final DbSupport dbSupport,
+            final int key) {
+        if ("postgresql".equals(dbSupport.getDbName())) {
+            return new PostgreSQLAdvisoryLock(dbSupport.getJdbcTemplate()
+                    .getConnection(), key);
+        }
+        if ("h2".equals(dbSupport.getDbName())) {
+            Schema schema = getSchema(dbSupport);
+            if (!schema.exists()) {
+                schema.create();
+            }
+            return new H2AdvisoryLock(dbSupport, schema.getTable("releaselock"),
+                    key);
+        }
+        throw new FlywayException("No advisory lock available for database "
+                + dbSupport.getDbName());
+    }
+
+    /**
+     * Gets the key of the advisory lock. The key is derived from the schema
+     * of the release table, so different schemas are migrated independently.
+     * @return the key
+     */
+    private int getLockKey() {
+        String[] schemas = flyway.getSchemas();
+        String key = "flyway-branching:";
+        if (schemas.length > 0) {
+            key += schemas[0];
+        }
+        return key.hashCode();
+    }
+
+    /**
+     * Gets the schema of the release table, i.e. the first schema of the
+     * flyway instance or the current schema of the connection.
+     * @param dbSupport
+     *            database-specific functionality
+     * @return the schema
+     */
+    private Schema getSchema(final DbSupport dbSupport) {
+        String[] schemas = flyway.getSchemas();
+        return schemas.length == 0 ? dbSupport.getCurrentSchema()
+                : dbSupport.getSchema(schemas[0]);
+    }
+
+    /**
+     * Appends the branching callback to the callbacks of the user.
+     * @param callbacks
+     *            the callbacks configured by the user
+     * @param callback
+     *            the branching callback
+     * @return all callbacks
+     */
+    private static FlywayCallback[] append(final FlywayCallback[] callbacks,
+            final FlywayCallback callback) {
+        FlywayCallback[] all = new FlywayCallback[callbacks.length + 1];
+        System.arraycopy(callbacks, 0, all, 0, callbacks.length);
+        all[callbacks.length] = callback;
+        return all;
+    }
+
+    /**
+     * Checks whether the leader has stored the fingerprint of the release
+     * chain, i.e. migrated the database to the head release. Neither the
+     * schema nor the release table are created for this check.
+     * @param dbSupport
+     *            database-specific functionality
+     * @param releaseChain
+     *            the release chain
+     * @return <code>true</code> if the database is at the head release
+     */
+    private boolean isAtHeadRelease(final DbSupport dbSupport,
+            final ReleaseChain releaseChain) {
+        Schema schema = getSchema(dbSupport);
+        try {
+            return releaseChain.getFingerprint().equals(ReleaseTableImpl
+                    .forSchema(dbSupport, schema).getFingerprint());
+        } catch (FlywayException e) {
+            LOG.debug("Release table not available yet. Reason: "
+                    + ExceptionUtils.getRootCauseMessage(e));
+            return false;
+        }
+    }
+}
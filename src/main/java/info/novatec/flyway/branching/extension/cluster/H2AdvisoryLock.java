@@ -0,0 +1,166 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.cluster;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.JdbcTemplate;
+import org.flywaydb.core.internal.dbsupport.Table;
+
+/**
+ * {@link AdvisoryLock} for H2, which has no advisory locks. The lock is a
+ * row in a lock table, locked with <code>select ... for update</code> in a
+ * transaction kept open on the connection of the lock until it is released.
+ * Like the advisory lock of PostgreSQL it is bound to the session, so the
+ * lock of a crashed node is released with its connection.
+ */
+public class H2AdvisoryLock implements AdvisoryLock {
+    /**
+     * Unique constraint violation.
+     */
+    private static final String DUPLICATE_KEY = "23505";
+
+    /**
+     * Lock timeout, the row is locked by another session.
+     */
+    private static final int LOCK_TIMEOUT = 50200;
+
+    /**
+     * Concurrent update, the row is locked by another session in MVCC mode.
+     */
+    private static final int CONCURRENT_UPDATE = 90131;
+
+    /**
+     * Database-specific functionality.
+     */
+    private final DbSupport dbSupport;
+
+    /**
+     * The lock table.
+     */
+    private final Table table;
+
+    /**
+     * The key of the lock.
+     */
+    private final int key;
+
+    /**
+     * The lock timeout of the session to restore after locking.
+     */
+    private int lockTimeout;
+
+    /**
+     * Creates a new instance of {@link H2AdvisoryLock}.
+     * @param dbSupportToUse
+     *            database-specific functionality of the connection holding
+     *            the lock
+     * @param tableToUse
+     *            the lock table, created if it doesn't exist
+     * @param keyToUse
+     *            the key of the lock
+     */
+    public H2AdvisoryLock(final DbSupport dbSupportToUse,
+            final Table tableToUse, final int keyToUse) {
+        this.dbSupport = dbSupportToUse;
+        this.table = tableToUse;
+        this.key = keyToUse;
+    }
+
+    @Override
+    public final boolean tryLock() {
+        JdbcTemplate jdbcTemplate = dbSupport.getJdbcTemplate();
+        Connection connection = jdbcTemplate.getConnection();
+        try {
+            jdbcTemplate.execute("create table if not exists " + table + " ("
+                    + dbSupport.quote("LOCK_KEY") + " int not null primary key, "
+                    + dbSupport.quote("LOCKED_ON")
+                    + " timestamp default current_timestamp not null)");
+            if (jdbcTemplate.queryForInt("select count(*) from " + table
+                    + " where " + dbSupport.quote("LOCK_KEY") + " = ?",
+                    String.valueOf(key)) == 0) {
+                insertLockRow(jdbcTemplate);
+            }
+            lockTimeout = jdbcTemplate.queryForInt("call lock_timeout()");
+            jdbcTemplate.execute("set lock_timeout 0");
+            connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            throw new FlywayException("Error while acquiring lock " + key
+                    + " in lock table " + table, e);
+        }
+
+        try {
+            jdbcTemplate.queryForStringList("select "
+                    + dbSupport.quote("LOCK_KEY") + " from " + table
+                    + " where " + dbSupport.quote("LOCK_KEY")
+                    + " = ? for update", String.valueOf(key));
+            return true;
+        } catch (SQLException e) {
+            release(connection);
+            if (e.getErrorCode() == LOCK_TIMEOUT
+                    || e.getErrorCode() == CONCURRENT_UPDATE) {
+                return false;
+            }
+            throw new FlywayException("Error while acquiring lock " + key
+                    + " in lock table " + table, e);
+        }
+    }
+
+    /**
+     * Inserts the row of the lock, unless another session has inserted it
+     * meanwhile.
+     * @param jdbcTemplate
+     *            the jdbc template of the lock connection
+     * @throws SQLException
+     *             if the row cannot be inserted
+     */
+    private void insertLockRow(final JdbcTemplate jdbcTemplate)
+            throws SQLException {
+        try {
+            jdbcTemplate.update("insert into " + table + " ("
+                    + dbSupport.quote("LOCK_KEY") + ") values (?)", key);
+        } catch (SQLException e) {
+            if (!DUPLICATE_KEY.equals(e.getSQLState())) {
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public final void unlock() {
+        release(dbSupport.getJdbcTemplate().getConnection());
+    }
+
+    /**
+     * Ends the transaction holding the lock and restores the session.
+     * @param connection
+     *            the connection of the lock
+     */
+    private void release(final Connection connection) {
+        try {
+            connection.rollback();
+            connection.setAutoCommit(true);
+            dbSupport.getJdbcTemplate().execute("set lock_timeout "
+                    + lockTimeout);
+        } catch (SQLException e) {
+            throw new FlywayException("Error while releasing lock " + key
+                    + " in lock table " + table, e);
+        }
+    }
+}
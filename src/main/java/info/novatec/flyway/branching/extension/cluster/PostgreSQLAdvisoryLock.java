@@ -0,0 +1,88 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.cluster;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
+
+/**
+ * {@link AdvisoryLock} using the session level advisory locks of PostgreSQL
+ * (<code>pg_try_advisory_lock</code>). The lock is released by the database
+ * if the session ends, e.g. because the node crashed.
+ */
+public class PostgreSQLAdvisoryLock implements AdvisoryLock {
+    /**
+     * The jdbc connection holding the lock.
+     */
+    private final Connection connection;
+
+    /**
+     * The key of the lock.
+     */
+    private final int key;
+
+    /**
+     * Creates a new instance of {@link PostgreSQLAdvisoryLock}.
+     * @param connectionToUse
+     *            the jdbc connection holding the lock
+     * @param keyToUse
+     *            the key of the lock
+     */
+    public PostgreSQLAdvisoryLock(final Connection connectionToUse,
+            final int keyToUse) {
+        this.connection = connectionToUse;
+        this.key = keyToUse;
+    }
+
+    @Override
+    public final boolean tryLock() {
+        return call("pg_try_advisory_lock");
+    }
+
+    @Override
+    public final void unlock() {
+        call("pg_advisory_unlock");
+    }
+
+    /**
+     * Calls given advisory lock function with the key of the lock.
+     * @param function
+     *            the advisory lock function
+     * @return the result of the function
+     */
+    private boolean call(final String function) {
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = connection.prepareStatement("select " + function
+                    + "(?)");
+            statement.setLong(1, key);
+            resultSet = statement.executeQuery();
+            return resultSet.next() && resultSet.getBoolean(1);
+        } catch (SQLException e) {
+            throw new FlywayException("Error while calling " + function
+                    + " for key " + key, e);
+        } finally {
+            JdbcUtils.closeResultSet(resultSet);
+            JdbcUtils.closeStatement(statement);
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Coordination of branching migrations across the nodes of a cluster.
+ */
+package info.novatec.flyway.branching.extension.cluster;
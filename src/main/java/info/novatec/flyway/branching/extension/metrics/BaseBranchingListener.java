@@ -0,0 +1,40 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.metrics;
+
+/**
+ * {@link BranchingListener} ignoring all events. Subclasses only override
+ * the events they are interested in.
+ */
+public class BaseBranchingListener implements BranchingListener {
+    @Override
+    public void connectionAcquired(final long waitTime) {
+    }
+
+    @Override
+    public void releaseTableQueried(final long queryTime) {
+    }
+
+    @Override
+    public void migrationApplied(final String release, final String version,
+            final long executionTime) {
+    }
+
+    @Override
+    public void releaseSwitched(final String fromRelease,
+            final String toRelease) {
+    }
+}
@@ -0,0 +1,61 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.metrics;
+
+/**
+ * Listener for the events of branching migrations, e.g. for recording
+ * metrics. All durations are given in nanoseconds, as most of the queries
+ * take less than a millisecond. Implementations shared by several flyway
+ * instances must be thread-safe.
+ */
+public interface BranchingListener {
+    /**
+     * Called after a database connection has been borrowed from the
+     * datasource by the branching callback.
+     * @param waitTime
+     *            the time waited for the connection
+     */
+    void connectionAcquired(long waitTime);
+
+    /**
+     * Called after the release table has been queried.
+     * @param queryTime
+     *            the time of the query including the creation of the
+     *            release table if it did not exist
+     */
+    void releaseTableQueried(long queryTime);
+
+    /**
+     * Called after a migration has been applied.
+     * @param release
+     *            the release the migration belongs to
+     * @param version
+     *            the version of the migration
+     * @param executionTime
+     *            the execution time of the migration
+     */
+    void migrationApplied(String release, String version, long executionTime);
+
+    /**
+     * Called when the migrations of a new release are started, i.e. the
+     * first migration of the release has been applied.
+     * @param fromRelease
+     *            the previous release
+     * @param toRelease
+     *            the new release
+     */
+    void releaseSwitched(String fromRelease, String toRelease);
+}
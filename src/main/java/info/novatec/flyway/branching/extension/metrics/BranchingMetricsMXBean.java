@@ -0,0 +1,83 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of the branching migration metrics. All durations are
+ * given in microseconds.
+ */
+public interface BranchingMetricsMXBean {
+    /**
+     * Gets the accumulated execution time of the migrations per release.
+     * @return the durations keyed by release
+     */
+    Map<String, Long> getReleaseDurations();
+
+    /**
+     * Gets the latest execution time per migration.
+     * @return the durations keyed by version
+     */
+    Map<String, Long> getMigrationDurations();
+
+    /**
+     * Gets the number of applied migrations.
+     * @return the number of migrations
+     */
+    long getMigrationCount();
+
+    /**
+     * Gets the number of release switches.
+     * @return the number of release switches
+     */
+    long getReleaseSwitchCount();
+
+    /**
+     * Gets the number of release table queries.
+     * @return the number of queries
+     */
+    long getReleaseTableQueryCount();
+
+    /**
+     * Gets the accumulated time of the release table queries.
+     * @return the query time
+     */
+    long getReleaseTableQueryTime();
+
+    /**
+     * Gets the time of the slowest release table query.
+     * @return the maximum query time
+     */
+    long getMaxReleaseTableQueryTime();
+
+    /**
+     * Gets the number of connections borrowed by the branching callback.
+     * @return the number of connections
+     */
+    long getConnectionCount();
+
+    /**
+     * Gets the accumulated time waited for connections.
+     * @return the wait time
+     */
+    long getConnectionWaitTime();
+
+    /**
+     * Resets all metrics.
+     */
+    void reset();
+}
@@ -0,0 +1,254 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.flywaydb.core.api.FlywayException;
+
+/**
+ * Default {@link BranchingListener} recording the metrics of branching
+ * migrations, which can be exposed as MBean on the platform MBean server.
+ * The instance is thread-safe, so it can be shared by several flyway
+ * instances, e.g. all tenants of a multi-tenant migration. The durations are
+ * recorded in nanoseconds and exposed in microseconds, so the sums of short
+ * queries are not lost to rounding.
+ */
+public class JmxBranchingMetrics implements BranchingListener,
+        BranchingMetricsMXBean {
+    /**
+     * The default object name of the MBean.
+     */
+    public static final String DEFAULT_OBJECT_NAME =
+            "info.novatec.flyway.branching:type=BranchingMetrics";
+
+    /**
+     * The accumulated execution time of the migrations per release in
+     * nanoseconds.
+     */
+    private final Map<String, Long> releaseDurations =
+            new LinkedHashMap<String, Long>();
+
+    /**
+     * The latest execution time per migration in nanoseconds.
+     */
+    private final Map<String, Long> migrationDurations =
+            new LinkedHashMap<String, Long>();
+
+    /**
+     * The number of applied migrations.
+     */
+    private long migrationCount;
+
+    /**
+     * The number of release switches.
+     */
+    private long releaseSwitchCount;
+
+    /**
+     * The number of release table queries.
+     */
+    private long releaseTableQueryCount;
+
+    /**
+     * The accumulated time of the release table queries in nanoseconds.
+     */
+    private long releaseTableQueryTime;
+
+    /**
+     * The time of the slowest release table query in nanoseconds.
+     */
+    private long maxReleaseTableQueryTime;
+
+    /**
+     * The number of borrowed connections.
+     */
+    private long connectionCount;
+
+    /**
+     * The accumulated time waited for connections in nanoseconds.
+     */
+    private long connectionWaitTime;
+
+    /**
+     * The name the MBean is registered with, if registered.
+     */
+    private ObjectName objectName;
+
+    /**
+     * Registers the metrics on the platform MBean server using the
+     * {@link #DEFAULT_OBJECT_NAME}.
+     */
+    public final void register() {
+        register(DEFAULT_OBJECT_NAME);
+    }
+
+    /**
+     * Registers the metrics on the platform MBean server.
+     * @param name
+     *            the object name of the MBean
+     */
+    public final synchronized void register(final String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            objectName = new ObjectName(name);
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            objectName = null;
+            throw new FlywayException("Unable to register branching metrics "
+                    + "as MBean " + name, e);
+        }
+    }
+
+    /**
+     * Unregisters the metrics from the platform MBean server, if registered.
+     */
+    public final synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                    objectName);
+        } catch (JMException e) {
+            throw new FlywayException("Unable to unregister branching metrics "
+                    + "MBean " + objectName, e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    @Override
+    public final synchronized void connectionAcquired(final long waitTime) {
+        connectionCount++;
+        connectionWaitTime += waitTime;
+    }
+
+    @Override
+    public final synchronized void releaseTableQueried(final long queryTime) {
+        releaseTableQueryCount++;
+        releaseTableQueryTime += queryTime;
+        maxReleaseTableQueryTime = Math.max(maxReleaseTableQueryTime,
+                queryTime);
+    }
+
+    @Override
+    public final synchronized void migrationApplied(final String release,
+            final String version, final long executionTime) {
+        migrationCount++;
+        migrationDurations.put(version, executionTime);
+        Long releaseDuration = releaseDurations.get(release);
+        releaseDurations.put(release, executionTime
+                + (releaseDuration == null ? 0 : releaseDuration));
+    }
+
+    @Override
+    public final synchronized void releaseSwitched(final String fromRelease,
+            final String toRelease) {
+        releaseSwitchCount++;
+    }
+
+    @Override
+    public final synchronized Map<String, Long> getReleaseDurations() {
+        return toMicros(releaseDurations);
+    }
+
+    @Override
+    public final synchronized Map<String, Long> getMigrationDurations() {
+        return toMicros(migrationDurations);
+    }
+
+    @Override
+    public final synchronized long getMigrationCount() {
+        return migrationCount;
+    }
+
+    @Override
+    public final synchronized long getReleaseSwitchCount() {
+        return releaseSwitchCount;
+    }
+
+    @Override
+    public final synchronized long getReleaseTableQueryCount() {
+        return releaseTableQueryCount;
+    }
+
+    @Override
+    public final synchronized long getReleaseTableQueryTime() {
+        return toMicros(releaseTableQueryTime);
+    }
+
+    @Override
+    public final synchronized long getMaxReleaseTableQueryTime() {
+        return toMicros(maxReleaseTableQueryTime);
+    }
+
+    @Override
+    public final synchronized long getConnectionCount() {
+        return connectionCount;
+    }
+
+    @Override
+    public final synchronized long getConnectionWaitTime() {
+        return toMicros(connectionWaitTime);
+    }
+
+    @Override
+    public final synchronized void reset() {
+        releaseDurations.clear();
+        migrationDurations.clear();
+        migrationCount = 0;
+        releaseSwitchCount = 0;
+        releaseTableQueryCount = 0;
+        releaseTableQueryTime = 0;
+        maxReleaseTableQueryTime = 0;
+        connectionCount = 0;
+        connectionWaitTime = 0;
+    }
+
+    /**
+     * Converts recorded nanoseconds to the exposed microseconds.
+     * @param nanos
+     *            the nanoseconds
+     * @return the microseconds
+     */
+    private static long toMicros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * Converts recorded durations in nanoseconds to the exposed
+     * microseconds.
+     * @param durations
+     *            the durations in nanoseconds
+     * @return a copy of the durations in microseconds
+     */
+    private static Map<String, Long> toMicros(
+            final Map<String, Long> durations) {
+        Map<String, Long> micros = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Long> duration : durations.entrySet()) {
+            micros.put(duration.getKey(), toMicros(duration.getValue()));
+        }
+        return micros;
+    }
+}
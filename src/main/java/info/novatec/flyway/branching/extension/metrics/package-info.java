@@ -0,0 +1,4 @@
+/**
+ * Listener SPI and metrics for branching migrations.
+ */
+package info.novatec.flyway.branching.extension.metrics;
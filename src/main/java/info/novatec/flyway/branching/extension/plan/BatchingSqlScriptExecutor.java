@@ -0,0 +1,186 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.FlywaySqlScriptException;
+import org.flywaydb.core.internal.dbsupport.JdbcTemplate;
+import org.flywaydb.core.internal.dbsupport.SqlStatement;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+import org.flywaydb.core.internal.util.scanner.Resource;
+
+/**
+ * Executes a sql script like flyway's
+ * {@link org.flywaydb.core.internal.dbsupport.SqlScript}, but groups
+ * consecutive DML statements (insert, update, delete, merge) into jdbc
+ * batches. All other statements are executed one by one and end the current
+ * batch, so the statement order of the script is kept. The statements are
+ * executed on the connection of the migration, i.e. within its transaction.
+ */
+public class BatchingSqlScriptExecutor {
+    /**
+     * Logger.
+     */
+    private static final Log LOG =
+            LogFactory.getLog(BatchingSqlScriptExecutor.class);
+
+    /**
+     * Pattern of the DML statements to batch.
+     */
+    private static final Pattern DML = Pattern.compile(
+            "^\\s*(insert|update|delete|merge)\\s.*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /**
+     * The maximum number of statements per batch.
+     */
+    private final int batchSize;
+
+    /**
+     * Creates a new instance of {@link BatchingSqlScriptExecutor}.
+     * @param batchSizeToUse
+     *            the maximum number of statements per batch, 0 to execute
+     *            all statements one by one
+     */
+    public BatchingSqlScriptExecutor(final int batchSizeToUse) {
+        this.batchSize = batchSizeToUse;
+    }
+
+    /**
+     * Executes the statements of given sql script.
+     * @param connection
+     *            the jdbc connection of the migration
+     * @param dbSupport
+     *            database-specific functionality of the connection
+     * @param resource
+     *            the resource of the script
+     * @param sqlStatements
+     *            the statements of the script, e.g. a
+     *            {@link StreamingSqlScript}
+     * @throws FlywaySqlScriptException
+     *             if a statement fails. For a failing batch a
+     *             {@link SqlBatchException} names the batch and the failing
+     *             statement, if the driver reports it.
+     */
+    public final void execute(final Connection connection,
+            final DbSupport dbSupport, final Resource resource,
+            final Iterable<SqlStatement> sqlStatements) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(connection, 0);
+        List<SqlStatement> batch = new ArrayList<SqlStatement>();
+        int batchNumber = 0;
+
+        for (SqlStatement sqlStatement : sqlStatements) {
+            if (batchSize > 0 && !sqlStatement.isPgCopy()
+                    && DML.matcher(sqlStatement.getSql()).matches()) {
+                batch.add(sqlStatement);
+                if (batch.size() >= batchSize) {
+                    executeBatch(connection, resource, batch,
+                            ++batchNumber);
+                }
+                continue;
+            }
+
+            if (!batch.isEmpty()) {
+                executeBatch(connection, resource, batch,
+                        ++batchNumber);
+            }
+            LOG.debug("Executing SQL: " + sqlStatement.getSql());
+            try {
+                if (sqlStatement.isPgCopy()) {
+                    dbSupport.executePgCopy(connection, sqlStatement.getSql());
+                } else {
+                    jdbcTemplate.executeStatement(sqlStatement.getSql());
+                }
+            } catch (SQLException e) {
+                throw new FlywaySqlScriptException(resource,
+                        sqlStatement, e);
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            executeBatch(connection, resource, batch,
+                    ++batchNumber);
+        }
+    }
+
+    /**
+     * Executes the statements of a batch and clears it.
+     * @param connection
+     *            the jdbc connection
+     * @param resource
+     *            the resource of the script
+     * @param batch
+     *            the statements of the batch
+     * @param batchNumber
+     *            the number of the batch within the script
+     */
+    private void executeBatch(final Connection connection,
+            final Resource resource, final List<SqlStatement> batch,
+            final int batchNumber) {
+        LOG.debug(String.format("Executing batch %s of %s statement(s)",
+                batchNumber, batch.size()));
+        Statement statement = null;
+        try {
+            statement = connection.createStatement();
+            for (SqlStatement sqlStatement : batch) {
+                statement.addBatch(sqlStatement.getSql());
+            }
+            statement.executeBatch();
+        } catch (BatchUpdateException e) {
+            throw new SqlBatchException(resource, batchNumber, batch,
+                    getFailedIndex(e, batch.size()), e);
+        } catch (SQLException e) {
+            throw new SqlBatchException(resource, batchNumber, batch, -1, e);
+        } finally {
+            JdbcUtils.closeStatement(statement);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Gets the index of the failed statement within the batch. Drivers
+     * either stop at the failing statement, i.e. only return the update
+     * counts of the preceding statements, or mark it as
+     * {@link Statement#EXECUTE_FAILED}.
+     * @param e
+     *            the batch exception
+     * @param size
+     *            the size of the batch
+     * @return the index of the failed statement or -1 if unknown
+     */
+    private int getFailedIndex(final BatchUpdateException e, final int size) {
+        int[] updateCounts = e.getUpdateCounts();
+        if (updateCounts == null) {
+            return -1;
+        }
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                return i;
+            }
+        }
+        return updateCounts.length < size ? updateCounts.length : -1;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.sql.Connection;
+import java.util.List;
+
+import org.flywaydb.core.api.MigrationType;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.resolver.MigrationExecutor;
+import org.flywaydb.core.api.resolver.ResolvedMigration;
+import org.flywaydb.core.internal.util.scanner.Resource;
+
+/**
+ * Sql migration of the {@link MigrationCatalog}. In contrast to flyway's own
+ * sql migrations the checksum is only calculated when it is requested, so
+ * the content of already applied migrations is not read again, and the
+ * script is streamed instead of being loaded into memory.
+ */
+final class CatalogMigration implements ResolvedMigration, MigrationExecutor {
+    /**
+     * The migration resource.
+     */
+    private final Resource resource;
+
+    /**
+     * The version of the migration.
+     */
+    private final MigrationVersion version;
+
+    /**
+     * The description of the migration.
+     */
+    private final String description;
+
+    /**
+     * The script name relative to the release folder.
+     */
+    private final String script;
+
+    /**
+     * The runner reading and executing the script.
+     */
+    private final CatalogScriptRunner runner;
+
+    /**
+     * The checksum, calculated on first access.
+     */
+    private Integer checksum;
+
+    /**
+     * Whether the script is a chunked data migration committing every chunk
+     * separately, determined on first access.
+     */
+    private Boolean chunked;
+
+    /**
+     * The hash of the content of the script, calculated on first access.
+     */
+    private String contentHash;
+
+    /**
+     * The size of the script, determined on first access.
+     */
+    private Long size;
+
+    /**
+     * Whether the dependencies have been read.
+     */
+    private boolean dependenciesRead;
+
+    /**
+     * The declared dependencies, read on first access.
+     */
+    private List<MigrationVersion> dependencies;
+
+    /**
+     * Whether the indexes of the script are built online, determined on
+     * first access.
+     */
+    private Boolean onlineIndexBuild;
+
+    /**
+     * Creates a new instance of {@link CatalogMigration}.
+     * @param resourceToUse
+     *            the migration resource
+     * @param versionToUse
+     *            the version of the migration
+     * @param descriptionToUse
+     *            the description of the migration
+     * @param scriptToUse
+     *            the script name relative to the release folder
+     * @param runnerToUse
+     *            the runner reading and executing the script
+     */
+    CatalogMigration(final Resource resourceToUse,
+            final MigrationVersion versionToUse, final String descriptionToUse,
+            final String scriptToUse, final CatalogScriptRunner runnerToUse) {
+        this.resource = resourceToUse;
+        this.version = versionToUse;
+        this.description = descriptionToUse;
+        this.script = scriptToUse;
+        this.runner = runnerToUse;
+    }
+
+    @Override
+    public MigrationVersion getVersion() {
+        return version;
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public String getScript() {
+        return script;
+    }
+
+    @Override
+    public synchronized Integer getChecksum() {
+        if (checksum == null) {
+            checksum = runner.checksum(resource);
+        }
+        return checksum;
+    }
+
+    /**
+     * Gets the SHA-256 hash of the content of the script.
+     * @return the hash as hex string
+     */
+    synchronized String getContentHash() {
+        if (contentHash == null) {
+            contentHash = runner.contentHash(resource);
+        }
+        return contentHash;
+    }
+
+    /**
+     * Whether the hash of the content has been calculated.
+     * @return <code>true</code> if the script has been read for its hash
+     */
+    synchronized boolean isContentHashed() {
+        return contentHash != null;
+    }
+
+    /**
+     * Gets the size of the script in bytes, determined without reading it.
+     * Scripts of different size cannot be identical.
+     * @return the size or -1 if it is unknown
+     */
+    synchronized long getSize() {
+        if (size == null) {
+            size = runner.size(resource);
+        }
+        return size;
+    }
+
+    /**
+     * Gets the checksum, looking it up in given cache instead of reading the
+     * script if the script has not been modified since it was cached.
+     * @param cache
+     *            the checksum cache
+     * @return the checksum
+     */
+    synchronized Integer getChecksum(final ChecksumCache cache) {
+        if (checksum == null) {
+            checksum = cache.checksum(resource, runner);
+        }
+        return checksum;
+    }
+
+    /**
+     * Gets the versions this migration depends on as declared by the
+     * <code>@depends</code> directive of its script.
+     * @return the versions, empty if the migration is independent,
+     *         <code>null</code> if nothing is declared
+     */
+    synchronized List<MigrationVersion> getDependencies() {
+        if (!dependenciesRead) {
+            dependencies = runner.readDependencies(resource);
+            dependenciesRead = true;
+        }
+        return dependencies;
+    }
+
+    @Override
+    public MigrationType getType() {
+        return MigrationType.SQL;
+    }
+
+    @Override
+    public String getPhysicalLocation() {
+        return resource.getLocationOnDisk();
+    }
+
+    @Override
+    public MigrationExecutor getExecutor() {
+        return this;
+    }
+
+    @Override
+    public void execute(final Connection connection) {
+        runner.execute(connection, resource, version);
+    }
+
+    @Override
+    public synchronized boolean executeInTransaction() {
+        if (onlineIndexBuild == null) {
+            onlineIndexBuild = runner.buildsIndexesOnline(resource);
+        }
+        if (chunked == null) {
+            chunked = runner.readChunking(resource) != null;
+        }
+        return !onlineIndexBuild && !chunked;
+    }
+}
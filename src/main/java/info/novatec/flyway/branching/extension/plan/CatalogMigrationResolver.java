@@ -0,0 +1,94 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.resolver.MigrationResolver;
+import org.flywaydb.core.api.resolver.ResolvedMigration;
+
+/**
+ * Resolves the sql migrations of a release and all following releases from
+ * the {@link MigrationCatalog} of the release chain instead of scanning the
+ * release locations again. Migrations identical to a migration of an
+ * earlier release are resolved as {@link DuplicateMigration}s, unless the
+ * database is known to be up to date, in which case nothing is pending and
+ * no script is read for comparing it.
+ */
+public class CatalogMigrationResolver implements MigrationResolver {
+    /**
+     * The release chain with its catalog.
+     */
+    private final ReleaseChain releaseChain;
+
+    /**
+     * The release to start resolving with.
+     */
+    private volatile String release;
+
+    /**
+     * Whether the database is at the head release with all migrations
+     * applied.
+     */
+    private volatile boolean upToDate;
+
+    /**
+     * Creates a new instance of {@link CatalogMigrationResolver}.
+     * @param releaseChainToUse
+     *            the release chain with its catalog
+     */
+    public CatalogMigrationResolver(final ReleaseChain releaseChainToUse) {
+        this.releaseChain = releaseChainToUse;
+    }
+
+    /**
+     * Sets the release to start resolving with.
+     * @param newRelease
+     *            the current release
+     */
+    public final void setRelease(final String newRelease) {
+        this.release = newRelease;
+    }
+
+    /**
+     * Sets whether the database is at the head release with all migrations
+     * applied, so the migrations are resolved without deduplicating them.
+     * @param upToDateDatabase
+     *            whether the database is up to date
+     */
+    public final void setUpToDate(final boolean upToDateDatabase) {
+        this.upToDate = upToDateDatabase;
+    }
+
+    @Override
+    public final List<ResolvedMigration> resolveMigrations() {
+        List<ResolvedMigration> migrations = new ArrayList<ResolvedMigration>();
+        if (upToDate) {
+            for (String planned : releaseChain.getReleasesFrom(release)) {
+                migrations.addAll(releaseChain.getCatalog().getMigrations(
+                        planned).values());
+            }
+            return migrations;
+        }
+        for (PlannedMigration planned : releaseChain.getPlan(release,
+                MigrationVersion.EMPTY, null).getMigrations()) {
+            migrations.add(planned.getMigration());
+        }
+        return migrations;
+    }
+}
@@ -0,0 +1,590 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.flywaydb.core.internal.dbsupport.FlywaySqlScriptException;
+import org.flywaydb.core.internal.dbsupport.JdbcTemplate;
+import org.flywaydb.core.internal.dbsupport.SqlStatement;
+import org.flywaydb.core.internal.util.PlaceholderReplacer;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+import org.flywaydb.core.internal.util.scanner.Resource;
+import org.flywaydb.core.internal.util.scanner.classpath.ClassPathResource;
+import org.flywaydb.core.internal.util.scanner.filesystem.FileSystemResource;
+
+/**
+ * Reads and executes the scripts of {@link CatalogMigration}s as streams,
+ * so the memory used is bounded by the largest statement instead of the
+ * size of the script. Shared by all migrations of a catalog.
+ */
+final class CatalogScriptRunner {
+    /**
+     * Logger.
+     */
+    private static final Log LOG = LogFactory.getLog(CatalogScriptRunner.class);
+
+    /**
+     * Buffer size for calculating checksums.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The maximum number of attempts to build an index online.
+     */
+    private static final int INDEX_BUILD_ATTEMPTS = 3;
+
+    /**
+     * Comment directive declaring the dependencies of a migration, e.g.
+     * <code>-- @depends: 01.01.00, 01.01.01</code>.
+     */
+    private static final Pattern DEPENDS_DIRECTIVE =
+            Pattern.compile("--\\s*@depends:(.*)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Comment directive declaring a chunked data migration, e.g.
+     * <code>-- @chunked: table=PERSON, key=ID, size=1000</code>.
+     */
+    private static final Pattern CHUNKED_DIRECTIVE =
+            Pattern.compile("--\\s*@chunked:(.*)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Comment directive declaring a bulk load of a CSV file located next to
+     * the script, e.g. <code>-- @load: persons.csv into PERSON</code>.
+     */
+    private static final Pattern LOAD_DIRECTIVE =
+            Pattern.compile("--\\s*@load:(.*)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The ClassLoader to load classpath scripts with.
+     */
+    private final ClassLoader classLoader;
+
+    /**
+     * The placeholder replacer to apply to the scripts.
+     */
+    private final PlaceholderReplacer placeholderReplacer;
+
+    /**
+     * The encoding of the scripts.
+     */
+    private final String encoding;
+
+    /**
+     * The jdbc batch size for DML statements, 0 to execute them one by one.
+     */
+    private final int batchSize;
+
+    /**
+     * The builder of PostgreSQL indexes, <code>null</code> if indexes are
+     * not built online.
+     */
+    private final OnlineIndexBuilder onlineIndexBuilder;
+
+    /**
+     * Creates a new instance of {@link CatalogScriptRunner}.
+     * @param classLoaderToUse
+     *            the ClassLoader to load classpath scripts with
+     * @param placeholderReplacerToUse
+     *            the placeholder replacer to apply to the scripts
+     * @param encodingToUse
+     *            the encoding of the scripts
+     * @param batchSizeToUse
+     *            the jdbc batch size for DML statements, 0 to execute them
+     *            one by one
+     * @param onlineIndexBuild
+     *            whether scripts only creating indexes are executed outside
+     *            of a transaction, with the indexes built concurrently on
+     *            PostgreSQL
+     */
+    CatalogScriptRunner(final ClassLoader classLoaderToUse,
+            final PlaceholderReplacer placeholderReplacerToUse,
+            final String encodingToUse, final int batchSizeToUse,
+            final boolean onlineIndexBuild) {
+        this.classLoader = classLoaderToUse;
+        this.placeholderReplacer = placeholderReplacerToUse;
+        this.encoding = encodingToUse;
+        this.batchSize = batchSizeToUse;
+        if (onlineIndexBuild) {
+            this.onlineIndexBuilder = new OnlineIndexBuilder(
+                    INDEX_BUILD_ATTEMPTS);
+        } else {
+            this.onlineIndexBuilder = null;
+        }
+    }
+
+    /**
+     * Calculates the checksum of a script like flyway does, i.e. the CRC32
+     * of its bytes. The bytes of the CSV file loaded by a bulk load are
+     * included, so a modified CSV file is detected as well.
+     * @param resource
+     *            the script
+     * @return the checksum
+     */
+    int checksum(final Resource resource) {
+        CRC32 crc32 = new CRC32();
+        for (Resource content : getContents(resource)) {
+            InputStream inputStream = open(content);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = inputStream.read(buffer)) >= 0) {
+                    crc32.update(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                throw new FlywayException("Unable to calculate checksum of "
+                        + content.getLocation(), e);
+            } finally {
+                close(inputStream);
+            }
+        }
+        return (int) crc32.getValue();
+    }
+
+    /**
+     * Calculates the SHA-256 hash of the content of a script and the CSV
+     * file loaded by it, used to detect identical migrations in several
+     * releases.
+     * @param resource
+     *            the script
+     * @return the hash as hex string
+     */
+    String contentHash(final Resource resource) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new FlywayException("Unable to calculate content hash of "
+                    + resource.getLocation(), e);
+        }
+        for (Resource content : getContents(resource)) {
+            InputStream inputStream = open(content);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = inputStream.read(buffer)) >= 0) {
+                    digest.update(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                throw new FlywayException("Unable to calculate content hash "
+                        + "of " + content.getLocation(), e);
+            } finally {
+                close(inputStream);
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        for (byte value : digest.digest()) {
+            builder.append(String.format("%02x", value));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Gets the size of a script in bytes without reading it, used to find
+     * the candidates for identical scripts before hashing their content.
+     * @param resource
+     *            the script
+     * @return the size or -1 if it is unknown
+     */
+    long size(final Resource resource) {
+        if (!(resource instanceof ClassPathResource)) {
+            return new File(resource.getLocationOnDisk()).length();
+        }
+        URL url = classLoader.getResource(resource.getLocation());
+        if (url == null) {
+            return -1;
+        }
+        try {
+            if ("jar".equals(url.getProtocol())) {
+                JarEntry entry = ((JarURLConnection) url.openConnection())
+                        .getJarEntry();
+                return entry == null ? -1 : entry.getSize();
+            }
+            if ("file".equals(url.getProtocol())) {
+                return new File(url.toURI()).length();
+            }
+        } catch (IOException e) {
+            LOG.debug(String.format("Unable to get size of %s. Reason: %s",
+                    url, e.getMessage()));
+        } catch (URISyntaxException e) {
+            LOG.debug(String.format("Unable to get size of %s. Reason: %s",
+                    url, e.getMessage()));
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the modification stamp of a script, i.e. the latest modification
+     * time of the jar containing it or of the script file itself and the CSV
+     * file loaded by it.
+     * @param resource
+     *            the script
+     * @return the modification stamp or 0 if it is unknown
+     */
+    long stamp(final Resource resource) {
+        long stamp = 0;
+        for (Resource content : getContents(resource)) {
+            long contentStamp = getModificationTime(content);
+            if (contentStamp == 0) {
+                return 0;
+            }
+            stamp = Math.max(stamp, contentStamp);
+        }
+        return stamp;
+    }
+
+    /**
+     * Gets the modification time of the jar containing a resource or of the
+     * resource file itself.
+     * @param resource
+     *            the resource
+     * @return the modification time or 0 if it is unknown
+     */
+    private long getModificationTime(final Resource resource) {
+        if (!(resource instanceof ClassPathResource)) {
+            return new File(resource.getLocationOnDisk()).lastModified();
+        }
+        URL url = classLoader.getResource(resource.getLocation());
+        if (url == null) {
+            return 0;
+        }
+        try {
+            if ("jar".equals(url.getProtocol())) {
+                URL jarUrl = ((JarURLConnection) url.openConnection())
+                        .getJarFileURL();
+                return new File(jarUrl.toURI()).lastModified();
+            }
+            if ("file".equals(url.getProtocol())) {
+                return new File(url.toURI()).lastModified();
+            }
+        } catch (IOException e) {
+            LOG.debug(String.format("Unable to get modification stamp of %s. "
+                    + "Reason: %s", url, e.getMessage()));
+        } catch (URISyntaxException e) {
+            LOG.debug(String.format("Unable to get modification stamp of %s. "
+                    + "Reason: %s", url, e.getMessage()));
+        }
+        return 0;
+    }
+
+    /**
+     * Reads the dependencies declared by the <code>@depends</code> directive
+     * within the leading comment lines of a script.
+     * @param resource
+     *            the script
+     * @return the versions the migration depends on, empty if the migration
+     *         is declared independent, <code>null</code> if the script has
+     *         no directive
+     */
+    List<MigrationVersion> readDependencies(final Resource resource) {
+        String directive = readDirective(resource, DEPENDS_DIRECTIVE);
+        if (directive == null) {
+            return null;
+        }
+        List<MigrationVersion> dependencies = new ArrayList<MigrationVersion>();
+        for (String version : directive.split(",")) {
+            if (version.trim().length() > 0) {
+                dependencies.add(MigrationVersion.fromVersion(version.trim()));
+            }
+        }
+        return dependencies;
+    }
+
+    /**
+     * Reads the chunking declared by the <code>@chunked</code> directive
+     * within the leading comment lines of a script.
+     * @param resource
+     *            the script
+     * @return the executor applying the script chunk by chunk or
+     *         <code>null</code> if the script has no directive
+     */
+    ChunkedScriptExecutor readChunking(final Resource resource) {
+        String directive = readDirective(resource, CHUNKED_DIRECTIVE);
+        if (directive == null) {
+            return null;
+        }
+        return ChunkedScriptExecutor.fromDirective(directive,
+                resource.getLocation());
+    }
+
+    /**
+     * Reads the bulk load declared by the <code>@load</code> directive
+     * within the leading comment lines of a script.
+     * @param resource
+     *            the script
+     * @return the loader of the CSV file or <code>null</code> if the script
+     *         has no directive
+     */
+    CsvBulkLoader readBulkLoad(final Resource resource) {
+        String directive = readDirective(resource, LOAD_DIRECTIVE);
+        if (directive == null) {
+            return null;
+        }
+        return CsvBulkLoader.fromDirective(directive, resource.getLocation());
+    }
+
+    /**
+     * Gets the resources making up the content of a migration, i.e. the
+     * script and the CSV file loaded by it.
+     * @param resource
+     *            the script
+     * @return the script and the CSV file if the script is a bulk load
+     */
+    private List<Resource> getContents(final Resource resource) {
+        List<Resource> contents = new ArrayList<Resource>();
+        contents.add(resource);
+        CsvBulkLoader loader = readBulkLoad(resource);
+        if (loader != null) {
+            contents.add(getCsvResource(resource, loader));
+        }
+        return contents;
+    }
+
+    /**
+     * Gets the CSV file of a bulk load, located relative to the folder of
+     * its script.
+     * @param resource
+     *            the script
+     * @param loader
+     *            the loader of the CSV file
+     * @return the CSV file
+     */
+    private Resource getCsvResource(final Resource resource,
+            final CsvBulkLoader loader) {
+        if (resource instanceof ClassPathResource) {
+            String location = resource.getLocation();
+            return new ClassPathResource(location.substring(0,
+                    location.lastIndexOf('/') + 1) + loader.getFile(),
+                    classLoader);
+        }
+        return new FileSystemResource(new File(new File(
+                resource.getLocationOnDisk()).getParentFile(),
+                loader.getFile()).getPath());
+    }
+
+    /**
+     * Reads a comment directive within the leading comment lines of a
+     * script. Reading stops at the first line that is neither blank nor a
+     * single line comment.
+     * @param resource
+     *            the script
+     * @param directive
+     *            the pattern of the directive, its first group being the
+     *            arguments
+     * @return the arguments of the directive or <code>null</code> if the
+     *         script has no such directive
+     */
+    private String readDirective(final Resource resource,
+            final Pattern directive) {
+        InputStream inputStream = open(resource);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    inputStream, encoding));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.replace("\uFEFF", "").trim();
+                if (line.length() == 0) {
+                    continue;
+                }
+                if (!line.startsWith("--")) {
+                    return null;
+                }
+                Matcher matcher = directive.matcher(line);
+                if (matcher.matches()) {
+                    return matcher.group(1);
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw new FlywayException("Unable to read directives of "
+                    + resource.getLocation(), e);
+        } finally {
+            close(inputStream);
+        }
+    }
+
+    /**
+     * Whether a script is executed outside of a transaction to build its
+     * indexes online, i.e. online index builds are enabled and the script
+     * consists of named index creations only.
+     * @param resource
+     *            the script
+     * @return <code>true</code> if the indexes of the script are built online
+     */
+    boolean buildsIndexesOnline(final Resource resource) {
+        if (onlineIndexBuilder == null) {
+            return false;
+        }
+        InputStream inputStream = open(resource);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    inputStream, encoding));
+            StringBuilder statement = new StringBuilder();
+            int statements = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.replace("\uFEFF", "").trim();
+                if (trimmed.length() == 0 || trimmed.startsWith("--")) {
+                    continue;
+                }
+                statement.append(trimmed).append('\n');
+                if (trimmed.endsWith(";")) {
+                    if (!OnlineIndexBuilder.isCreateIndex(statement
+                            .substring(0, statement.lastIndexOf(";")))) {
+                        return false;
+                    }
+                    statements++;
+                    statement.setLength(0);
+                }
+            }
+            return statements > 0 && statement.length() == 0;
+        } catch (IOException e) {
+            throw new FlywayException("Unable to read sql script "
+                    + resource.getLocation(), e);
+        } finally {
+            close(inputStream);
+        }
+    }
+
+    /**
+     * Executes a script statement by statement while reading it. Index
+     * creations are built concurrently if the script builds its indexes
+     * online on PostgreSQL. Chunked data migrations are applied chunk by
+     * chunk, each chunk in its own transaction. The CSV file of a bulk load
+     * is loaded before the statements of the script are executed.
+     * @param connection
+     *            the jdbc connection of the migration
+     * @param resource
+     *            the script
+     * @param version
+     *            the version of the migration
+     */
+    void execute(final Connection connection, final Resource resource,
+            final MigrationVersion version) {
+        DbSupport dbSupport = DbSupportFactory.createDbSupport(connection,
+                false);
+        ChunkedScriptExecutor chunkedExecutor = readChunking(resource);
+        CsvBulkLoader loader = readBulkLoad(resource);
+        if (loader != null) {
+            Resource csv = getCsvResource(resource, loader);
+            InputStream csvStream = open(csv);
+            try {
+                loader.load(connection, dbSupport, csv, csvStream, encoding);
+            } finally {
+                close(csvStream);
+            }
+        }
+        InputStream inputStream = open(resource);
+        try {
+            StreamingSqlScript sqlScript = new StreamingSqlScript(dbSupport,
+                    inputStream, encoding, placeholderReplacer);
+            if (chunkedExecutor != null) {
+                chunkedExecutor.execute(connection, dbSupport, resource,
+                        sqlScript, version, classLoader);
+            } else if ("postgresql".equals(dbSupport.getDbName())
+                    && buildsIndexesOnline(resource)) {
+                buildIndexes(connection, resource, sqlScript);
+            } else {
+                new BatchingSqlScriptExecutor(batchSize).execute(connection,
+                        dbSupport, resource, sqlScript);
+            }
+        } finally {
+            close(inputStream);
+        }
+    }
+
+    /**
+     * Builds the indexes of a script concurrently.
+     * @param connection
+     *            the jdbc connection in auto-commit mode
+     * @param resource
+     *            the script
+     * @param sqlScript
+     *            the statements of the script
+     */
+    private void buildIndexes(final Connection connection,
+            final Resource resource, final StreamingSqlScript sqlScript) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(connection, 0);
+        for (SqlStatement statement : sqlScript) {
+            try {
+                onlineIndexBuilder.build(jdbcTemplate, statement.getSql());
+            } catch (SQLException e) {
+                throw new FlywaySqlScriptException(resource, statement, e);
+            }
+        }
+    }
+
+    /**
+     * Opens the stream of a script.
+     * @param resource
+     *            the script
+     * @return the stream
+     */
+    private InputStream open(final Resource resource) {
+        try {
+            if (resource instanceof ClassPathResource) {
+                InputStream inputStream = classLoader.getResourceAsStream(
+                        resource.getLocation());
+                if (inputStream == null) {
+                    throw new FlywayException(
+                            "Unable to obtain inputstream for resource: "
+                                    + resource.getLocation());
+                }
+                return inputStream;
+            }
+            return new FileInputStream(resource.getLocationOnDisk());
+        } catch (IOException e) {
+            throw new FlywayException("Unable to open sql script "
+                    + resource.getLocation(), e);
+        }
+    }
+
+    /**
+     * Closes the stream of a script.
+     * @param inputStream
+     *            the stream
+     */
+    private void close(final InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            throw new FlywayException("Unable to close sql script", e);
+        }
+    }
+}
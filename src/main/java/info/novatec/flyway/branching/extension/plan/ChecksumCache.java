@@ -0,0 +1,183 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.resolver.ResolvedMigration;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+import org.flywaydb.core.internal.util.scanner.Resource;
+
+/**
+ * Cache of the checksums of catalog migrations persisted in a properties
+ * file. The checksums are keyed by the resource path and the modification
+ * stamp of the jar or file containing the script, so only scripts modified
+ * since they were cached are read again.
+ */
+public class ChecksumCache {
+    /**
+     * Logger.
+     */
+    private static final Log LOG = LogFactory.getLog(ChecksumCache.class);
+
+    /**
+     * The file the cache is persisted in.
+     */
+    private final File file;
+
+    /**
+     * The cached entries, <code>stamp:checksum</code> per resource path.
+     */
+    private final Properties entries = new Properties();
+
+    /**
+     * Whether entries have been added since the cache was loaded or saved.
+     */
+    private boolean modified;
+
+    /**
+     * The number of checksums calculated by reading the scripts.
+     */
+    private int calculated;
+
+    /**
+     * Creates a new instance of {@link ChecksumCache}, loading the entries
+     * persisted in given file if it exists.
+     * @param fileToUse
+     *            the file the cache is persisted in
+     */
+    public ChecksumCache(final File fileToUse) {
+        this.file = fileToUse;
+        if (!file.isFile()) {
+            return;
+        }
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            entries.load(inputStream);
+        } catch (IOException e) {
+            LOG.warn(String.format("Unable to load checksum cache %s. "
+                    + "Reason: %s", file, e.getMessage()));
+            entries.clear();
+        } finally {
+            close(inputStream);
+        }
+    }
+
+    /**
+     * Gets the checksum of a migration. Only catalog migrations are cached,
+     * the checksum of other migrations is taken from the migration itself.
+     * @param migration
+     *            the migration
+     * @return the checksum
+     */
+    public final Integer getChecksum(final ResolvedMigration migration) {
+        if (migration instanceof DuplicateMigration) {
+            return getChecksum(((DuplicateMigration) migration)
+                    .getMigration());
+        }
+        if (migration instanceof CatalogMigration) {
+            return ((CatalogMigration) migration).getChecksum(this);
+        }
+        return migration.getChecksum();
+    }
+
+    /**
+     * Gets the number of checksums calculated by reading the scripts since
+     * the cache was created.
+     * @return the number of calculated checksums
+     */
+    public final synchronized int getCalculatedCount() {
+        return calculated;
+    }
+
+    /**
+     * Persists the cache if entries have been added.
+     */
+    public final synchronized void save() {
+        if (!modified) {
+            return;
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new FlywayException("Unable to create directory " + parent);
+        }
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(file);
+            entries.store(outputStream, "Checksums of branching migrations");
+            modified = false;
+        } catch (IOException e) {
+            throw new FlywayException("Unable to save checksum cache "
+                    + file, e);
+        } finally {
+            close(outputStream);
+        }
+    }
+
+    /**
+     * Gets the checksum of a script from the cache, calculating and caching
+     * it if the script is unknown or has been modified.
+     * @param resource
+     *            the script
+     * @param runner
+     *            the runner reading the script
+     * @return the checksum
+     */
+    final synchronized int checksum(final Resource resource,
+            final CatalogScriptRunner runner) {
+        long stamp = runner.stamp(resource);
+        String key = resource.getLocation();
+        String entry = entries.getProperty(key);
+        if (stamp != 0 && entry != null && entry.startsWith(stamp + ":")) {
+            return Integer.parseInt(entry.substring(
+                    entry.indexOf(':') + 1));
+        }
+
+        int checksum = runner.checksum(resource);
+        calculated++;
+        if (stamp != 0) {
+            entries.setProperty(key, stamp + ":" + checksum);
+            modified = true;
+        }
+        return checksum;
+    }
+
+    /**
+     * Closes a stream of the cache file.
+     * @param stream
+     *            the stream or <code>null</code>
+     */
+    private static void close(final Closeable stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            LOG.debug("Unable to close checksum cache: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.Table;
+import org.flywaydb.core.internal.util.PlaceholderReplacer;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+import org.flywaydb.core.internal.util.scanner.classpath.ClassPathResource;
+
+/**
+ * The checkpoints of chunked data migrations, stored next to the release
+ * table. Every chunk updates the last key processed by its migration, so a
+ * restarted migration resumes after the last committed chunk.
+ */
+final class ChunkCheckpointTable {
+    /**
+     * Logger.
+     */
+    private static final Log LOG =
+            LogFactory.getLog(ChunkCheckpointTable.class);
+
+    /**
+     * The name of the checkpoint table.
+     */
+    static final String TABLE_NAME = "releasecheckpoint";
+
+    /**
+     * Database-specific functionality.
+     */
+    private final DbSupport dbSupport;
+
+    /**
+     * The checkpoint table.
+     */
+    private final Table table;
+
+    /**
+     * The ClassLoader to load the table creation script with.
+     */
+    private final ClassLoader classLoader;
+
+    /**
+     * Creates a new instance of {@link ChunkCheckpointTable} in the current
+     * schema of the connection, which is the schema of the release table
+     * while migrating.
+     * @param dbSupportToUse
+     *            database-specific functionality
+     * @param classLoaderToUse
+     *            the ClassLoader to load the table creation script with
+     */
+    ChunkCheckpointTable(final DbSupport dbSupportToUse,
+            final ClassLoader classLoaderToUse) {
+        this.dbSupport = dbSupportToUse;
+        this.table = dbSupportToUse.getCurrentSchema().getTable(TABLE_NAME);
+        this.classLoader = classLoaderToUse;
+    }
+
+    /**
+     * Creates the checkpoint table if it doesn't exist.
+     */
+    void createIfNotExists() {
+        if (table.exists()) {
+            return;
+        }
+
+        LOG.debug(String.format("Creating checkpoint table '%s'", table));
+        String resourceName = "info/novatec/flyway/branching/extension/release/"
+                + dbSupport.getDbName() + "/createCheckpointTable.sql";
+        Map<String, String> placeholders = new HashMap<String, String>();
+        placeholders.put("checkpointSchemaName", table.getSchema().getName());
+        placeholders.put("checkpointTableName", table.getName());
+        InputStream inputStream = classLoader.getResourceAsStream(
+                resourceName);
+        if (inputStream == null) {
+            throw new FlywayException(
+                    "Unable to obtain inputstream for resource: "
+                            + resourceName);
+        }
+        try {
+            new BatchingSqlScriptExecutor(0).execute(
+                    dbSupport.getJdbcTemplate().getConnection(), dbSupport,
+                    new ClassPathResource(resourceName, classLoader),
+                    new StreamingSqlScript(dbSupport, inputStream, "UTF-8",
+                            new PlaceholderReplacer(placeholders, "${",
+                                    "}")));
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                LOG.debug("Unable to close resource " + resourceName);
+            }
+        }
+        LOG.info(String.format("Checkpoint table '%s' created.", table));
+    }
+
+    /**
+     * Gets the last key processed by a migration.
+     * @param connection
+     *            the jdbc connection
+     * @param version
+     *            the version of the migration
+     * @return the last key or <code>null</code> if no chunk has been
+     *         committed yet
+     */
+    Long getLastKey(final Connection connection,
+            final MigrationVersion version) {
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = connection.prepareStatement("select "
+                    + dbSupport.quote("LAST_KEY") + " from " + table
+                    + " where " + dbSupport.quote("MIGRATION_VERSION")
+                    + " = ?");
+            statement.setString(1, version.toString());
+            resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getLong(1) : null;
+        } catch (SQLException e) {
+            throw new FlywayException(
+                    "Error while retrieving the checkpoint of migration "
+                            + version + " from checkpoint table " + table, e);
+        } finally {
+            JdbcUtils.closeResultSet(resultSet);
+            JdbcUtils.closeStatement(statement);
+        }
+    }
+
+    /**
+     * Stores the last key processed by a migration, within the transaction
+     * of the chunk.
+     * @param connection
+     *            the jdbc connection
+     * @param version
+     *            the version of the migration
+     * @param lastKey
+     *            the last key of the committed chunk
+     */
+    void setLastKey(final Connection connection,
+            final MigrationVersion version, final long lastKey) {
+        PreparedStatement statement = null;
+        try {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            statement = connection.prepareStatement("update " + table
+                    + " set " + dbSupport.quote("LAST_KEY") + " = ?, "
+                    + dbSupport.quote("UPDATED_ON") + " = ? where "
+                    + dbSupport.quote("MIGRATION_VERSION") + " = ?");
+            statement.setLong(1, lastKey);
+            statement.setTimestamp(2, now);
+            statement.setString(3, version.toString());
+            if (statement.executeUpdate() > 0) {
+                return;
+            }
+            JdbcUtils.closeStatement(statement);
+
+            statement = connection.prepareStatement("insert into " + table
+                    + " (" + dbSupport.quote("MIGRATION_VERSION") + ", "
+                    + dbSupport.quote("LAST_KEY") + ", "
+                    + dbSupport.quote("UPDATED_ON") + ") values (?, ?, ?)");
+            statement.setString(1, version.toString());
+            statement.setLong(2, lastKey);
+            statement.setTimestamp(3, now);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new FlywayException(
+                    "Error while storing the checkpoint of migration "
+                            + version + " in checkpoint table " + table, e);
+        } finally {
+            JdbcUtils.closeStatement(statement);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return table.toString();
+    }
+}
@@ -0,0 +1,299 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.FlywaySqlScriptException;
+import org.flywaydb.core.internal.dbsupport.SqlStatement;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
+import org.flywaydb.core.internal.util.jdbc.TransactionCallback;
+import org.flywaydb.core.internal.util.jdbc.TransactionTemplate;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+import org.flywaydb.core.internal.util.scanner.Resource;
+
+/**
+ * Applies a chunked data migration, declared by the directive
+ * <code>-- @chunked: table=PERSON, key=ID, size=1000</code>. The rows of the
+ * table are paginated by their numeric key, and the statements of the
+ * script are executed once per chunk with the exclusive lower bound
+ * <code>:chunk_start</code> and the inclusive upper bound
+ * <code>:chunk_end</code> of its keys, e.g.
+ * <pre>
+ * update PERSON set ... where ID &gt; :chunk_start and ID &lt;= :chunk_end;
+ * </pre>
+ * Every chunk is committed together with its checkpoint, so a failed or
+ * interrupted migration resumes after the last committed chunk.
+ */
+final class ChunkedScriptExecutor {
+    /**
+     * Logger.
+     */
+    private static final Log LOG =
+            LogFactory.getLog(ChunkedScriptExecutor.class);
+
+    /**
+     * The number of rows per chunk if the directive declares no size.
+     */
+    static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /**
+     * The bounds of a chunk within a statement.
+     */
+    private static final Pattern CHUNK_BOUND = Pattern.compile(
+            "(?<!:):(chunk_start|chunk_end)\\b", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The table to paginate.
+     */
+    private final String table;
+
+    /**
+     * The numeric key column to paginate by.
+     */
+    private final String key;
+
+    /**
+     * The maximum number of rows per chunk.
+     */
+    private final int chunkSize;
+
+    /**
+     * Creates a new instance of {@link ChunkedScriptExecutor}.
+     * @param tableToUse
+     *            the table to paginate
+     * @param keyToUse
+     *            the numeric key column to paginate by
+     * @param chunkSizeToUse
+     *            the maximum number of rows per chunk
+     */
+    ChunkedScriptExecutor(final String tableToUse, final String keyToUse,
+            final int chunkSizeToUse) {
+        this.table = tableToUse;
+        this.key = keyToUse;
+        this.chunkSize = chunkSizeToUse;
+    }
+
+    /**
+     * Creates the executor from the arguments of a <code>@chunked</code>
+     * directive.
+     * @param arguments
+     *            the comma separated <code>name=value</code> arguments
+     * @param location
+     *            the location of the script for error messages
+     * @return the executor
+     */
+    static ChunkedScriptExecutor fromDirective(final String arguments,
+            final String location) {
+        String table = null;
+        String key = null;
+        int size = DEFAULT_CHUNK_SIZE;
+        for (String argument : arguments.split(",")) {
+            int separator = argument.indexOf('=');
+            if (argument.trim().length() == 0) {
+                continue;
+            }
+            if (separator < 0) {
+                throw new FlywayException(String.format(
+                        "Invalid argument '%s' of chunked migration %s",
+                        argument.trim(), location));
+            }
+            String name = argument.substring(0, separator).trim();
+            String value = argument.substring(separator + 1).trim();
+            if ("table".equalsIgnoreCase(name)) {
+                table = value;
+            } else if ("key".equalsIgnoreCase(name)) {
+                key = value;
+            } else if ("size".equalsIgnoreCase(name)) {
+                try {
+                    size = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    size = 0;
+                }
+            } else {
+                throw new FlywayException(String.format(
+                        "Unknown argument '%s' of chunked migration %s",
+                        name, location));
+            }
+        }
+        if (table == null || key == null || size < 1) {
+            throw new FlywayException(String.format(
+                    "Chunked migration %s requires a table, a key and a "
+                    + "positive size: %s", location, arguments.trim()));
+        }
+        return new ChunkedScriptExecutor(table, key, size);
+    }
+
+    /**
+     * Applies the statements of the script chunk by chunk, starting after
+     * the checkpoint of the migration if there is one.
+     * @param connection
+     *            the jdbc connection, not within a transaction
+     * @param dbSupport
+     *            database-specific functionality
+     * @param resource
+     *            the script
+     * @param sqlScript
+     *            the statements of the script
+     * @param version
+     *            the version of the migration
+     * @param classLoader
+     *            the ClassLoader to load the checkpoint table script with
+     */
+    void execute(final Connection connection, final DbSupport dbSupport,
+            final Resource resource, final StreamingSqlScript sqlScript,
+            final MigrationVersion version, final ClassLoader classLoader) {
+        final List<SqlStatement> statements = new ArrayList<SqlStatement>();
+        final List<String> sqls = new ArrayList<String>();
+        final List<List<Boolean>> bounds = new ArrayList<List<Boolean>>();
+        for (SqlStatement statement : sqlScript) {
+            List<Boolean> statementBounds = new ArrayList<Boolean>();
+            Matcher matcher = CHUNK_BOUND.matcher(statement.getSql());
+            StringBuffer sql = new StringBuffer();
+            while (matcher.find()) {
+                statementBounds.add("chunk_start".equalsIgnoreCase(
+                        matcher.group(1)));
+                matcher.appendReplacement(sql, "?");
+            }
+            matcher.appendTail(sql);
+            statements.add(statement);
+            sqls.add(sql.toString());
+            bounds.add(statementBounds);
+        }
+
+        final ChunkCheckpointTable checkpoints = new ChunkCheckpointTable(
+                dbSupport, classLoader);
+        checkpoints.createIfNotExists();
+        Long checkpoint = checkpoints.getLastKey(connection, version);
+        if (checkpoint != null) {
+            LOG.info(String.format("Resuming chunked migration %s after key "
+                    + "%s", version, checkpoint));
+        }
+
+        long start = System.currentTimeMillis();
+        long lastKey = checkpoint == null ? Long.MIN_VALUE : checkpoint;
+        int chunks = 0;
+        while (true) {
+            final long chunkStart = lastKey;
+            Long chunkEnd = new TransactionTemplate(connection)
+                    .execute(new TransactionCallback<Long>() {
+                        public Long doInTransaction() throws SQLException {
+                            Long end = getChunkEnd(connection, chunkStart);
+                            if (end == null) {
+                                return null;
+                            }
+                            for (int i = 0; i < statements.size(); i++) {
+                                execute(connection, resource,
+                                        statements.get(i), sqls.get(i),
+                                        bounds.get(i), chunkStart, end);
+                            }
+                            checkpoints.setLastKey(connection, version, end);
+                            return end;
+                        }
+                    });
+            if (chunkEnd == null) {
+                break;
+            }
+            lastKey = chunkEnd;
+            chunks++;
+            LOG.debug(String.format("Committed chunk %s of migration %s up "
+                    + "to key %s", chunks, version, chunkEnd));
+        }
+        LOG.info(String.format("Applied chunked migration %s in %s chunk(s) "
+                + "of up to %s rows of %s in %s ms", version, chunks,
+                chunkSize, table, System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Gets the key of the last row of the next chunk.
+     * @param connection
+     *            the jdbc connection
+     * @param chunkStart
+     *            the last key of the previous chunk
+     * @return the last key of the next chunk or <code>null</code> if all
+     *         rows have been processed
+     * @throws SQLException
+     *             if the query fails
+     */
+    private Long getChunkEnd(final Connection connection,
+            final long chunkStart) throws SQLException {
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = connection.prepareStatement("select max(" + key
+                    + ") from (select " + key + " from " + table + " where "
+                    + key + " > ? order by " + key + " limit " + chunkSize
+                    + ") chunk");
+            statement.setLong(1, chunkStart);
+            resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                return null;
+            }
+            long end = resultSet.getLong(1);
+            return resultSet.wasNull() ? null : end;
+        } finally {
+            JdbcUtils.closeResultSet(resultSet);
+            JdbcUtils.closeStatement(statement);
+        }
+    }
+
+    /**
+     * Executes a statement of the script for a chunk.
+     * @param connection
+     *            the jdbc connection
+     * @param resource
+     *            the script
+     * @param statement
+     *            the statement
+     * @param sql
+     *            the statement with its chunk bounds replaced by parameters
+     * @param bounds
+     *            whether each parameter is the lower bound
+     * @param chunkStart
+     *            the exclusive lower bound of the chunk
+     * @param chunkEnd
+     *            the inclusive upper bound of the chunk
+     */
+    private void execute(final Connection connection,
+            final Resource resource, final SqlStatement statement,
+            final String sql, final List<Boolean> bounds,
+            final long chunkStart, final long chunkEnd) {
+        PreparedStatement preparedStatement = null;
+        try {
+            preparedStatement = connection.prepareStatement(sql);
+            for (int i = 0; i < bounds.size(); i++) {
+                preparedStatement.setLong(i + 1,
+                        bounds.get(i) ? chunkStart : chunkEnd);
+            }
+            preparedStatement.execute();
+        } catch (SQLException e) {
+            throw new FlywaySqlScriptException(resource, statement, e);
+        } finally {
+            JdbcUtils.closeStatement(preparedStatement);
+        }
+    }
+}
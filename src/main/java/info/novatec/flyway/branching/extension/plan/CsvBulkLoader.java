@@ -0,0 +1,220 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+import org.flywaydb.core.internal.util.scanner.Resource;
+import org.flywaydb.core.internal.util.scanner.classpath.ClassPathResource;
+
+/**
+ * Loads a CSV file into a table in bulk, declared by the directive
+ * <code>-- @load: persons.csv into PERSON</code> of a migration script. The
+ * CSV file is located next to the script and its first line names the
+ * columns to load. The file is streamed into PostgreSQL with
+ * <code>COPY ... FROM STDIN</code> and read by H2 with
+ * <code>CSVREAD</code>, so it is never loaded into memory. The PostgreSQL
+ * jdbc driver is only required if the database is PostgreSQL.
+ */
+final class CsvBulkLoader {
+    /**
+     * Logger.
+     */
+    private static final Log LOG = LogFactory.getLog(CsvBulkLoader.class);
+
+    /**
+     * The arguments of the directive, i.e. the CSV file and the table.
+     */
+    private static final Pattern ARGUMENTS = Pattern.compile(
+            "\\s*(\\S+)\\s+into\\s+(\\S+)\\s*", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The CSV file relative to the folder of the script.
+     */
+    private final String file;
+
+    /**
+     * The table to load the CSV file into.
+     */
+    private final String table;
+
+    /**
+     * Creates a new instance of {@link CsvBulkLoader}.
+     * @param fileToUse
+     *            the CSV file relative to the folder of the script
+     * @param tableToUse
+     *            the table to load the CSV file into
+     */
+    CsvBulkLoader(final String fileToUse, final String tableToUse) {
+        this.file = fileToUse;
+        this.table = tableToUse;
+    }
+
+    /**
+     * Creates the loader from the arguments of a <code>@load</code>
+     * directive.
+     * @param arguments
+     *            the arguments, <code>&lt;file&gt; into &lt;table&gt;</code>
+     * @param location
+     *            the location of the script for error messages
+     * @return the loader
+     */
+    static CsvBulkLoader fromDirective(final String arguments,
+            final String location) {
+        Matcher matcher = ARGUMENTS.matcher(arguments);
+        if (!matcher.matches()) {
+            throw new FlywayException(String.format(
+                    "Bulk load of %s requires '<file> into <table>': %s",
+                    location, arguments.trim()));
+        }
+        return new CsvBulkLoader(matcher.group(1), matcher.group(2));
+    }
+
+    /**
+     * Gets the CSV file relative to the folder of the script.
+     * @return the CSV file
+     */
+    String getFile() {
+        return file;
+    }
+
+    /**
+     * Loads the CSV file into the table.
+     * @param connection
+     *            the jdbc connection of the migration
+     * @param dbSupport
+     *            database-specific functionality
+     * @param csv
+     *            the CSV file
+     * @param inputStream
+     *            the stream of the CSV file
+     * @param encoding
+     *            the encoding of the CSV file
+     * @return the number of loaded rows
+     */
+    long load(final Connection connection, final DbSupport dbSupport,
+            final Resource csv, final InputStream inputStream,
+            final String encoding) {
+        long start = System.currentTimeMillis();
+        long rows;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    inputStream, encoding));
+            String header = reader.readLine();
+            if (header == null) {
+                throw new FlywayException("Missing header line in CSV file "
+                        + csv.getLocation());
+            }
+            String columns = StringUtils.join(parseHeader(header), ", ");
+            if ("postgresql".equals(dbSupport.getDbName())) {
+                rows = PostgreSQLCsvCopy.copyIn(connection, table, columns,
+                        reader);
+            } else if ("h2".equals(dbSupport.getDbName())) {
+                rows = readCsv(connection, csv, columns, encoding);
+            } else {
+                throw new FlywayException(String.format(
+                        "Bulk load of %s is not supported on %s",
+                        csv.getLocation(), dbSupport.getDbName()));
+            }
+        } catch (IOException e) {
+            throw new FlywayException("Unable to read CSV file "
+                    + csv.getLocation(), e);
+        } catch (SQLException e) {
+            throw new FlywayException(String.format(
+                    "Bulk load of %s into %s failed", csv.getLocation(),
+                    table), e);
+        }
+        LOG.info(String.format("Loaded %s row(s) of %s into %s in %s ms",
+                rows, csv.getLocation(), table,
+                System.currentTimeMillis() - start));
+        return rows;
+    }
+
+    /**
+     * Loads the CSV file into the table using H2's <code>CSVREAD</code>,
+     * which reads the file itself.
+     * @param connection
+     *            the jdbc connection
+     * @param csv
+     *            the CSV file
+     * @param columns
+     *            the columns of the CSV file
+     * @param encoding
+     *            the encoding of the CSV file
+     * @return the number of loaded rows
+     * @throws SQLException
+     *             if loading fails
+     */
+    private long readCsv(final Connection connection, final Resource csv,
+            final String columns, final String encoding) throws SQLException {
+        String path = csv instanceof ClassPathResource
+                ? "classpath:" + csv.getLocation() : csv.getLocationOnDisk();
+        Statement statement = connection.createStatement();
+        try {
+            return statement.executeUpdate("insert into " + table + " ("
+                    + columns + ") select * from csvread(" + quote(path)
+                    + ", null, " + quote("charset=" + encoding) + ")");
+        } finally {
+            JdbcUtils.closeStatement(statement);
+        }
+    }
+
+    /**
+     * Quotes a string literal, the arguments of <code>CSVREAD</code> must
+     * be constant.
+     * @param value
+     *            the value
+     * @return the quoted literal
+     */
+    private static String quote(final String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    /**
+     * Parses the column names of the header line of a CSV file.
+     * @param header
+     *            the header line
+     * @return the column names
+     */
+    private static List<String> parseHeader(final String header) {
+        List<String> columns = new ArrayList<String>();
+        for (String column : header.replace("\uFEFF", "").split(",")) {
+            String name = column.trim();
+            if (name.length() > 1 && name.startsWith("\"")
+                    && name.endsWith("\"")) {
+                name = name.substring(1, name.length() - 1);
+            }
+            columns.add(name);
+        }
+        return columns;
+    }
+}
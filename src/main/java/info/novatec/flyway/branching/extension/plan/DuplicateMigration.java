@@ -0,0 +1,126 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.sql.Connection;
+
+import org.flywaydb.core.api.MigrationType;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.resolver.MigrationExecutor;
+import org.flywaydb.core.api.resolver.ResolvedMigration;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+
+/**
+ * A migration of a {@link MigrationPlan} whose script is identical to a
+ * migration of an earlier release on the upgrade path, e.g. a fix
+ * backported into several release folders. It is recorded as applied with
+ * its own version and checksum, but not executed again.
+ */
+public final class DuplicateMigration implements ResolvedMigration,
+        MigrationExecutor {
+    /**
+     * Logger.
+     */
+    private static final Log LOG =
+            LogFactory.getLog(DuplicateMigration.class);
+
+    /**
+     * The skipped copy of the migration.
+     */
+    private final ResolvedMigration migration;
+
+    /**
+     * The migration with the identical script applied instead.
+     */
+    private final PlannedMigration original;
+
+    /**
+     * Creates a new instance of {@link DuplicateMigration}.
+     * @param migrationToUse
+     *            the skipped copy of the migration
+     * @param originalToUse
+     *            the migration with the identical script applied instead
+     */
+    DuplicateMigration(final ResolvedMigration migrationToUse,
+            final PlannedMigration originalToUse) {
+        this.migration = migrationToUse;
+        this.original = originalToUse;
+    }
+
+    /**
+     * Gets the skipped copy of the migration.
+     * @return the migration
+     */
+    public ResolvedMigration getMigration() {
+        return migration;
+    }
+
+    /**
+     * Gets the migration with the identical script applied instead.
+     * @return the original migration
+     */
+    public PlannedMigration getOriginal() {
+        return original;
+    }
+
+    @Override
+    public MigrationVersion getVersion() {
+        return migration.getVersion();
+    }
+
+    @Override
+    public String getDescription() {
+        return migration.getDescription();
+    }
+
+    @Override
+    public String getScript() {
+        return migration.getScript();
+    }
+
+    @Override
+    public Integer getChecksum() {
+        return migration.getChecksum();
+    }
+
+    @Override
+    public MigrationType getType() {
+        return migration.getType();
+    }
+
+    @Override
+    public String getPhysicalLocation() {
+        return migration.getPhysicalLocation();
+    }
+
+    @Override
+    public MigrationExecutor getExecutor() {
+        return this;
+    }
+
+    @Override
+    public void execute(final Connection connection) {
+        LOG.info(String.format("Skipping migration %s - %s, identical to "
+                + "migration %s", migration.getVersion(),
+                migration.getDescription(), original));
+    }
+
+    @Override
+    public boolean executeInTransaction() {
+        return true;
+    }
+}
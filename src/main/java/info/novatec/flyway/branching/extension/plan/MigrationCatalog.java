@@ -0,0 +1,159 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.resolver.ResolvedMigration;
+
+/**
+ * Index of the sql migrations of all release folders, keyed by release and
+ * version. It is built once from a single scan of the base locations and
+ * resolves branching migrations in memory.
+ */
+public class MigrationCatalog {
+    /**
+     * The migrations per release ordered by version.
+     */
+    private final Map<String, SortedMap<MigrationVersion, ResolvedMigration>>
+        migrations =
+            new HashMap<String, SortedMap<MigrationVersion, ResolvedMigration>>();
+
+    /**
+     * The squashed baseline scripts per release ordered by version.
+     */
+    private final Map<String, SortedMap<MigrationVersion, ResolvedMigration>>
+        baselines =
+            new HashMap<String, SortedMap<MigrationVersion, ResolvedMigration>>();
+
+    /**
+     * Adds a migration to the catalog.
+     * @param release
+     *            the release folder of the migration
+     * @param migration
+     *            the migration
+     */
+    public final void add(final String release,
+            final ResolvedMigration migration) {
+        put(migrations, release, migration);
+    }
+
+    /**
+     * Adds a squashed baseline script to the catalog. Its version is the
+     * latest version of the release chain it supersedes.
+     * @param release
+     *            the release folder of the baseline script
+     * @param baseline
+     *            the baseline script
+     */
+    public final void addBaseline(final String release,
+            final ResolvedMigration baseline) {
+        put(baselines, release, baseline);
+    }
+
+    /**
+     * Gets the releases contained in the catalog.
+     * @return the releases
+     */
+    public final Set<String> getReleases() {
+        return Collections.unmodifiableSet(migrations.keySet());
+    }
+
+    /**
+     * Gets the migrations of given release.
+     * @param release
+     *            the release (case insensitive)
+     * @return the migrations ordered by version, empty if the release is
+     *         unknown
+     */
+    public final SortedMap<MigrationVersion, ResolvedMigration> getMigrations(
+            final String release) {
+        return get(migrations, release);
+    }
+
+    /**
+     * Gets the squashed baseline scripts of given release.
+     * @param release
+     *            the release (case insensitive)
+     * @return the baseline scripts ordered by version, empty if the release
+     *         has none
+     */
+    public final SortedMap<MigrationVersion, ResolvedMigration> getBaselines(
+            final String release) {
+        return get(baselines, release);
+    }
+
+    /**
+     * Adds a migration to given index.
+     * @param index
+     *            the migrations or baselines per release
+     * @param release
+     *            the release folder of the migration
+     * @param migration
+     *            the migration
+     */
+    private static void put(
+            final Map<String, SortedMap<MigrationVersion, ResolvedMigration>>
+                index, final String release,
+            final ResolvedMigration migration) {
+        SortedMap<MigrationVersion, ResolvedMigration> releaseMigrations =
+                index.get(release);
+        if (releaseMigrations == null) {
+            releaseMigrations =
+                    new TreeMap<MigrationVersion, ResolvedMigration>();
+            index.put(release, releaseMigrations);
+        }
+        ResolvedMigration existing = releaseMigrations.put(
+                migration.getVersion(), migration);
+        if (existing != null) {
+            throw new FlywayException(String.format(
+                    "Found more than one migration with version %s "
+                            + "in release %s: %s and %s",
+                    migration.getVersion(), release,
+                    existing.getPhysicalLocation(),
+                    migration.getPhysicalLocation()));
+        }
+    }
+
+    /**
+     * Gets the migrations of given release from given index.
+     * @param index
+     *            the migrations or baselines per release
+     * @param release
+     *            the release (case insensitive)
+     * @return the migrations ordered by version, empty if the release is
+     *         unknown
+     */
+    private static SortedMap<MigrationVersion, ResolvedMigration> get(
+            final Map<String, SortedMap<MigrationVersion, ResolvedMigration>>
+                index, final String release) {
+        for (Map.Entry<String, SortedMap<MigrationVersion, ResolvedMigration>>
+                entry : index.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(release)) {
+                return Collections.unmodifiableSortedMap(entry.getValue());
+            }
+        }
+        return Collections.unmodifiableSortedMap(
+                new TreeMap<MigrationVersion, ResolvedMigration>());
+    }
+}
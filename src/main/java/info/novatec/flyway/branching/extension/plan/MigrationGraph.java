@@ -0,0 +1,152 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.resolver.ResolvedMigration;
+
+/**
+ * Dependency graph of the migrations of a release. A migration declares the
+ * versions it depends on with a <code>-- @depends: 01.01.00, 01.01.01</code>
+ * comment at the top of its script, an empty list marks it independent.
+ * Migrations without the directive depend on all previous migrations of the
+ * release, so releases without directives are applied sequentially.
+ * Dependencies on versions that are not part of the graph are considered
+ * applied already. Only dependencies on lower versions are allowed, which
+ * keeps the graph acyclic and the version order a valid execution order.
+ */
+public class MigrationGraph {
+    /**
+     * The migrations in version order.
+     */
+    private final List<PlannedMigration> migrations;
+
+    /**
+     * The prerequisites of each migration.
+     */
+    private final Map<PlannedMigration, Set<PlannedMigration>> prerequisites =
+            new HashMap<PlannedMigration, Set<PlannedMigration>>();
+
+    /**
+     * Creates a new instance of {@link MigrationGraph}.
+     * @param migrationsToUse
+     *            the migrations in version order
+     */
+    public MigrationGraph(final List<PlannedMigration> migrationsToUse) {
+        this.migrations = Collections.unmodifiableList(
+                new ArrayList<PlannedMigration>(migrationsToUse));
+
+        Map<MigrationVersion, PlannedMigration> byVersion =
+                new HashMap<MigrationVersion, PlannedMigration>();
+        for (int i = 0; i < migrations.size(); i++) {
+            PlannedMigration planned = migrations.get(i);
+            ResolvedMigration migration = planned.getMigration();
+            Set<PlannedMigration> required =
+                    new LinkedHashSet<PlannedMigration>();
+            List<MigrationVersion> dependencies = getDependencies(migration);
+            if (dependencies == null) {
+                required.addAll(migrations.subList(0, i));
+            } else {
+                for (MigrationVersion dependency : dependencies) {
+                    if (dependency.compareTo(migration.getVersion()) >= 0) {
+                        throw new FlywayException(String.format(
+                                "Migration %s must not depend on version %s. "
+                                        + "Only lower versions are allowed",
+                                migration.getScript(), dependency));
+                    }
+                    PlannedMigration prerequisite = byVersion.get(dependency);
+                    if (prerequisite != null) {
+                        required.add(prerequisite);
+                    }
+                }
+            }
+            prerequisites.put(planned, required);
+            byVersion.put(migration.getVersion(), planned);
+        }
+    }
+
+    /**
+     * Gets the migrations in version order.
+     * @return the migrations
+     */
+    public final List<PlannedMigration> getMigrations() {
+        return migrations;
+    }
+
+    /**
+     * Gets the migrations that have to be applied before given migration.
+     * @param migration
+     *            a migration of the graph
+     * @return the prerequisites
+     */
+    public final Set<PlannedMigration> getPrerequisites(
+            final PlannedMigration migration) {
+        Set<PlannedMigration> required = prerequisites.get(migration);
+        if (required == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(required);
+    }
+
+    /**
+     * Gets the migrations that are not applied yet but whose prerequisites
+     * are all applied, in version order.
+     * @param applied
+     *            the migrations applied so far
+     * @param running
+     *            the migrations currently running
+     * @return the migrations ready to be applied
+     */
+    public final List<PlannedMigration> getReady(
+            final Set<PlannedMigration> applied,
+            final Set<PlannedMigration> running) {
+        List<PlannedMigration> ready = new ArrayList<PlannedMigration>();
+        for (PlannedMigration migration : migrations) {
+            if (!applied.contains(migration) && !running.contains(migration)
+                    && applied.containsAll(prerequisites.get(migration))) {
+                ready.add(migration);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Gets the declared dependencies of a migration.
+     * @param migration
+     *            the migration
+     * @return the versions, <code>null</code> if nothing is declared
+     */
+    private List<MigrationVersion> getDependencies(
+            final ResolvedMigration migration) {
+        if (migration instanceof DuplicateMigration) {
+            return getDependencies(
+                    ((DuplicateMigration) migration).getMigration());
+        }
+        if (migration instanceof CatalogMigration) {
+            return ((CatalogMigration) migration).getDependencies();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The ordered migrations of an upgrade path through the release chain,
+ * computed from the {@link MigrationCatalog} without accessing a database.
+ * The release switches are implied by the release folders: the release table
+ * is switched to a release when its first migration is applied.
+ */
+public class MigrationPlan {
+    /**
+     * The release the plan starts at.
+     */
+    private final String fromRelease;
+
+    /**
+     * The migrations in execution order.
+     */
+    private final List<PlannedMigration> migrations;
+
+    /**
+     * Creates a new instance of {@link MigrationPlan}.
+     * @param fromReleaseToUse
+     *            the release the plan starts at
+     * @param migrationsToUse
+     *            the migrations in execution order
+     */
+    public MigrationPlan(final String fromReleaseToUse,
+            final List<PlannedMigration> migrationsToUse) {
+        this.fromRelease = fromReleaseToUse;
+        this.migrations = Collections.unmodifiableList(
+                new ArrayList<PlannedMigration>(migrationsToUse));
+    }
+
+    /**
+     * Gets the release the plan starts at.
+     * @return the start release
+     */
+    public final String getFromRelease() {
+        return fromRelease;
+    }
+
+    /**
+     * Gets the release the plan ends at.
+     * @return the end release
+     */
+    public final String getToRelease() {
+        if (migrations.isEmpty()) {
+            return fromRelease;
+        }
+        return migrations.get(migrations.size() - 1).getRelease();
+    }
+
+    /**
+     * Gets the migrations in execution order.
+     * @return the migrations
+     */
+    public final List<PlannedMigration> getMigrations() {
+        return migrations;
+    }
+
+    /**
+     * Gets the planned migrations that are skipped because their script is
+     * identical to a migration of an earlier release on the upgrade path
+     * (see {@link DuplicateMigration}).
+     * @return the skipped migrations in execution order
+     */
+    public final List<PlannedMigration> getSkippedMigrations() {
+        List<PlannedMigration> skipped = new ArrayList<PlannedMigration>();
+        for (PlannedMigration migration : migrations) {
+            if (migration.getMigration() instanceof DuplicateMigration) {
+                skipped.add(migration);
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * Gets the migrations grouped by release, in execution order.
+     * @return the migrations per release
+     */
+    public final List<List<PlannedMigration>> getMigrationsByRelease() {
+        List<List<PlannedMigration>> releases =
+                new ArrayList<List<PlannedMigration>>();
+        List<PlannedMigration> current = null;
+        for (PlannedMigration migration : migrations) {
+            if (current == null || !current.get(0).getRelease()
+                    .equalsIgnoreCase(migration.getRelease())) {
+                current = new ArrayList<PlannedMigration>();
+                releases.add(current);
+            }
+            current.add(migration);
+        }
+        return releases;
+    }
+
+    /**
+     * Gets the releases switched to in execution order.
+     * @return the releases switched to
+     */
+    public final List<String> getReleaseSwitches() {
+        List<String> switches = new ArrayList<String>();
+        String release = fromRelease;
+        for (PlannedMigration migration : migrations) {
+            if (!migration.getRelease().equalsIgnoreCase(release)) {
+                release = migration.getRelease();
+                switches.add(release);
+            }
+        }
+        return switches;
+    }
+
+    @Override
+    public final String toString() {
+        String lineSeparator = System.getProperty("line.separator");
+        StringBuilder builder = new StringBuilder(String.format(
+                "Plan from release %s to release %s: %s migration(s), "
+                        + "%s release switch(es), %s duplicate(s) skipped",
+                fromRelease, getToRelease(), migrations.size(),
+                getReleaseSwitches().size(), getSkippedMigrations().size()));
+        String release = fromRelease;
+        for (PlannedMigration migration : migrations) {
+            if (!migration.getRelease().equalsIgnoreCase(release)) {
+                release = migration.getRelease();
+                builder.append(lineSeparator).append("  switch to release ")
+                        .append(release);
+            }
+            builder.append(lineSeparator).append("    ").append(migration);
+            if (migration.getMigration() instanceof DuplicateMigration) {
+                builder.append(" skipped, identical to ").append(
+                        ((DuplicateMigration) migration.getMigration())
+                                .getOriginal());
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.MigrationVersion;
+
+/**
+ * Dry run of a branching migration: prints the plan of an upgrade path
+ * computed from the release folders only, no database is accessed.
+ * <pre>
+ * java info.novatec.flyway.branching.extension.plan.MigrationPlanPrinter
+ *     &lt;locations&gt; &lt;fromRelease&gt; [&lt;fromVersion&gt; [&lt;toRelease&gt;]]
+ * </pre>
+ * The locations are given comma separated as for flyway, the from version
+ * is the latest applied version (none for an empty database) and the
+ * target release defaults to the head of the release chain.
+ */
+public final class MigrationPlanPrinter {
+    /**
+     * Minimum number of arguments.
+     */
+    private static final int MIN_ARGS = 2;
+
+    /**
+     * Index of the optional from version argument.
+     */
+    private static final int FROM_VERSION_ARG = 2;
+
+    /**
+     * Index of the optional target release argument.
+     */
+    private static final int TO_RELEASE_ARG = 3;
+
+    /**
+     * Utility class.
+     */
+    private MigrationPlanPrinter() {
+    }
+
+    /**
+     * Prints the migration plan.
+     * @param args
+     *            the locations, the start release, and optionally the latest
+     *            applied version and the target release
+     */
+    public static void main(final String[] args) {
+        if (args.length < MIN_ARGS) {
+            System.err.println("Usage: MigrationPlanPrinter <locations> "
+                    + "<fromRelease> [<fromVersion> [<toRelease>]]");
+            System.exit(1);
+        }
+
+        Flyway flyway = new Flyway();
+        flyway.setLocations(args[0].split(","));
+        ReleaseChain releaseChain = new MigrationPlanner(flyway,
+                flyway.getLocations()).plan();
+
+        MigrationVersion fromVersion = args.length > FROM_VERSION_ARG
+                ? MigrationVersion.fromVersion(args[FROM_VERSION_ARG])
+                : MigrationVersion.EMPTY;
+        String toRelease = args.length > TO_RELEASE_ARG
+                ? args[TO_RELEASE_ARG] : null;
+
+        System.out.println(releaseChain.getPlan(args[1], fromVersion,
+                toRelease));
+    }
+}
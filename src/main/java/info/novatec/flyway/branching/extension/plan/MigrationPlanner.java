@@ -0,0 +1,257 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.internal.resolver.MigrationInfoHelper;
+import org.flywaydb.core.internal.util.Location;
+import org.flywaydb.core.internal.util.Pair;
+import org.flywaydb.core.internal.util.PlaceholderReplacer;
+import org.flywaydb.core.internal.util.scanner.Resource;
+import org.flywaydb.core.internal.util.scanner.Scanner;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+
+/**
+ * Reads the release chain up front by scanning all release folders below
+ * the base locations once. Releases are ordered by the lowest version of
+ * their sql migrations, the version ranges of the releases must not
+ * overlap. The scanned migrations are indexed in a {@link MigrationCatalog}.
+ * Squashed baseline scripts of a release folder (prefix
+ * {@value #BASELINE_PREFIX}) are indexed as well, their version must match a
+ * migration of the same release.
+ */
+public class MigrationPlanner {
+    /**
+     * Logger.
+     */
+    private static final Log LOG = LogFactory.getLog(MigrationPlanner.class);
+
+    /**
+     * The file name prefix of the squashed baseline scripts of a release,
+     * e.g. <code>B01_01_00__Baseline.sql</code>.
+     */
+    public static final String BASELINE_PREFIX = "B";
+
+    /**
+     * The {@link Flyway} instance.
+     */
+    private final Flyway flyway;
+
+    /**
+     * The base locations containing the release folders.
+     */
+    private final String[] baseLocations;
+
+    /**
+     * The jdbc batch size for DML statements of catalog migrations.
+     */
+    private final int batchSize;
+
+    /**
+     * Whether index creations of catalog migrations are built online.
+     */
+    private final boolean onlineIndexBuild;
+
+    /**
+     * Creates a new instance of {@link MigrationPlanner}.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param baseLocationsToUse
+     *            the base locations containing the release folders
+     */
+    public MigrationPlanner(final Flyway flywayInstance,
+            final String[] baseLocationsToUse) {
+        this(flywayInstance, baseLocationsToUse, 0);
+    }
+
+    /**
+     * Creates a new instance of {@link MigrationPlanner} whose catalog
+     * migrations execute consecutive DML statements in jdbc batches. Only
+     * applies if the migrations are resolved from the catalog.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param baseLocationsToUse
+     *            the base locations containing the release folders
+     * @param batchSizeToUse
+     *            the maximum number of DML statements per jdbc batch, 0 to
+     *            execute them one by one
+     */
+    public MigrationPlanner(final Flyway flywayInstance,
+            final String[] baseLocationsToUse, final int batchSizeToUse) {
+        this(flywayInstance, baseLocationsToUse, batchSizeToUse, false);
+    }
+
+    /**
+     * Creates a new instance of {@link MigrationPlanner} which optionally
+     * builds indexes online. Catalog migrations consisting of named index
+     * creations only are then executed outside of any transaction, and on
+     * PostgreSQL their indexes are built with
+     * <code>CREATE INDEX CONCURRENTLY</code>, so the tables stay writable.
+     * Indexes left invalid by a failed build are dropped and built again.
+     * Only applies if the migrations are resolved from the catalog.
+     * @param flywayInstance
+     *            the {@link Flyway} instance
+     * @param baseLocationsToUse
+     *            the base locations containing the release folders
+     * @param batchSizeToUse
+     *            the maximum number of DML statements per jdbc batch, 0 to
+     *            execute them one by one
+     * @param onlineIndexBuildToUse
+     *            whether index creations are built online
+     */
+    public MigrationPlanner(final Flyway flywayInstance,
+            final String[] baseLocationsToUse, final int batchSizeToUse,
+            final boolean onlineIndexBuildToUse) {
+        if (batchSizeToUse < 0) {
+            throw new FlywayException("Invalid batch size " + batchSizeToUse);
+        }
+        this.flyway = flywayInstance;
+        this.baseLocations = baseLocationsToUse.clone();
+        this.batchSize = batchSizeToUse;
+        this.onlineIndexBuild = onlineIndexBuildToUse;
+    }
+
+    /**
+     * Scans the base locations and builds the ordered release chain together
+     * with the catalog of all sql migrations of the releases.
+     * @return the release chain
+     */
+    public final ReleaseChain plan() {
+        final MigrationCatalog catalog = new MigrationCatalog();
+        Scanner scanner = new Scanner(flyway.getClassLoader());
+        CatalogScriptRunner runner = new CatalogScriptRunner(
+                flyway.getClassLoader(), new PlaceholderReplacer(
+                        flyway.getPlaceholders(),
+                        flyway.getPlaceholderPrefix(),
+                        flyway.getPlaceholderSuffix()),
+                flyway.getEncoding(), batchSize, onlineIndexBuild);
+
+        for (String baseLocation : baseLocations) {
+            Location location = new Location(baseLocation);
+            scan(scanner, runner, catalog, location, false);
+            scan(scanner, runner, catalog, location, true);
+        }
+
+        List<String> releases = new ArrayList<String>(catalog.getReleases());
+        Collections.sort(releases, new Comparator<String>() {
+            public int compare(final String first, final String second) {
+                return catalog.getMigrations(first).firstKey().compareTo(
+                        catalog.getMigrations(second).firstKey());
+            }
+        });
+
+        for (int i = 1; i < releases.size(); i++) {
+            MigrationVersion previous = catalog.getMigrations(
+                    releases.get(i - 1)).lastKey();
+            MigrationVersion next = catalog.getMigrations(releases.get(i))
+                    .firstKey();
+            if (previous.compareTo(next) >= 0) {
+                throw new FlywayException(String.format(
+                        "Releases '%s' and '%s' have overlapping versions",
+                        releases.get(i - 1), releases.get(i)));
+            }
+        }
+
+        for (String release : catalog.getReleases()) {
+            for (MigrationVersion version
+                    : catalog.getBaselines(release).keySet()) {
+                if (!catalog.getMigrations(release).containsKey(version)) {
+                    throw new FlywayException(String.format(
+                            "Baseline %s of release %s does not match a "
+                            + "migration of the release", version, release));
+                }
+            }
+        }
+
+        ReleaseChain releaseChain = new ReleaseChain(
+                Arrays.asList(baseLocations), releases, catalog);
+        LOG.debug(String.format("Planned release chain %s", releaseChain));
+        return releaseChain;
+    }
+
+    /**
+     * Scans a base location for the sql migrations or the squashed baseline
+     * scripts of its release folders and adds them to the catalog.
+     * @param scanner
+     *            the classpath scanner
+     * @param runner
+     *            the runner reading and executing the scripts
+     * @param catalog
+     *            the catalog to add the scripts to
+     * @param location
+     *            the base location containing the release folders
+     * @param baseline
+     *            whether to scan for baseline scripts instead of migrations
+     */
+    private void scan(final Scanner scanner, final CatalogScriptRunner runner,
+            final MigrationCatalog catalog, final Location location,
+            final boolean baseline) {
+        String prefix = baseline ? BASELINE_PREFIX
+                : flyway.getSqlMigrationPrefix();
+        Resource[] resources = scanner.scanForResources(location, prefix,
+                flyway.getSqlMigrationSuffix());
+        for (Resource resource : resources) {
+            String relativePath = getRelativePath(location, resource);
+            int separator = relativePath == null ? -1
+                    : relativePath.indexOf('/');
+            if (separator < 0) {
+                continue;
+            }
+            Pair<MigrationVersion, String> info = MigrationInfoHelper
+                    .extractVersionAndDescription(resource.getFilename(),
+                            prefix, flyway.getSqlMigrationSeparator(),
+                            flyway.getSqlMigrationSuffix());
+            String release = relativePath.substring(0, separator);
+            CatalogMigration migration = new CatalogMigration(resource,
+                    info.getLeft(), info.getRight(),
+                    relativePath.substring(separator + 1), runner);
+            if (baseline) {
+                catalog.addBaseline(release, migration);
+            } else {
+                catalog.add(release, migration);
+            }
+        }
+    }
+
+    /**
+     * Gets the path of given resource relative to the scanned location.
+     * @param location
+     *            the base location that has been scanned
+     * @param resource
+     *            the migration resource
+     * @return the relative path or <code>null</code> if the resource is not
+     *         located below the base location
+     */
+    private String getRelativePath(final Location location,
+            final Resource resource) {
+        String path = resource.getLocation().replace('\\', '/');
+        String basePath = location.getPath().replace('\\', '/') + "/";
+        int index = path.indexOf(basePath);
+        if (index < 0) {
+            return null;
+        }
+        return path.substring(index + basePath.length());
+    }
+}
@@ -0,0 +1,190 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.internal.dbsupport.JdbcTemplate;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+
+/**
+ * Builds PostgreSQL indexes with <code>CREATE INDEX CONCURRENTLY</code>, so
+ * the table stays writable while the index is built. This only works on a
+ * connection in auto-commit mode, i.e. outside of any transaction. A failed
+ * concurrent build leaves an invalid index behind, which is dropped before
+ * the build is retried.
+ */
+final class OnlineIndexBuilder {
+    /**
+     * Logger.
+     */
+    private static final Log LOG =
+            LogFactory.getLog(OnlineIndexBuilder.class);
+
+    /**
+     * Named index creation with optional <code>UNIQUE</code>,
+     * <code>CONCURRENTLY</code> and <code>IF NOT EXISTS</code>.
+     */
+    private static final Pattern CREATE_INDEX = Pattern.compile(
+            "\\s*create\\s+(unique\\s+)?index\\s+(concurrently\\s+)?"
+                    + "(if\\s+not\\s+exists\\s+)?(\"[^\"]+\"|[\\w$]+)\\s+on\\s"
+                    + ".*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /**
+     * Query of the validity of an index in the current schema.
+     */
+    private static final String VALIDITY_QUERY = "select case when "
+            + "i.indisvalid then 'valid' else 'invalid' end from pg_index i "
+            + "join pg_class c on c.oid = i.indexrelid "
+            + "join pg_namespace n on n.oid = c.relnamespace "
+            + "where c.relname = ? and n.nspname = current_schema()";
+
+    /**
+     * The maximum number of attempts to build an index.
+     */
+    private final int maxAttempts;
+
+    /**
+     * Creates a new instance of {@link OnlineIndexBuilder}.
+     * @param maxAttemptsToUse
+     *            the maximum number of attempts to build an index
+     */
+    OnlineIndexBuilder(final int maxAttemptsToUse) {
+        this.maxAttempts = maxAttemptsToUse;
+    }
+
+    /**
+     * Whether given statement creates a named index.
+     * @param sql
+     *            the statement
+     * @return <code>true</code> if the statement can be built online
+     */
+    static boolean isCreateIndex(final String sql) {
+        return CREATE_INDEX.matcher(sql).matches();
+    }
+
+    /**
+     * Rewrites an index creation to build the index concurrently.
+     * @param sql
+     *            the index creation
+     * @return the concurrent index creation
+     */
+    static String toConcurrent(final String sql) {
+        if (matchCreateIndex(sql).group(2) != null) {
+            return sql;
+        }
+        return sql.replaceFirst(
+                "(?is)^(\\s*create\\s+(unique\\s+)?index)\\s+",
+                "$1 concurrently ");
+    }
+
+    /**
+     * Gets the name of the index created by given statement as stored in
+     * the PostgreSQL catalog.
+     * @param sql
+     *            the index creation
+     * @return the index name
+     */
+    static String getIndexName(final String sql) {
+        String name = matchCreateIndex(sql).group(4);
+        if (name.startsWith("\"")) {
+            return name.substring(1, name.length() - 1);
+        }
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Builds the index of given statement concurrently. An invalid index
+     * left behind by an earlier attempt is dropped first.
+     * @param jdbcTemplate
+     *            the jdbc template of a connection in auto-commit mode
+     * @param sql
+     *            the index creation
+     * @throws SQLException
+     *             if the last attempt fails
+     */
+    void build(final JdbcTemplate jdbcTemplate, final String sql)
+            throws SQLException {
+        String indexName = getIndexName(sql);
+        String concurrentSql = toConcurrent(sql);
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            if ("invalid".equals(getValidity(jdbcTemplate, indexName))) {
+                LOG.warn(String.format("Dropping invalid index %s",
+                        indexName));
+                jdbcTemplate.executeStatement("drop index concurrently \""
+                        + indexName + "\"");
+            }
+            try {
+                jdbcTemplate.executeStatement(concurrentSql);
+            } catch (SQLException e) {
+                if (attempt == maxAttempts || !"invalid".equals(
+                        getValidity(jdbcTemplate, indexName))) {
+                    throw e;
+                }
+                LOG.warn(String.format("Building index %s failed in attempt "
+                        + "%s: %s", indexName, attempt, e.getMessage()));
+                continue;
+            }
+            if ("valid".equals(getValidity(jdbcTemplate, indexName))) {
+                LOG.info(String.format("Built index %s online", indexName));
+                return;
+            }
+            LOG.warn(String.format("Index %s is invalid after attempt %s",
+                    indexName, attempt));
+        }
+        throw new FlywayException(String.format(
+                "Index %s is still invalid after %s attempts", indexName,
+                maxAttempts));
+    }
+
+    /**
+     * Gets the validity of an index in the current schema.
+     * @param jdbcTemplate
+     *            the jdbc template
+     * @param indexName
+     *            the index name
+     * @return <code>valid</code>, <code>invalid</code> or <code>null</code>
+     *         if the index does not exist
+     * @throws SQLException
+     *             if the catalog query fails
+     */
+    private String getValidity(final JdbcTemplate jdbcTemplate,
+            final String indexName) throws SQLException {
+        List<String> validity = jdbcTemplate.queryForStringList(
+                VALIDITY_QUERY, indexName);
+        return validity.isEmpty() ? null : validity.get(0);
+    }
+
+    /**
+     * Matches an index creation.
+     * @param sql
+     *            the index creation
+     * @return the matcher
+     */
+    private static Matcher matchCreateIndex(final String sql) {
+        Matcher matcher = CREATE_INDEX.matcher(sql);
+        if (!matcher.matches()) {
+            throw new FlywayException("Not an index creation: " + sql);
+        }
+        return matcher;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import org.flywaydb.core.api.resolver.ResolvedMigration;
+
+/**
+ * A migration of a {@link MigrationPlan} together with the release it
+ * belongs to.
+ */
+public class PlannedMigration {
+    /**
+     * The release the migration belongs to.
+     */
+    private final String release;
+
+    /**
+     * The migration.
+     */
+    private final ResolvedMigration migration;
+
+    /**
+     * Creates a new instance of {@link PlannedMigration}.
+     * @param releaseToUse
+     *            the release the migration belongs to
+     * @param migrationToUse
+     *            the migration
+     */
+    public PlannedMigration(final String releaseToUse,
+            final ResolvedMigration migrationToUse) {
+        this.release = releaseToUse;
+        this.migration = migrationToUse;
+    }
+
+    /**
+     * Gets the release the migration belongs to.
+     * @return the release
+     */
+    public final String getRelease() {
+        return release;
+    }
+
+    /**
+     * Gets the migration.
+     * @return the migration
+     */
+    public final ResolvedMigration getMigration() {
+        return migration;
+    }
+
+    @Override
+    public final String toString() {
+        return String.format("%s %s - %s (%s)", release,
+                migration.getVersion(), migration.getDescription(),
+                migration.getScript());
+    }
+}
@@ -0,0 +1,60 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.postgresql.PGConnection;
+
+/**
+ * Streams a CSV file into PostgreSQL with <code>COPY ... FROM STDIN</code>.
+ * Kept apart from {@link CsvBulkLoader}, as the PostgreSQL jdbc driver is
+ * only present if PostgreSQL is used.
+ */
+final class PostgreSQLCsvCopy {
+    /**
+     * Utility class.
+     */
+    private PostgreSQLCsvCopy() {
+    }
+
+    /**
+     * Copies the CSV file into the table.
+     * @param connection
+     *            the jdbc connection to PostgreSQL
+     * @param table
+     *            the table to copy the CSV file into
+     * @param columns
+     *            the columns of the CSV file
+     * @param reader
+     *            the reader of the CSV file after its header line
+     * @return the number of copied rows
+     * @throws SQLException
+     *             if copying fails
+     * @throws IOException
+     *             if the CSV file cannot be read
+     */
+    static long copyIn(final Connection connection, final String table,
+            final String columns, final Reader reader) throws SQLException,
+            IOException {
+        return connection.unwrap(PGConnection.class).getCopyAPI().copyIn(
+                "copy " + table + " (" + columns
+                        + ") from stdin with (format csv)", reader);
+    }
+}
@@ -0,0 +1,443 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.resolver.ResolvedMigration;
+
+/**
+ * The ordered chain of releases (e.g. main, v11, v12) found below the base
+ * locations of a flyway instance.
+ */
+public class ReleaseChain {
+    /**
+     * The base locations the release folders are located in.
+     */
+    private final List<String> baseLocations;
+
+    /**
+     * The releases in migration order.
+     */
+    private final List<String> releases;
+
+    /**
+     * The catalog of the migrations of all releases.
+     */
+    private final MigrationCatalog catalog;
+
+    /**
+     * The fingerprint of the chain, computed on first access.
+     */
+    private String fingerprint;
+
+    /**
+     * The cache of the checksums used for the fingerprint, if any.
+     */
+    private ChecksumCache checksumCache;
+
+    /**
+     * Creates a new instance of {@link ReleaseChain}.
+     * @param baseLocationsToUse
+     *            the base locations the release folders are located in
+     * @param releasesToUse
+     *            the releases in migration order
+     * @param catalogToUse
+     *            the catalog of the migrations of all releases
+     */
+    public ReleaseChain(final List<String> baseLocationsToUse,
+            final List<String> releasesToUse,
+            final MigrationCatalog catalogToUse) {
+        this.baseLocations = Collections.unmodifiableList(
+                new ArrayList<String>(baseLocationsToUse));
+        this.releases = Collections.unmodifiableList(
+                new ArrayList<String>(releasesToUse));
+        this.catalog = catalogToUse;
+    }
+
+    /**
+     * Gets the catalog of the migrations of all releases.
+     * @return the catalog
+     */
+    public final MigrationCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Gets the releases in migration order.
+     * @return the releases
+     */
+    public final List<String> getReleases() {
+        return releases;
+    }
+
+    /**
+     * Gets the position of given release within the chain.
+     * @param release
+     *            the release (case insensitive)
+     * @return the position or -1 if the release is not part of the chain
+     */
+    public final int indexOf(final String release) {
+        for (int i = 0; i < releases.size(); i++) {
+            if (releases.get(i).equalsIgnoreCase(release)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the release containing the migration with given version.
+     * @param version
+     *            the version of the migration
+     * @return the release or <code>null</code> if no release contains the
+     *         version
+     */
+    public final String getRelease(final MigrationVersion version) {
+        for (String release : releases) {
+            if (catalog.getMigrations(release).containsKey(version)) {
+                return release;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the given release and all releases following it. If the release
+     * is not part of the chain only the release itself is returned.
+     * @param release
+     *            the release to start with
+     * @return the releases to migrate starting with given release
+     */
+    public final List<String> getReleasesFrom(final String release) {
+        int index = indexOf(release);
+        if (index < 0) {
+            return Collections.singletonList(release);
+        }
+        return releases.subList(index, releases.size());
+    }
+
+    /**
+     * Gets the locations of given release and all releases following it,
+     * i.e. the single ordered migration plan starting at given release.
+     * @param release
+     *            the release to start with
+     * @return the locations in migration order
+     */
+    public final String[] getLocationsFrom(final String release) {
+        List<String> locations = new ArrayList<String>();
+        for (String planned : getReleasesFrom(release)) {
+            for (String baseLocation : baseLocations) {
+                locations.add(baseLocation + "/" + planned);
+            }
+        }
+        return locations.toArray(new String[locations.size()]);
+    }
+
+    /**
+     * Computes the plan of the upgrade path starting at given release and
+     * version up to the target release. Only the catalog is used, no
+     * database is accessed. Migrations whose script is identical to a
+     * migration of an earlier release on the path are planned as
+     * {@link DuplicateMigration}s, which are recorded but not executed.
+     * @param fromRelease
+     *            the current release
+     * @param fromVersion
+     *            the latest applied version, {@link MigrationVersion#EMPTY}
+     *            if no migration has been applied yet
+     * @param toRelease
+     *            the target release or <code>null</code> for the head release
+     * @return the migration plan
+     */
+    public final MigrationPlan getPlan(final String fromRelease,
+            final MigrationVersion fromVersion, final String toRelease) {
+        if (toRelease != null && indexOf(toRelease) < indexOf(fromRelease)) {
+            throw new FlywayException(String.format(
+                    "Release %s is not following release %s in chain %s",
+                    toRelease, fromRelease, this));
+        }
+
+        List<PlannedMigration> migrations = new ArrayList<PlannedMigration>();
+        for (String release : getReleasesFrom(fromRelease)) {
+            for (ResolvedMigration migration : catalog.getMigrations(release)
+                    .values()) {
+                if (migration.getVersion().compareTo(fromVersion) > 0) {
+                    migrations.add(new PlannedMigration(release, migration));
+                }
+            }
+            if (release.equalsIgnoreCase(toRelease)) {
+                break;
+            }
+        }
+        return new MigrationPlan(fromRelease,
+                deduplicate(fromRelease, fromVersion, migrations));
+    }
+
+    /**
+     * Replaces the planned migrations whose script is identical to the
+     * script of an earlier migration on the upgrade path, either already
+     * passed or planned before, by {@link DuplicateMigration}s. Only scripts
+     * sharing their size with a planned script are read for their content
+     * hash.
+     * @param fromRelease
+     *            the current release
+     * @param fromVersion
+     *            the latest applied version
+     * @param migrations
+     *            the planned migrations in execution order
+     * @return the deduplicated migrations in execution order
+     */
+    private List<PlannedMigration> deduplicate(final String fromRelease,
+            final MigrationVersion fromVersion,
+            final List<PlannedMigration> migrations) {
+        if (migrations.isEmpty()) {
+            return migrations;
+        }
+
+        List<PlannedMigration> passed = new ArrayList<PlannedMigration>();
+        int fromIndex = indexOf(fromRelease);
+        for (int i = 0; i <= fromIndex; i++) {
+            for (ResolvedMigration migration : catalog.getMigrations(
+                    releases.get(i)).values()) {
+                if (i < fromIndex
+                        || migration.getVersion().compareTo(fromVersion) <= 0) {
+                    passed.add(new PlannedMigration(releases.get(i),
+                            migration));
+                }
+            }
+        }
+
+        Set<Long> sizes = getCandidateSizes(passed, migrations);
+        Map<String, PlannedMigration> originals =
+                new HashMap<String, PlannedMigration>();
+        for (PlannedMigration migration : passed) {
+            addOriginal(originals, migration, sizes);
+        }
+
+        List<PlannedMigration> deduplicated =
+                new ArrayList<PlannedMigration>();
+        for (PlannedMigration planned : migrations) {
+            PlannedMigration original = addOriginal(originals, planned,
+                    sizes);
+            if (original == null) {
+                deduplicated.add(planned);
+            } else {
+                deduplicated.add(new PlannedMigration(planned.getRelease(),
+                        new DuplicateMigration(planned.getMigration(),
+                                original)));
+            }
+        }
+        return deduplicated;
+    }
+
+    /**
+     * Gets the sizes of the scripts that may be identical to a planned
+     * script, i.e. sizes shared by a planned script and another script.
+     * @param passed
+     *            the migrations already passed on the upgrade path
+     * @param planned
+     *            the planned migrations
+     * @return the sizes or <code>null</code> if the size of a script is
+     *         unknown and all scripts have to be compared
+     */
+    private static Set<Long> getCandidateSizes(
+            final List<PlannedMigration> passed,
+            final List<PlannedMigration> planned) {
+        Set<Long> plannedSizes = new HashSet<Long>();
+        Set<Long> sizes = new HashSet<Long>();
+        for (PlannedMigration migration : planned) {
+            if (migration.getMigration() instanceof CatalogMigration) {
+                long size = ((CatalogMigration) migration.getMigration())
+                        .getSize();
+                if (size < 0) {
+                    return null;
+                }
+                if (!plannedSizes.add(size)) {
+                    sizes.add(size);
+                }
+            }
+        }
+        for (PlannedMigration migration : passed) {
+            if (migration.getMigration() instanceof CatalogMigration) {
+                long size = ((CatalogMigration) migration.getMigration())
+                        .getSize();
+                if (size < 0) {
+                    return null;
+                }
+                if (plannedSizes.contains(size)) {
+                    sizes.add(size);
+                }
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Registers a migration by the content hash of its script, unless a
+     * migration with an identical script has been registered before. Scripts
+     * whose size is not a candidate size are not hashed, as no other script
+     * can be identical.
+     * @param originals
+     *            the registered migrations by content hash
+     * @param planned
+     *            the migration
+     * @param sizes
+     *            the candidate sizes or <code>null</code> to hash every
+     *            script
+     * @return the migration registered before with an identical script or
+     *         <code>null</code> if there is none
+     */
+    private static PlannedMigration addOriginal(
+            final Map<String, PlannedMigration> originals,
+            final PlannedMigration planned, final Set<Long> sizes) {
+        if (!(planned.getMigration() instanceof CatalogMigration)) {
+            return null;
+        }
+        CatalogMigration migration = (CatalogMigration) planned.getMigration();
+        if (sizes != null && !sizes.contains(migration.getSize())) {
+            return null;
+        }
+        String hash = migration.getContentHash();
+        PlannedMigration original = originals.get(hash);
+        if (original == null) {
+            originals.put(hash, planned);
+        }
+        return original;
+    }
+
+    /**
+     * Gets the newest squashed baseline script of the chain, i.e. the one
+     * with the highest version.
+     * @return the baseline script together with its release or
+     *         <code>null</code> if the chain has no baseline scripts
+     */
+    public final PlannedMigration getLatestBaseline() {
+        for (int i = releases.size() - 1; i >= 0; i--) {
+            SortedMap<MigrationVersion, ResolvedMigration> baselines =
+                    catalog.getBaselines(releases.get(i));
+            if (!baselines.isEmpty()) {
+                return new PlannedMigration(releases.get(i),
+                        baselines.get(baselines.lastKey()));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the migrations superseded by given squashed baseline script, i.e.
+     * all migrations of the chain up to the version of the baseline.
+     * @param baseline
+     *            the baseline script
+     * @return the superseded migrations in migration order
+     */
+    public final List<PlannedMigration> getSupersededMigrations(
+            final PlannedMigration baseline) {
+        MigrationVersion version = baseline.getMigration().getVersion();
+        List<PlannedMigration> superseded = new ArrayList<PlannedMigration>();
+        for (PlannedMigration migration : getPlan(releases.get(0),
+                MigrationVersion.EMPTY, baseline.getRelease())
+                .getMigrations()) {
+            if (migration.getMigration().getVersion().compareTo(version) <= 0) {
+                superseded.add(migration);
+            }
+        }
+        return superseded;
+    }
+
+    /**
+     * Gets the head release, i.e. the last release of the chain.
+     * @return the head release or <code>null</code> if the chain is empty
+     */
+    public final String getHeadRelease() {
+        if (releases.isEmpty()) {
+            return null;
+        }
+        return releases.get(releases.size() - 1);
+    }
+
+    /**
+     * Gets the fingerprint of the chain, a SHA-256 hash over the releases in
+     * migration order and the version, script and checksum of all their
+     * migrations, so a changed script changes the fingerprint as well. The
+     * scripts are read once to calculate their checksums, unless a
+     * {@link ChecksumCache} is set. Then only scripts modified since they
+     * were cached are read and the cache is saved afterwards.
+     * @return the fingerprint as hex string
+     */
+    public final synchronized String getFingerprint() {
+        if (fingerprint == null) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new FlywayException(
+                        "Unable to compute fingerprint of release chain", e);
+            }
+            Charset charset = Charset.forName("UTF-8");
+            for (String release : releases) {
+                String header = "release:" + release + "\n";
+                digest.update(header.getBytes(charset));
+                for (ResolvedMigration migration : catalog.getMigrations(
+                        release).values()) {
+                    Integer checksum = checksumCache == null
+                            ? migration.getChecksum()
+                            : checksumCache.getChecksum(migration);
+                    String line = migration.getVersion() + ":"
+                            + migration.getScript() + ":" + checksum + "\n";
+                    digest.update(line.getBytes(charset));
+                }
+            }
+            StringBuilder builder = new StringBuilder();
+            for (byte value : digest.digest()) {
+                builder.append(String.format("%02x", value));
+            }
+            fingerprint = builder.toString();
+            if (checksumCache != null) {
+                checksumCache.save();
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Sets the cache of the checksums used for the fingerprint, so a start
+     * against an up-to-date database does not read all scripts again.
+     * @param checksumCacheToUse
+     *            the checksum cache
+     */
+    public final synchronized void setChecksumCache(
+            final ChecksumCache checksumCacheToUse) {
+        this.checksumCache = checksumCacheToUse;
+        this.fingerprint = null;
+    }
+
+    @Override
+    public final String toString() {
+        return releases.toString();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import org.flywaydb.core.internal.dbsupport.FlywaySqlScriptException;
+import org.flywaydb.core.internal.dbsupport.SqlStatement;
+import org.flywaydb.core.internal.util.scanner.Resource;
+
+/**
+ * Failure of a jdbc batch of a sql script. The failing statement is the one
+ * reported by the driver, or the first statement of the batch if the driver
+ * does not report it.
+ */
+public class SqlBatchException extends FlywaySqlScriptException {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of the batch within the script.
+     */
+    private final int batchNumber;
+
+    /**
+     * The line of the first statement of the batch.
+     */
+    private final int firstLine;
+
+    /**
+     * The line of the last statement of the batch.
+     */
+    private final int lastLine;
+
+    /**
+     * Whether the failing statement has been reported by the driver.
+     */
+    private final boolean statementKnown;
+
+    /**
+     * Creates a new instance of {@link SqlBatchException}.
+     * @param resource
+     *            the resource of the script
+     * @param batchNumberToUse
+     *            the number of the batch within the script
+     * @param batch
+     *            the statements of the batch
+     * @param failedIndex
+     *            the index of the failing statement or -1 if unknown
+     * @param cause
+     *            the sql exception
+     */
+    public SqlBatchException(final Resource resource,
+            final int batchNumberToUse, final List<SqlStatement> batch,
+            final int failedIndex, final SQLException cause) {
+        super(resource, batch.get(Math.max(0, failedIndex)), cause);
+        this.batchNumber = batchNumberToUse;
+        this.firstLine = batch.get(0).getLineNumber();
+        this.lastLine = batch.get(batch.size() - 1).getLineNumber();
+        this.statementKnown = failedIndex >= 0;
+    }
+
+    /**
+     * Gets the number of the batch within the script.
+     * @return the batch number
+     */
+    public final int getBatchNumber() {
+        return batchNumber;
+    }
+
+    /**
+     * Gets the line of the first statement of the batch.
+     * @return the first line
+     */
+    public final int getFirstLine() {
+        return firstLine;
+    }
+
+    /**
+     * Gets the line of the last statement of the batch.
+     * @return the last line
+     */
+    public final int getLastLine() {
+        return lastLine;
+    }
+
+    @Override
+    public final String getMessage() {
+        return String.format("Batch %s (lines %s-%s) failed%s%n%s",
+                batchNumber, firstLine, lastLine, statementKnown ? ""
+                        : ", failing statement not reported by the driver",
+                super.getMessage());
+    }
+}
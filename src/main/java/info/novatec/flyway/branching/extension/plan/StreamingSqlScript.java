@@ -0,0 +1,217 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.Delimiter;
+import org.flywaydb.core.internal.dbsupport.SqlStatement;
+import org.flywaydb.core.internal.dbsupport.SqlStatementBuilder;
+import org.flywaydb.core.internal.util.PlaceholderReplacer;
+import org.flywaydb.core.internal.util.StringUtils;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+
+/**
+ * Sql script parsed incrementally from an {@link InputStream}. In contrast
+ * to flyway's {@link org.flywaydb.core.internal.dbsupport.SqlScript} neither
+ * the script nor its statements are held in memory, only the statement
+ * currently parsed. The parsing rules (comments, delimiter changes,
+ * database-specific statement termination) are the ones of flyway.
+ * Placeholders are replaced line by line, so a placeholder must not span
+ * several lines. The statements can be iterated only once, the caller is
+ * responsible for closing the stream.
+ */
+public class StreamingSqlScript implements Iterable<SqlStatement> {
+    /**
+     * Logger.
+     */
+    private static final Log LOG = LogFactory.getLog(StreamingSqlScript.class);
+
+    /**
+     * Byte order mark.
+     */
+    private static final char BOM = '\uFEFF';
+
+    /**
+     * Database-specific functionality.
+     */
+    private final DbSupport dbSupport;
+
+    /**
+     * The reader of the script.
+     */
+    private final BufferedReader reader;
+
+    /**
+     * The placeholder replacer to apply to every line.
+     */
+    private final PlaceholderReplacer placeholderReplacer;
+
+    /**
+     * The number of the line read last.
+     */
+    private int lineNumber;
+
+    /**
+     * The delimiter set by the script, if any.
+     */
+    private Delimiter nonStandardDelimiter;
+
+    /**
+     * Whether the reader is within a multi-line comment.
+     */
+    private boolean inMultilineComment;
+
+    /**
+     * Creates a new instance of {@link StreamingSqlScript}.
+     * @param dbSupportToUse
+     *            database-specific functionality
+     * @param inputStream
+     *            the stream of the script
+     * @param encoding
+     *            the encoding of the script
+     * @param placeholderReplacerToUse
+     *            the placeholder replacer to apply to every line
+     */
+    public StreamingSqlScript(final DbSupport dbSupportToUse,
+            final InputStream inputStream, final String encoding,
+            final PlaceholderReplacer placeholderReplacerToUse) {
+        this.dbSupport = dbSupportToUse;
+        this.reader = new BufferedReader(new InputStreamReader(inputStream,
+                Charset.forName(encoding)));
+        this.placeholderReplacer = placeholderReplacerToUse;
+    }
+
+    @Override
+    public final Iterator<SqlStatement> iterator() {
+        return new Iterator<SqlStatement>() {
+            private SqlStatement next = nextStatement();
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public SqlStatement next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                SqlStatement current = next;
+                next = nextStatement();
+                return current;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Reads the next statement from the stream.
+     * @return the statement or <code>null</code> at the end of the script
+     */
+    public final SqlStatement nextStatement() {
+        SqlStatementBuilder builder = dbSupport.createSqlStatementBuilder();
+        String line;
+        while ((line = readLine()) != null) {
+            if (builder.isEmpty()) {
+                if (!StringUtils.hasText(line)) {
+                    continue;
+                }
+
+                String trimmedLine = line.trim();
+                if (!builder.isCommentDirective(trimmedLine)) {
+                    if (trimmedLine.startsWith("/*")) {
+                        inMultilineComment = true;
+                    }
+                    if (inMultilineComment) {
+                        if (trimmedLine.endsWith("*/")) {
+                            inMultilineComment = false;
+                        }
+                        continue;
+                    }
+                    if (builder.isSingleLineComment(trimmedLine)) {
+                        continue;
+                    }
+                }
+
+                Delimiter newDelimiter = builder.extractNewDelimiterFromLine(
+                        line);
+                if (newDelimiter != null) {
+                    nonStandardDelimiter = newDelimiter;
+                    continue;
+                }
+
+                builder.setLineNumber(lineNumber);
+                if (nonStandardDelimiter != null) {
+                    builder.setDelimiter(nonStandardDelimiter);
+                }
+            }
+
+            builder.addLine(line);
+            if (builder.isTerminated()) {
+                return found(builder.getSqlStatement());
+            }
+        }
+
+        if (!builder.isEmpty()) {
+            return found(builder.getSqlStatement());
+        }
+        return null;
+    }
+
+    /**
+     * Logs a statement found in the script.
+     * @param sqlStatement the statement
+     * @return the statement
+     */
+    private SqlStatement found(final SqlStatement sqlStatement) {
+        LOG.debug("Found statement at line " + sqlStatement.getLineNumber()
+                + ": " + sqlStatement.getSql());
+        return sqlStatement;
+    }
+
+    /**
+     * Reads the next line and replaces its placeholders.
+     * @return the line or <code>null</code> at the end of the script
+     */
+    private String readLine() {
+        String line;
+        try {
+            line = reader.readLine();
+        } catch (IOException e) {
+            throw new FlywayException("Unable to read sql script at line "
+                    + (lineNumber + 1), e);
+        }
+        if (line == null) {
+            return null;
+        }
+        lineNumber++;
+        if (lineNumber == 1 && !line.isEmpty() && line.charAt(0) == BOM) {
+            line = line.substring(1);
+        }
+        return placeholderReplacer.replacePlaceholders(line);
+    }
+}
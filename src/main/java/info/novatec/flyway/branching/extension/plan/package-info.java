@@ -0,0 +1,4 @@
+/**
+ * Planning of branching migrations across the chain of release locations.
+ */
+package info.novatec.flyway.branching.extension.plan;
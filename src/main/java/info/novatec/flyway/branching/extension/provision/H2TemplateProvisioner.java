@@ -0,0 +1,129 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.provision;
+
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.internal.dbsupport.JdbcTemplate;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
+
+/**
+ * Provisions H2 databases from a <code>SCRIPT</code> snapshot of the
+ * template, which is replayed with <code>RUNSCRIPT</code> into every new
+ * database. The snapshot is kept in a temporary file.
+ */
+public class H2TemplateProvisioner extends TemplateProvisioner {
+    /**
+     * The jdbc url of a provisioned database with <code>%s</code> for its
+     * name, e.g. <code>jdbc:h2:mem:%s;DB_CLOSE_DELAY=-1</code>.
+     */
+    private final String urlPattern;
+
+    /**
+     * The user of the provisioned databases.
+     */
+    private final String user;
+
+    /**
+     * The password of the provisioned databases.
+     */
+    private final String password;
+
+    /**
+     * The snapshot of the template.
+     */
+    private File script;
+
+    /**
+     * Creates a new instance of {@link H2TemplateProvisioner}.
+     * @param templateFlyway
+     *            the {@link Flyway} instance of the template database
+     * @param releaseChain
+     *            the release chain below the locations of the flyway instance
+     * @param urlPatternToUse
+     *            the jdbc url of a provisioned database with <code>%s</code>
+     *            for its name
+     * @param userToUse
+     *            the user of the provisioned databases
+     * @param passwordToUse
+     *            the password of the provisioned databases
+     */
+    public H2TemplateProvisioner(final Flyway templateFlyway,
+            final ReleaseChain releaseChain, final String urlPatternToUse,
+            final String userToUse, final String passwordToUse) {
+        super(templateFlyway, releaseChain);
+        this.urlPattern = urlPatternToUse;
+        this.user = userToUse;
+        this.password = passwordToUse;
+    }
+
+    @Override
+    protected final synchronized void snapshot(
+            final Connection templateConnection) throws SQLException {
+        try {
+            if (script == null) {
+                script = File.createTempFile("flyway-branching-template",
+                        ".sql");
+                script.deleteOnExit();
+            }
+        } catch (IOException e) {
+            throw new FlywayException("Unable to create template script", e);
+        }
+        new JdbcTemplate(templateConnection, 0).executeStatement(
+                "script to " + quote(script.getAbsolutePath()));
+    }
+
+    @Override
+    protected final void copyTemplate(final String database)
+            throws SQLException {
+        File snapshot;
+        synchronized (this) {
+            snapshot = script;
+        }
+        Connection connection = connect(database);
+        try {
+            new JdbcTemplate(connection, 0).executeStatement(
+                    "runscript from " + quote(snapshot.getAbsolutePath()));
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    @Override
+    protected final Connection connect(final String database)
+            throws SQLException {
+        return DriverManager.getConnection(String.format(urlPattern,
+                database), user, password);
+    }
+
+    /**
+     * Quotes a file name as H2 string literal.
+     * @param fileName
+     *            the file name
+     * @return the literal
+     */
+    private static String quote(final String fileName) {
+        return "'" + fileName.replace("'", "''") + "'";
+    }
+}
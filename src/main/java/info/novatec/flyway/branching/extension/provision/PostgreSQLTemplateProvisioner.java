@@ -0,0 +1,165 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.provision;
+
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.internal.dbsupport.JdbcTemplate;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
+
+/**
+ * Provisions PostgreSQL databases with
+ * <code>CREATE DATABASE ... TEMPLATE</code>, i.e. as file level copies of
+ * the template database. PostgreSQL requires that nobody is connected to
+ * the template while it is copied. Remaining sessions of the template
+ * database, e.g. idle pool connections, fail the provisioning unless their
+ * termination has been enabled with
+ * {@link #setTerminateTemplateSessions(boolean)}.
+ */
+public class PostgreSQLTemplateProvisioner extends TemplateProvisioner {
+    /**
+     * The jdbc url of a database with <code>%s</code> for its name, e.g.
+     * <code>jdbc:postgresql://localhost/%s</code>.
+     */
+    private final String urlPattern;
+
+    /**
+     * The user creating and accessing the provisioned databases.
+     */
+    private final String user;
+
+    /**
+     * The password of the user.
+     */
+    private final String password;
+
+    /**
+     * The database connected to for creating new databases.
+     */
+    private final String maintenanceDatabase;
+
+    /**
+     * The name of the template database.
+     */
+    private String templateDatabase;
+
+    /**
+     * Whether remaining sessions of the template database are terminated.
+     */
+    private volatile boolean terminateTemplateSessions;
+
+    /**
+     * Creates a new instance of {@link PostgreSQLTemplateProvisioner}.
+     * @param templateFlyway
+     *            the {@link Flyway} instance of the template database
+     * @param releaseChain
+     *            the release chain below the locations of the flyway instance
+     * @param urlPatternToUse
+     *            the jdbc url of a database with <code>%s</code> for its name
+     * @param userToUse
+     *            the user creating and accessing the provisioned databases,
+     *            which needs the <code>CREATEDB</code> privilege
+     * @param passwordToUse
+     *            the password of the user
+     * @param maintenanceDatabaseToUse
+     *            the database connected to for creating new databases, e.g.
+     *            <code>postgres</code>
+     */
+    public PostgreSQLTemplateProvisioner(final Flyway templateFlyway,
+            final ReleaseChain releaseChain, final String urlPatternToUse,
+            final String userToUse, final String passwordToUse,
+            final String maintenanceDatabaseToUse) {
+        super(templateFlyway, releaseChain);
+        this.urlPattern = urlPatternToUse;
+        this.user = userToUse;
+        this.password = passwordToUse;
+        this.maintenanceDatabase = maintenanceDatabaseToUse;
+    }
+
+    /**
+     * Sets whether remaining sessions of the template database are
+     * terminated before it is copied, which requires the privilege to
+     * signal these backends. Disabled by default.
+     * @param terminate
+     *            whether the sessions are terminated
+     */
+    public final void setTerminateTemplateSessions(final boolean terminate) {
+        this.terminateTemplateSessions = terminate;
+    }
+
+    @Override
+    protected final synchronized void snapshot(
+            final Connection templateConnection) throws SQLException {
+        templateDatabase = new JdbcTemplate(templateConnection, 0)
+                .queryForString("select current_database()");
+    }
+
+    @Override
+    protected final void copyTemplate(final String database)
+            throws SQLException {
+        String template;
+        synchronized (this) {
+            template = templateDatabase;
+        }
+        Connection connection = connect(maintenanceDatabase);
+        try {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(connection, 0);
+            if (terminateTemplateSessions) {
+                jdbcTemplate.queryForStringList("select "
+                        + "cast(pg_terminate_backend(pid) as varchar) "
+                        + "from pg_stat_activity where datname = ? "
+                        + "and pid <> pg_backend_pid()", template);
+            } else {
+                int sessions = jdbcTemplate.queryForInt("select count(*) "
+                        + "from pg_stat_activity where datname = ? "
+                        + "and pid <> pg_backend_pid()", template);
+                if (sessions > 0) {
+                    throw new FlywayException(String.format(
+                            "Template database %s has %s open session(s). "
+                                    + "Close them or enable their "
+                                    + "termination", template, sessions));
+                }
+            }
+            jdbcTemplate.executeStatement("create database " + quote(database)
+                    + " template " + quote(template));
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    @Override
+    protected final Connection connect(final String database)
+            throws SQLException {
+        return DriverManager.getConnection(String.format(urlPattern,
+                database), user, password);
+    }
+
+    /**
+     * Quotes a database name as PostgreSQL identifier.
+     * @param name
+     *            the database name
+     * @return the quoted identifier
+     */
+    private static String quote(final String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,275 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.provision;
+
+import info.novatec.flyway.branching.extension.BranchingCallback;
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+import info.novatec.flyway.branching.extension.release.ReleaseTableImpl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.callback.FlywayCallback;
+import org.flywaydb.core.api.resolver.MigrationResolver;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.flywaydb.core.internal.dbsupport.Schema;
+import org.flywaydb.core.internal.metadatatable.MetaDataTableImpl;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
+import org.flywaydb.core.internal.util.jdbc.TransactionCallback;
+import org.flywaydb.core.internal.util.jdbc.TransactionTemplate;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+
+/**
+ * Creates new databases as copies of a template database, which is migrated
+ * through the release chain only once. The copy contains the release table
+ * and the flyway metadata table of the template, so a provisioned database
+ * continues with regular branching migrations from the template release.
+ * Every copy is verified to be at the release and version of the template.
+ */
+public abstract class TemplateProvisioner {
+    /**
+     * Logger.
+     */
+    private static final Log LOG =
+            LogFactory.getLog(TemplateProvisioner.class);
+
+    /**
+     * The {@link Flyway} instance of the template database.
+     */
+    private final Flyway flyway;
+
+    /**
+     * The chain of releases below the configured base locations.
+     */
+    private final ReleaseChain releaseChain;
+
+    /**
+     * The state of the template, <code>null</code> if it has not been built
+     * yet.
+     */
+    private DatabaseState template;
+
+    /**
+     * Creates a new instance of {@link TemplateProvisioner}.
+     * @param templateFlyway
+     *            the {@link Flyway} instance of the template database
+     * @param releaseChainToUse
+     *            the release chain below the locations of the flyway instance
+     */
+    protected TemplateProvisioner(final Flyway templateFlyway,
+            final ReleaseChain releaseChainToUse) {
+        this.flyway = templateFlyway;
+        this.releaseChain = releaseChainToUse;
+    }
+
+    /**
+     * Migrates the template database up to the given release and takes the
+     * snapshot new databases are created from. The target, callbacks,
+     * resolvers and locations of the flyway instance are changed for the
+     * migration only and restored afterwards.
+     * @param release
+     *            the release of the template or <code>null</code> for the
+     *            head release
+     */
+    public final synchronized void buildTemplate(final String release) {
+        String target = release == null ? releaseChain.getHeadRelease()
+                : release;
+        if (releaseChain.indexOf(target) < 0) {
+            throw new FlywayException(String.format(
+                    "Release %s is not part of release chain %s", target,
+                    releaseChain));
+        }
+        long start = System.currentTimeMillis();
+        MigrationVersion originalTarget = flyway.getTarget();
+        FlywayCallback[] originalCallbacks = flyway.getCallbacks();
+        MigrationResolver[] originalResolvers = flyway.getResolvers();
+        String[] originalLocations = flyway.getLocations();
+        try {
+            if (!target.equalsIgnoreCase(releaseChain.getHeadRelease())) {
+                flyway.setTarget(releaseChain.getCatalog()
+                        .getMigrations(target).lastKey());
+            }
+            flyway.setCallbacks(new BranchingCallback(flyway, releaseChain,
+                    true));
+            flyway.migrate();
+        } finally {
+            flyway.setTarget(originalTarget);
+            flyway.setCallbacks(originalCallbacks);
+            flyway.setResolvers(originalResolvers);
+            flyway.setLocations(originalLocations);
+        }
+
+        Connection connection = null;
+        try {
+            connection = flyway.getDataSource().getConnection();
+            DatabaseState state = readState(connection);
+            if (!target.equalsIgnoreCase(state.release)) {
+                throw new FlywayException(String.format(
+                        "Template is at release %s instead of %s",
+                        state.release, target));
+            }
+            snapshot(connection);
+            template = state;
+        } catch (SQLException e) {
+            throw new FlywayException("Error while taking the template "
+                    + "snapshot. Reason: "
+                    + ExceptionUtils.getRootCauseMessage(e), e);
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+        LOG.info(String.format("Built template at release %s in %s ms",
+                template.release, System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Gets the release of the template.
+     * @return the release or <code>null</code> if the template has not been
+     *         built yet
+     */
+    public final synchronized String getTemplateRelease() {
+        return template == null ? null : template.release;
+    }
+
+    /**
+     * Creates a new database from the template.
+     * @param database
+     *            the name of the new database
+     */
+    public final void provision(final String database) {
+        DatabaseState expected;
+        synchronized (this) {
+            if (template == null) {
+                throw new FlywayException("The template has not been built");
+            }
+            expected = template;
+        }
+
+        long start = System.currentTimeMillis();
+        Connection connection = null;
+        try {
+            copyTemplate(database);
+            connection = connect(database);
+            DatabaseState state = readState(connection);
+            if (!expected.release.equalsIgnoreCase(state.release)
+                    || expected.migrations != state.migrations) {
+                throw new FlywayException(String.format(
+                        "Database %s is at release %s with %s migration(s) "
+                                + "instead of release %s with %s",
+                        database, state.release, state.migrations,
+                        expected.release, expected.migrations));
+            }
+        } catch (SQLException e) {
+            throw new FlywayException("Error while provisioning database "
+                    + database + ". Reason: "
+                    + ExceptionUtils.getRootCauseMessage(e), e);
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+        LOG.info(String.format(
+                "Provisioned database %s at release %s in %s ms", database,
+                expected.release, System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Takes the snapshot of the migrated template database.
+     * @param templateConnection
+     *            a connection to the template database
+     * @throws SQLException
+     *             if the snapshot cannot be taken
+     */
+    protected abstract void snapshot(Connection templateConnection)
+            throws SQLException;
+
+    /**
+     * Creates a new database from the snapshot of the template.
+     * @param database
+     *            the name of the new database
+     * @throws SQLException
+     *             if the database cannot be created
+     */
+    protected abstract void copyTemplate(String database) throws SQLException;
+
+    /**
+     * Opens a connection to a provisioned database.
+     * @param database
+     *            the name of the database
+     * @return the connection
+     * @throws SQLException
+     *             if the connection cannot be opened
+     */
+    protected abstract Connection connect(String database)
+            throws SQLException;
+
+    /**
+     * Reads the current release and the number of recorded migrations.
+     * @param connection
+     *            the connection to the database
+     * @return the state of the database
+     */
+    private DatabaseState readState(final Connection connection) {
+        final DbSupport dbSupport = DbSupportFactory.createDbSupport(
+                connection, false);
+        String[] schemas = flyway.getSchemas();
+        final Schema schema = schemas.length == 0
+                ? dbSupport.getCurrentSchema()
+                : dbSupport.getSchema(schemas[0]);
+        return new TransactionTemplate(connection)
+                .execute(new TransactionCallback<DatabaseState>() {
+                    public DatabaseState doInTransaction() {
+                        String release = ReleaseTableImpl.forSchema(
+                                dbSupport, schema).getCurrentRelease();
+                        int migrations = new MetaDataTableImpl(dbSupport,
+                                schema.getTable(flyway.getTable()))
+                                .allAppliedMigrations().size();
+                        return new DatabaseState(release, migrations);
+                    }
+                });
+    }
+
+    /**
+     * The release and the number of recorded migrations of a database.
+     */
+    private static final class DatabaseState {
+        /**
+         * The current release.
+         */
+        private final String release;
+
+        /**
+         * The number of migrations recorded in the flyway metadata table.
+         */
+        private final int migrations;
+
+        /**
+         * Creates a new instance of {@link DatabaseState}.
+         * @param releaseToUse
+         *            the current release
+         * @param migrationsToUse
+         *            the number of recorded migrations
+         */
+        private DatabaseState(final String releaseToUse,
+                final int migrationsToUse) {
+            this.release = releaseToUse;
+            this.migrations = migrationsToUse;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.release;
+
+import java.util.concurrent.TimeUnit;
+
+import org.flywaydb.core.api.FlywayException;
+
+/**
+ * Read-through cache of the current release, e.g. for feature gating on
+ * every request. A cached release is returned without accessing the
+ * database until its time to live has expired or the cache has been
+ * invalidated, either explicitly or by switching the release. All other
+ * operations are delegated to the wrapped release table. Access to the
+ * wrapped release table is serialized, a cache hit is lock free.
+ */
+public class CachingReleaseTable implements ReleaseTable {
+    /**
+     * The release table to read through.
+     */
+    private final ReleaseTable delegate;
+
+    /**
+     * The time to live of a cached release in nanoseconds.
+     */
+    private final long timeToLive;
+
+    /**
+     * The notifier called on release switches, <code>null</code> if none.
+     */
+    private final ReleaseChangeNotifier notifier;
+
+    /**
+     * The cached release, <code>null</code> if nothing is cached.
+     */
+    private volatile CachedRelease cached;
+
+    /**
+     * The number of releases loaded from the wrapped release table.
+     */
+    private int loadCount;
+
+    /**
+     * Creates a new instance of {@link CachingReleaseTable}.
+     * @param delegateToUse
+     *            the release table to read through
+     * @param timeToLiveToUse
+     *            the time to live of a cached release
+     * @param unit
+     *            the unit of the time to live
+     */
+    public CachingReleaseTable(final ReleaseTable delegateToUse,
+            final long timeToLiveToUse, final TimeUnit unit) {
+        this(delegateToUse, timeToLiveToUse, unit, null);
+    }
+
+    /**
+     * Creates a new instance of {@link CachingReleaseTable} calling given
+     * notifier on release switches through the cache. A release table
+     * created with {@link ReleaseTableImpl#forSchema} publishes all its
+     * release switches on PostgreSQL already, so a notifier is only needed
+     * for wrapped release tables without one.
+     * @param delegateToUse
+     *            the release table to read through
+     * @param timeToLiveToUse
+     *            the time to live of a cached release
+     * @param unit
+     *            the unit of the time to live
+     * @param notifierToUse
+     *            the notifier called on release switches
+     */
+    public CachingReleaseTable(final ReleaseTable delegateToUse,
+            final long timeToLiveToUse, final TimeUnit unit,
+            final ReleaseChangeNotifier notifierToUse) {
+        if (timeToLiveToUse < 0) {
+            throw new FlywayException("Invalid time to live "
+                    + timeToLiveToUse);
+        }
+        this.delegate = delegateToUse;
+        this.timeToLive = unit.toNanos(timeToLiveToUse);
+        this.notifier = notifierToUse;
+    }
+
+    @Override
+    public final String getCurrentRelease() {
+        CachedRelease current = cached;
+        if (current != null && current.isValid()) {
+            return current.release;
+        }
+        return load();
+    }
+
+    /**
+     * Loads the current release from the wrapped release table and caches
+     * it.
+     * @return the current release
+     */
+    private synchronized String load() {
+        CachedRelease current = cached;
+        if (current != null && current.isValid()) {
+            return current.release;
+        }
+        String release = delegate.getCurrentRelease();
+        loadCount++;
+        cached = new CachedRelease(release, System.nanoTime() + timeToLive);
+        return release;
+    }
+
+    @Override
+    public final synchronized void setCurrentRelease(final String release) {
+        delegate.setCurrentRelease(release);
+        invalidateCache();
+        if (notifier != null) {
+            notifier.releaseChanged(release);
+        }
+    }
+
+    @Override
+    public final synchronized void lock() {
+        delegate.lock();
+    }
+
+    @Override
+    public final synchronized String getFingerprint() {
+        return delegate.getFingerprint();
+    }
+
+    @Override
+    public final synchronized void setFingerprint(final String fingerprint) {
+        delegate.setFingerprint(fingerprint);
+    }
+
+    @Override
+    public final synchronized String getReleaseState() {
+        return delegate.getReleaseState();
+    }
+
+    @Override
+    public final synchronized void setReleaseState(final String state) {
+        delegate.setReleaseState(state);
+    }
+
+    @Override
+    public final synchronized void invalidate() {
+        delegate.invalidate();
+        invalidateCache();
+    }
+
+    /**
+     * Discards the cached release, so the next lookup reads the wrapped
+     * release table again. Waits for a load in progress.
+     */
+    public final synchronized void invalidateCache() {
+        cached = null;
+    }
+
+    /**
+     * Gets the number of releases loaded from the wrapped release table.
+     * @return the number of loads
+     */
+    public final synchronized int getLoadCount() {
+        return loadCount;
+    }
+
+    @Override
+    public final String toString() {
+        return delegate.toString();
+    }
+
+    /**
+     * A cached release with its expiry.
+     */
+    private static final class CachedRelease {
+        /**
+         * The release.
+         */
+        private final String release;
+
+        /**
+         * The expiry as {@link System#nanoTime()}.
+         */
+        private final long expiresAt;
+
+        /**
+         * Creates a new instance of {@link CachedRelease}.
+         * @param releaseToUse
+         *            the release
+         * @param expiresAtToUse
+         *            the expiry as {@link System#nanoTime()}
+         */
+        private CachedRelease(final String releaseToUse,
+                final long expiresAtToUse) {
+            this.release = releaseToUse;
+            this.expiresAt = expiresAtToUse;
+        }
+
+        /**
+         * Whether the release has not expired yet.
+         * @return <code>true</code> if the release is still valid
+         */
+        private boolean isValid() {
+            return System.nanoTime() - expiresAt < 0;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.release;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Invalidates a {@link CachingReleaseTable} when a release switch is
+ * announced on a PostgreSQL notification channel (see
+ * {@link PostgreSQLReleaseChangeNotifier}). The listener owns a dedicated
+ * connection in auto-commit mode and polls it for notifications in a daemon
+ * thread. If polling fails the cache is invalidated as well, as
+ * notifications may have been missed.
+ */
+public class PostgreSQLReleaseChangeListener {
+    /**
+     * Logger.
+     */
+    private static final Log LOG =
+            LogFactory.getLog(PostgreSQLReleaseChangeListener.class);
+
+    /**
+     * The dedicated connection listening on the channel.
+     */
+    private final Connection connection;
+
+    /**
+     * The notification channel.
+     */
+    private final String channel;
+
+    /**
+     * The cache to invalidate.
+     */
+    private final CachingReleaseTable releaseTable;
+
+    /**
+     * The interval between two polls in ms.
+     */
+    private final long pollInterval;
+
+    /**
+     * The polling thread, <code>null</code> if not started.
+     */
+    private Thread thread;
+
+    /**
+     * Creates a new instance of {@link PostgreSQLReleaseChangeListener}.
+     * @param connectionToUse
+     *            the dedicated connection listening on the channel
+     * @param channelToUse
+     *            the notification channel
+     * @param releaseTableToUse
+     *            the cache to invalidate
+     * @param pollIntervalToUse
+     *            the interval between two polls in ms
+     */
+    public PostgreSQLReleaseChangeListener(final Connection connectionToUse,
+            final String channelToUse,
+            final CachingReleaseTable releaseTableToUse,
+            final long pollIntervalToUse) {
+        this.connection = connectionToUse;
+        this.channel = channelToUse;
+        this.releaseTable = releaseTableToUse;
+        this.pollInterval = pollIntervalToUse;
+    }
+
+    /**
+     * Starts listening on the channel.
+     */
+    public final synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        execute("listen \"" + channel + "\"");
+        releaseTable.invalidateCache();
+        thread = new Thread(new Runnable() {
+            public void run() {
+                poll();
+            }
+        }, "release-change-listener-" + channel);
+        thread.setDaemon(true);
+        thread.start();
+        LOG.debug(String.format("Listening for release changes on channel %s",
+                channel));
+    }
+
+    /**
+     * Stops listening on the channel. The connection is not closed.
+     */
+    public final synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        execute("unlisten \"" + channel + "\"");
+    }
+
+    /**
+     * Polls the connection for notifications until interrupted.
+     */
+    private void poll() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(pollInterval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                // notifications are only received with a round trip
+                execute("select 1");
+                PGNotification[] notifications = connection.unwrap(
+                        PGConnection.class).getNotifications();
+                if (notifications != null) {
+                    for (PGNotification notification : notifications) {
+                        if (channel.equals(notification.getName())) {
+                            LOG.debug(String.format(
+                                    "Release switched to %s",
+                                    notification.getParameter()));
+                            releaseTable.invalidateCache();
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                LOG.warn("Unable to poll release changes: " + e.getMessage());
+                releaseTable.invalidateCache();
+            } catch (FlywayException e) {
+                LOG.warn("Unable to poll release changes: " + e.getMessage());
+                releaseTable.invalidateCache();
+            }
+        }
+    }
+
+    /**
+     * Executes a statement on the listening connection.
+     * @param sql
+     *            the statement
+     */
+    private void execute(final String sql) {
+        Statement statement = null;
+        try {
+            statement = connection.createStatement();
+            statement.execute(sql);
+        } catch (SQLException e) {
+            throw new FlywayException("Error while executing " + sql
+                    + " for release change channel " + channel, e);
+        } finally {
+            JdbcUtils.closeStatement(statement);
+        }
+    }
+}
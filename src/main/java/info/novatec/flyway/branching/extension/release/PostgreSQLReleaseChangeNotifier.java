@@ -0,0 +1,69 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.release;
+
+import java.sql.SQLException;
+
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.internal.dbsupport.JdbcTemplate;
+
+/**
+ * Publishes release switches on a PostgreSQL notification channel with
+ * <code>pg_notify</code>. The notification is sent on the connection of the
+ * release table, so it is delivered when the release switch is committed
+ * and dropped if it is rolled back. See
+ * {@link PostgreSQLReleaseChangeListener} for the receiving side.
+ */
+public class PostgreSQLReleaseChangeNotifier implements ReleaseChangeNotifier {
+    /**
+     * The default notification channel.
+     */
+    public static final String DEFAULT_CHANNEL = "flyway_branching_release";
+
+    /**
+     * The jdbc template of the release table connection.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * The notification channel.
+     */
+    private final String channel;
+
+    /**
+     * Creates a new instance of {@link PostgreSQLReleaseChangeNotifier}.
+     * @param jdbcTemplateToUse
+     *            the jdbc template of the release table connection
+     * @param channelToUse
+     *            the notification channel
+     */
+    public PostgreSQLReleaseChangeNotifier(
+            final JdbcTemplate jdbcTemplateToUse, final String channelToUse) {
+        this.jdbcTemplate = jdbcTemplateToUse;
+        this.channel = channelToUse;
+    }
+
+    @Override
+    public final void releaseChanged(final String release) {
+        try {
+            jdbcTemplate.queryForString("select pg_notify(?, ?)", channel,
+                    release);
+        } catch (SQLException e) {
+            throw new FlywayException("Error while notifying channel "
+                    + channel + " about release " + release, e);
+        }
+    }
+}
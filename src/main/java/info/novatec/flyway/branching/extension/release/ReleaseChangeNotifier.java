@@ -0,0 +1,30 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.release;
+
+/**
+ * Notified when the current release has been switched, e.g. to invalidate
+ * the cached release of other application instances.
+ */
+public interface ReleaseChangeNotifier {
+    /**
+     * Called after the current release has been set within the transaction
+     * of the release switch.
+     * @param release
+     *            the new current release
+     */
+    void releaseChanged(String release);
+}
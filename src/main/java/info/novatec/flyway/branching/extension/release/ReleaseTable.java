@@ -26,16 +26,57 @@ public interface ReleaseTable {
     void lock();
 
     /**
-     * Gets the current release from release table.
+     * Gets the current release from release table, i.e. the release of the
+     * latest release switch.
      * @return the current release
      */
     String getCurrentRelease();
 
     /**
-     * Sets current release in release table.
+     * Sets current release in release table by appending it to the release
+     * history. The creation time of the new entry is always later than the
+     * one of the latest entry.
      * @param release
      *            the new release to set
      */
     void setCurrentRelease(String release);
 
+    /**
+     * Gets the fingerprint of the migrations stored with the latest release
+     * switch. The release table is not created if it is missing, so this is
+     * a single read.
+     * @return the fingerprint or <code>null</code> if none has been stored
+     *         since the latest release switch
+     */
+    String getFingerprint();
+
+    /**
+     * Stores the fingerprint of the migrations applied up to the current
+     * release with the latest release switch.
+     * @param fingerprint
+     *            the fingerprint to store
+     */
+    void setFingerprint(String fingerprint);
+
+    /**
+     * Gets the migration state stored with the latest release switch, e.g.
+     * of a release migrated in background.
+     * @return the state or <code>null</code> if none has been stored
+     */
+    String getReleaseState();
+
+    /**
+     * Stores the migration state of the current release with the latest
+     * release switch.
+     * @param state
+     *            the state to store
+     */
+    void setReleaseState(String state);
+
+    /**
+     * Invalidates the cached existence of the release table, e.g. after the
+     * schema has been cleaned.
+     */
+    void invalidate();
+
 }
@@ -15,24 +15,47 @@
 */
 package info.novatec.flyway.branching.extension.release;
 
+import info.novatec.flyway.branching.extension.plan.BatchingSqlScriptExecutor;
+import info.novatec.flyway.branching.extension.plan.StreamingSqlScript;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.flywaydb.core.api.FlywayException;
 import org.flywaydb.core.internal.dbsupport.DbSupport;
 import org.flywaydb.core.internal.dbsupport.JdbcTemplate;
-import org.flywaydb.core.internal.dbsupport.SqlScript;
+import org.flywaydb.core.internal.dbsupport.Schema;
 import org.flywaydb.core.internal.dbsupport.Table;
 import org.flywaydb.core.internal.util.PlaceholderReplacer;
+import org.flywaydb.core.internal.util.jdbc.JdbcUtils;
 import org.flywaydb.core.internal.util.logging.Log;
 import org.flywaydb.core.internal.util.logging.LogFactory;
 import org.flywaydb.core.internal.util.scanner.classpath.ClassPathResource;
 
 /**
- * The release table implementation.
+ * The release table implementation. The table keeps the history of all
+ * release switches, every switch appends a new row and the current release
+ * is the latest one.
  */
 public class ReleaseTableImpl implements ReleaseTable {
+    /**
+     * The name of the release table.
+     */
+    public static final String TABLE_NAME = "releasetable";
+
+    /**
+     * The release a new release table starts with.
+     */
+    public static final String DEFAULT_RELEASE = "main";
+
     /**
      * Logger.
      */
@@ -64,7 +87,30 @@ public class ReleaseTableImpl implements ReleaseTable {
     private ClassLoader classLoader;
 
     /**
-     * Creates a new instance of the release table support.
+     * Whether the release table is known to exist.
+     */
+    private boolean exists;
+
+    /**
+     * The known existence of the optional columns by column name.
+     */
+    private final Map<String, Boolean> columns =
+            new HashMap<String, Boolean>();
+
+    /**
+     * Number of catalog queries issued for checking the existence of the
+     * table and its columns.
+     */
+    private int catalogQueryCount;
+
+    /**
+     * The notifier called on release switches, <code>null</code> if none.
+     */
+    private ReleaseChangeNotifier notifier;
+
+    /**
+     * Creates a new instance of the release table support. The release table
+     * is created on first access if it doesn't exist.
      *
      * @param dbSupportToUse
      *            Database-specific functionality.
@@ -83,8 +129,41 @@ public class ReleaseTableImpl implements ReleaseTable {
         this.table = tableToUse;
         this.defaultRelease = defaultReleaseToUse;
         this.classLoader = classLoaderToUse;
+    }
 
-        createIfNotExists();
+    /**
+     * Creates the support for the release table of a schema, starting with
+     * the default release. On PostgreSQL release switches are published with
+     * a {@link PostgreSQLReleaseChangeNotifier} on its default channel.
+     * @param dbSupport
+     *            Database-specific functionality.
+     * @param schema
+     *            The schema of the release table.
+     * @return the release table
+     */
+    public static ReleaseTableImpl forSchema(final DbSupport dbSupport,
+            final Schema schema) {
+        ReleaseTableImpl releaseTable = new ReleaseTableImpl(dbSupport,
+                schema.getTable(TABLE_NAME), DEFAULT_RELEASE,
+                ReleaseTableImpl.class.getClassLoader());
+        if ("postgresql".equals(dbSupport.getDbName())) {
+            releaseTable.setReleaseChangeNotifier(
+                    new PostgreSQLReleaseChangeNotifier(
+                            dbSupport.getJdbcTemplate(),
+                            PostgreSQLReleaseChangeNotifier.DEFAULT_CHANNEL));
+        }
+        return releaseTable;
+    }
+
+    /**
+     * Sets the notifier called on release switches within the transaction
+     * of the switch.
+     * @param notifierToUse
+     *            the notifier, <code>null</code> if none
+     */
+    public final void setReleaseChangeNotifier(
+            final ReleaseChangeNotifier notifierToUse) {
+        this.notifier = notifierToUse;
     }
 
     @Override
@@ -93,15 +172,42 @@ public class ReleaseTableImpl implements ReleaseTable {
         table.lock();
     }
 
+    @Override
+    public final void invalidate() {
+        exists = false;
+        columns.clear();
+    }
+
+    /**
+     * Gets the number of catalog queries issued for checking the existence
+     * of the release table and its columns.
+     * @return the number of catalog queries
+     */
+    public final int getCatalogQueryCount() {
+        return catalogQueryCount;
+    }
+
     /**
-     * Creates the release table if it doesn't exist.
+     * Creates the release table if it doesn't exist or adds the optional
+     * columns to a release table created by an earlier version. The
+     * existence is cached until {@link #invalidate()} is called. Columns
+     * cached as missing before the table was known to exist are looked up
+     * again.
      */
     private void createIfNotExists() {
 
+        if (exists) {
+            return;
+        }
+
+        columns.clear();
+        catalogQueryCount++;
         if (table.exists()) {
             LOG.debug(String.format(
                     "Release table '%s' already exists. No creation required",
                     table));
+            upgrade();
+            exists = true;
             return;
         }
 
@@ -109,32 +215,69 @@ public class ReleaseTableImpl implements ReleaseTable {
 
         String resourceName = "info/novatec/flyway/branching/extension/release/"
                 + dbSupport.getDbName() + "/createReleaseTable.sql";
-        String source = new ClassPathResource(resourceName, classLoader)
-                .loadAsString("UTF-8");
-
         Map<String, String> placeholders = new HashMap<String, String>();
         placeholders.put("releaseVersionSchemaName", table.getSchema()
                 .getName());
         placeholders.put("releaseVersionTableName", table.getName());
         placeholders.put("defaultRelease", defaultRelease);
-        String sourceNoPlaceholders = new PlaceholderReplacer(placeholders,
-                "${", "}").replacePlaceholders(source);
+        PlaceholderReplacer placeholderReplacer = new PlaceholderReplacer(
+                placeholders, "${", "}");
 
-        SqlScript sqlScript = new SqlScript(sourceNoPlaceholders, dbSupport);
-        sqlScript.execute(jdbcTemplate);
+        InputStream inputStream = classLoader.getResourceAsStream(
+                resourceName);
+        if (inputStream == null) {
+            throw new FlywayException(
+                    "Unable to obtain inputstream for resource: "
+                            + resourceName);
+        }
+        try {
+            new BatchingSqlScriptExecutor(0).execute(
+                    jdbcTemplate.getConnection(), dbSupport,
+                    new ClassPathResource(resourceName, classLoader),
+                    new StreamingSqlScript(dbSupport, inputStream, "UTF-8",
+                            placeholderReplacer));
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                LOG.debug("Unable to close resource " + resourceName);
+            }
+        }
+        exists = true;
+        columns.put("FINGERPRINT", Boolean.TRUE);
+        columns.put("STATE", Boolean.TRUE);
 
         LOG.info(String.format("Release table '%s' created.", table));
     }
 
+    /**
+     * Adds the optional columns missing in a release table created by an
+     * earlier version.
+     */
+    private void upgrade() {
+        try {
+            addColumnIfMissing("FINGERPRINT", "varchar(64)");
+            addColumnIfMissing("STATE", "varchar(20)");
+        } catch (SQLException e) {
+            throw new FlywayException("Error while upgrading release table "
+                    + table, e);
+        }
+    }
+
     @Override
     public final String getCurrentRelease() {
-        String currentRelease;
+        String currentRelease = null;
 
         createIfNotExists();
 
         try {
-            currentRelease = jdbcTemplate.queryForString("select "
-                    + dbSupport.quote("CURRENT_RELEASE") + " from " + table);
+            List<String> releases = jdbcTemplate.queryForStringList("select "
+                    + dbSupport.quote("CURRENT_RELEASE") + " from " + table
+                    + " where " + dbSupport.quote("CREATED_ON") + " = ("
+                    + getLatestCreatedOnQuery() + ")");
+            if (!releases.isEmpty()) {
+                currentRelease = releases.get(0);
+            }
         } catch (SQLException e) {
             throw new FlywayException(
                     "Error while retrieving the current release "
@@ -148,16 +291,43 @@ public class ReleaseTableImpl implements ReleaseTable {
         return currentRelease;
     }
 
+    /**
+     * {@inheritDoc} The creation time is taken from the clock of the
+     * database, so the clocks of the nodes switching releases do not affect
+     * the order of the history. The release table is locked before the
+     * creation time of the latest switch is read, so concurrent switches
+     * within a transaction never get the same creation time. The notifier,
+     * if any, is called after the switch has been inserted.
+     */
     @Override
     public final void setCurrentRelease(final String release) {
 
         createIfNotExists();
+        table.lock();
 
+        Connection connection = jdbcTemplate.getConnection();
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
         try {
-            jdbcTemplate.update(
-                    "update " + table + " set "
-                            + dbSupport.quote("CURRENT_RELEASE") + " = ?",
-                    release);
+            statement = connection.prepareStatement("select current_timestamp, "
+                    + "max(" + dbSupport.quote("CREATED_ON") + ") from "
+                    + table);
+            resultSet = statement.executeQuery();
+            resultSet.next();
+            Timestamp createdOn = resultSet.getTimestamp(1);
+            Timestamp latest = resultSet.getTimestamp(2);
+            if (latest != null && !createdOn.after(latest)) {
+                createdOn = new Timestamp(latest.getTime() + 1);
+            }
+            JdbcUtils.closeResultSet(resultSet);
+            JdbcUtils.closeStatement(statement);
+
+            statement = connection.prepareStatement("insert into " + table
+                    + " (" + dbSupport.quote("CURRENT_RELEASE") + ", "
+                    + dbSupport.quote("CREATED_ON") + ") values (?, ?)");
+            statement.setString(1, release);
+            statement.setTimestamp(2, createdOn);
+            statement.executeUpdate();
             LOG.debug(String.format(
                     "Set current release in release table '%s' to '%s'", table,
                     release));
@@ -165,9 +335,141 @@ public class ReleaseTableImpl implements ReleaseTable {
             throw new FlywayException(
                     "Error while updating the current release in release table "
                             + table, e);
+        } finally {
+            JdbcUtils.closeResultSet(resultSet);
+            JdbcUtils.closeStatement(statement);
+        }
+
+        if (notifier != null) {
+            notifier.releaseChanged(release);
         }
     }
 
+    @Override
+    public final String getFingerprint() {
+        try {
+            if (!hasColumn("FINGERPRINT")) {
+                return null;
+            }
+            List<String> fingerprints = jdbcTemplate.queryForStringList(
+                    "select " + dbSupport.quote("FINGERPRINT") + " from "
+                            + table + " where " + dbSupport.quote("CREATED_ON")
+                            + " = (" + getLatestCreatedOnQuery() + ")");
+            return fingerprints.isEmpty() ? null : fingerprints.get(0);
+        } catch (SQLException e) {
+            throw new FlywayException(
+                    "Error while retrieving the fingerprint from release table "
+                            + table, e);
+        }
+    }
+
+    @Override
+    public final void setFingerprint(final String fingerprint) {
+
+        createIfNotExists();
+
+        try {
+            jdbcTemplate.update("update " + table + " set "
+                    + dbSupport.quote("FINGERPRINT") + " = ? where "
+                    + dbSupport.quote("CREATED_ON") + " = ("
+                    + getLatestCreatedOnQuery() + ")", fingerprint);
+            LOG.debug(String.format(
+                    "Set fingerprint in release table '%s' to '%s'", table,
+                    fingerprint));
+        } catch (SQLException e) {
+            throw new FlywayException(
+                    "Error while updating the fingerprint in release table "
+                            + table, e);
+        }
+    }
+
+    @Override
+    public final String getReleaseState() {
+
+        createIfNotExists();
+
+        try {
+            List<String> states = jdbcTemplate.queryForStringList(
+                    "select " + dbSupport.quote("STATE") + " from " + table
+                            + " where " + dbSupport.quote("CREATED_ON")
+                            + " = (" + getLatestCreatedOnQuery() + ")");
+            return states.isEmpty() ? null : states.get(0);
+        } catch (SQLException e) {
+            throw new FlywayException(
+                    "Error while retrieving the release state from release "
+                            + "table " + table, e);
+        }
+    }
+
+    @Override
+    public final void setReleaseState(final String state) {
+
+        createIfNotExists();
+
+        try {
+            jdbcTemplate.update("update " + table + " set "
+                    + dbSupport.quote("STATE") + " = ? where "
+                    + dbSupport.quote("CREATED_ON") + " = ("
+                    + getLatestCreatedOnQuery() + ")", state);
+            LOG.debug(String.format(
+                    "Set release state in release table '%s' to '%s'", table,
+                    state));
+        } catch (SQLException e) {
+            throw new FlywayException(
+                    "Error while updating the release state in release table "
+                            + table, e);
+        }
+    }
+
+    /**
+     * Adds a column to a release table created by an earlier version.
+     * @param column
+     *            the column name
+     * @param type
+     *            the column type
+     * @throws SQLException
+     *             if the column cannot be added
+     */
+    private void addColumnIfMissing(final String column, final String type)
+            throws SQLException {
+        if (!hasColumn(column)) {
+            LOG.info(String.format("Adding column %s to release table '%s'",
+                    column, table));
+            jdbcTemplate.execute("alter table " + table + " add column "
+                    + dbSupport.quote(column) + " " + type);
+            columns.put(column, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Checks whether the release table has an optional column. The result
+     * is cached until {@link #invalidate()} is called.
+     * @param column
+     *            the column name
+     * @return <code>true</code> if the column exists
+     * @throws SQLException
+     *             if the catalog query fails
+     */
+    private boolean hasColumn(final String column) throws SQLException {
+        Boolean known = columns.get(column);
+        if (known == null) {
+            catalogQueryCount++;
+            known = table.hasColumn(column);
+            columns.put(column, known);
+        }
+        return known;
+    }
+
+    /**
+     * Gets the query for the creation time of the latest release switch,
+     * which is resolved using the index on the creation time.
+     * @return the query
+     */
+    private String getLatestCreatedOnQuery() {
+        return "select max(" + dbSupport.quote("CREATED_ON") + ") from "
+                + table;
+    }
+
     @Override
     public final String toString() {
         return table.toString();
@@ -0,0 +1,233 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.tenant;
+
+import info.novatec.flyway.branching.extension.BranchingCallback;
+import info.novatec.flyway.branching.extension.metrics.BaseBranchingListener;
+import info.novatec.flyway.branching.extension.metrics.BranchingListener;
+import info.novatec.flyway.branching.extension.plan.MigrationPlanner;
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.internal.util.logging.Log;
+import org.flywaydb.core.internal.util.logging.LogFactory;
+
+/**
+ * Applies branching migrations to many tenant schemas concurrently. Every
+ * tenant schema gets its own {@link Flyway} and {@link BranchingCallback}
+ * instance, so the release table state is isolated per schema, while the
+ * release chain is planned only once for all tenants. The number of tenants
+ * migrated at the same time is bounded by the pool size. Tenants already at
+ * the head release of the chain are not migrated again.
+ * <p>
+ * Every worker holds at most two connections of the datasource at the same
+ * time, the two connections flyway uses during <code>migrate</code>. The
+ * connection reading the release table is returned before. So the
+ * datasource has to provide <code>2 * poolSize</code> connections,
+ * otherwise the workers wait for each other's connections or fail with a
+ * pool timeout.
+ * </p>
+ */
+public class MultiTenantMigrator {
+    /**
+     * Logger.
+     */
+    private static final Log LOG =
+            LogFactory.getLog(MultiTenantMigrator.class);
+
+    /**
+     * The datasource all tenant schemas are located in.
+     */
+    private final DataSource dataSource;
+
+    /**
+     * The flyway configuration shared by all tenants.
+     */
+    private final Properties configuration;
+
+    /**
+     * The maximum number of tenants migrated concurrently.
+     */
+    private final int poolSize;
+
+    /**
+     * The listener notified about the events of all tenant migrations.
+     */
+    private final BranchingListener listener;
+
+    /**
+     * Creates a new instance of {@link MultiTenantMigrator}.
+     * @param dataSourceToUse
+     *            the datasource all tenant schemas are located in
+     * @param configurationToUse
+     *            the flyway configuration shared by all tenants (see
+     *            {@link Flyway#configure(Properties)})
+     * @param poolSizeToUse
+     *            the maximum number of tenants migrated concurrently, the
+     *            datasource has to provide twice as many connections
+     */
+    public MultiTenantMigrator(final DataSource dataSourceToUse,
+            final Properties configurationToUse, final int poolSizeToUse) {
+        this(dataSourceToUse, configurationToUse, poolSizeToUse,
+                new BaseBranchingListener());
+    }
+
+    /**
+     * Creates a new instance of {@link MultiTenantMigrator} notifying given
+     * listener about the events of all tenant migrations.
+     * @param dataSourceToUse
+     *            the datasource all tenant schemas are located in
+     * @param configurationToUse
+     *            the flyway configuration shared by all tenants (see
+     *            {@link Flyway#configure(Properties)})
+     * @param poolSizeToUse
+     *            the maximum number of tenants migrated concurrently, the
+     *            datasource has to provide twice as many connections
+     * @param listenerToUse
+     *            the thread-safe listener notified about the events of all
+     *            tenant migrations
+     */
+    public MultiTenantMigrator(final DataSource dataSourceToUse,
+            final Properties configurationToUse, final int poolSizeToUse,
+            final BranchingListener listenerToUse) {
+        if (poolSizeToUse < 1) {
+            throw new FlywayException("Invalid pool size " + poolSizeToUse
+                    + ". At least one worker is required");
+        }
+        this.dataSource = dataSourceToUse;
+        this.configuration = configurationToUse;
+        this.poolSize = poolSizeToUse;
+        this.listener = listenerToUse;
+    }
+
+    /**
+     * Migrates the given tenant schemas. A failing tenant does not abort the
+     * migration of the other tenants, its error is part of the report.
+     * @param schemas
+     *            the tenant schemas to migrate
+     * @return the summary of the migrations per tenant
+     */
+    public final TenantMigrationReport migrate(
+            final Collection<String> schemas) {
+        final ReleaseChain releaseChain = planReleaseChain();
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(poolSize, schemas.size())));
+        List<TenantMigrationResult> results =
+                new ArrayList<TenantMigrationResult>();
+        try {
+            List<Future<TenantMigrationResult>> futures =
+                    new ArrayList<Future<TenantMigrationResult>>();
+            for (final String schema : schemas) {
+                futures.add(executor.submit(
+                        new Callable<TenantMigrationResult>() {
+                            public TenantMigrationResult call() {
+                                return migrate(schema, releaseChain);
+                            }
+                        }));
+            }
+            for (Future<TenantMigrationResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FlywayException(
+                    "Interrupted while migrating tenant schemas", e);
+        } catch (ExecutionException e) {
+            throw new FlywayException("Error while migrating tenant schemas. "
+                    + "Reason: " + ExceptionUtils.getRootCauseMessage(e), e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        TenantMigrationReport report = new TenantMigrationReport(results);
+        LOG.info(report.toString());
+        return report;
+    }
+
+    /**
+     * Creates the flyway instance for a tenant schema.
+     * @param schema
+     *            the tenant schema or <code>null</code> for the shared
+     *            configuration only
+     * @return the configured flyway instance
+     */
+    protected Flyway createFlyway(final String schema) {
+        Flyway flyway = new Flyway();
+        flyway.configure(configuration);
+        flyway.setDataSource(dataSource);
+        if (schema != null) {
+            flyway.setSchemas(schema);
+        }
+        return flyway;
+    }
+
+    /**
+     * Plans the release chain shared by all tenants.
+     * @return the release chain
+     */
+    private ReleaseChain planReleaseChain() {
+        Flyway flyway = createFlyway(null);
+        return new MigrationPlanner(flyway, flyway.getLocations()).plan();
+    }
+
+    /**
+     * Migrates a single tenant schema.
+     * @param schema
+     *            the tenant schema
+     * @param releaseChain
+     *            the release chain shared by all tenants
+     * @return the result of the migration
+     */
+    private TenantMigrationResult migrate(final String schema,
+            final ReleaseChain releaseChain) {
+        long start = System.currentTimeMillis();
+        String startRelease = null;
+        try {
+            Flyway flyway = createFlyway(schema);
+            BranchingCallback callback = new BranchingCallback(flyway,
+                    releaseChain, false, listener);
+            startRelease = callback.getCurrentRelease();
+            flyway.setCallbacks(callback);
+            int migrations = 0;
+            if (!callback.isUpToDate()) {
+                migrations = flyway.migrate();
+            }
+            return new TenantMigrationResult(schema, startRelease,
+                    callback.getCurrentRelease(), migrations,
+                    System.currentTimeMillis() - start, null);
+        } catch (RuntimeException e) {
+            LOG.error(String.format("Migration of tenant schema %s failed",
+                    schema), e);
+            return new TenantMigrationResult(schema, startRelease, null, 0,
+                    System.currentTimeMillis() - start, e);
+        }
+    }
+}
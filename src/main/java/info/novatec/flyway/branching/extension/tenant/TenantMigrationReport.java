@@ -0,0 +1,89 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.tenant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Summary of the branching migrations of several tenant schemas.
+ */
+public class TenantMigrationReport {
+    /**
+     * The results per tenant schema.
+     */
+    private final List<TenantMigrationResult> results;
+
+    /**
+     * Creates a new instance of {@link TenantMigrationReport}.
+     * @param resultsToUse
+     *            the results per tenant schema
+     */
+    public TenantMigrationReport(
+            final List<TenantMigrationResult> resultsToUse) {
+        this.results = Collections.unmodifiableList(
+                new ArrayList<TenantMigrationResult>(resultsToUse));
+    }
+
+    /**
+     * Gets the results per tenant schema.
+     * @return the results
+     */
+    public final List<TenantMigrationResult> getResults() {
+        return results;
+    }
+
+    /**
+     * Gets the results of the failed tenant schemas.
+     * @return the failed results
+     */
+    public final List<TenantMigrationResult> getFailedResults() {
+        List<TenantMigrationResult> failed =
+                new ArrayList<TenantMigrationResult>();
+        for (TenantMigrationResult result : results) {
+            if (!result.isSuccess()) {
+                failed.add(result);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Gets the number of migrations applied to all tenant schemas.
+     * @return the number of migrations
+     */
+    public final int getTotalMigrations() {
+        int migrations = 0;
+        for (TenantMigrationResult result : results) {
+            migrations += result.getMigrations();
+        }
+        return migrations;
+    }
+
+    @Override
+    public final String toString() {
+        StringBuilder builder = new StringBuilder(String.format(
+                "Migrated %s tenant(s), %s failed, %s migration(s) applied",
+                results.size(), getFailedResults().size(),
+                getTotalMigrations()));
+        for (TenantMigrationResult result : results) {
+            builder.append(System.getProperty("line.separator"))
+                    .append(result);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.tenant;
+
+/**
+ * The result of the branching migration of a single tenant schema.
+ */
+public class TenantMigrationResult {
+    /**
+     * The tenant schema.
+     */
+    private final String schema;
+
+    /**
+     * The release before the migration.
+     */
+    private final String startRelease;
+
+    /**
+     * The release after the migration.
+     */
+    private final String endRelease;
+
+    /**
+     * The number of applied migrations.
+     */
+    private final int migrations;
+
+    /**
+     * The execution time in milliseconds.
+     */
+    private final long executionTime;
+
+    /**
+     * The error the migration failed with.
+     */
+    private final RuntimeException error;
+
+    /**
+     * Creates a new instance of {@link TenantMigrationResult}.
+     * @param schemaToUse
+     *            the tenant schema
+     * @param startReleaseToUse
+     *            the release before the migration
+     * @param endReleaseToUse
+     *            the release after the migration
+     * @param migrationsToUse
+     *            the number of applied migrations
+     * @param executionTimeToUse
+     *            the execution time in milliseconds
+     * @param errorToUse
+     *            the error the migration failed with or <code>null</code>
+     */
+    public TenantMigrationResult(final String schemaToUse,
+            final String startReleaseToUse, final String endReleaseToUse,
+            final int migrationsToUse, final long executionTimeToUse,
+            final RuntimeException errorToUse) {
+        this.schema = schemaToUse;
+        this.startRelease = startReleaseToUse;
+        this.endRelease = endReleaseToUse;
+        this.migrations = migrationsToUse;
+        this.executionTime = executionTimeToUse;
+        this.error = errorToUse;
+    }
+
+    /**
+     * Gets the tenant schema.
+     * @return the schema
+     */
+    public final String getSchema() {
+        return schema;
+    }
+
+    /**
+     * Gets the release before the migration.
+     * @return the release or <code>null</code> if it could not be read
+     */
+    public final String getStartRelease() {
+        return startRelease;
+    }
+
+    /**
+     * Gets the release after the migration.
+     * @return the release or <code>null</code> if the migration failed
+     */
+    public final String getEndRelease() {
+        return endRelease;
+    }
+
+    /**
+     * Gets the number of applied migrations.
+     * @return the number of migrations
+     */
+    public final int getMigrations() {
+        return migrations;
+    }
+
+    /**
+     * Gets the execution time.
+     * @return the execution time in milliseconds
+     */
+    public final long getExecutionTime() {
+        return executionTime;
+    }
+
+    /**
+     * Gets the error the migration failed with.
+     * @return the error or <code>null</code> if the migration succeeded
+     */
+    public final RuntimeException getError() {
+        return error;
+    }
+
+    /**
+     * Whether the migration succeeded.
+     * @return <code>true</code> if no error occurred
+     */
+    public final boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public final String toString() {
+        if (!isSuccess()) {
+            return String.format("%s: failed after %s ms (%s)", schema,
+                    executionTime, error.getMessage());
+        }
+        return String.format("%s: %s -> %s, %s migration(s) in %s ms",
+                schema, startRelease, endRelease, migrations, executionTime);
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Branching migrations for many tenant schemas in parallel.
+ */
+package info.novatec.flyway.branching.extension.tenant;
@@ -0,0 +1,6 @@
+create table "${checkpointSchemaName}"."${checkpointTableName}" (
+	"MIGRATION_VERSION" VARCHAR(50) not null,
+	"LAST_KEY" BIGINT not null,
+	"UPDATED_ON" TIMESTAMP DEFAULT CURRENT_TIMESTAMP not null,
+	constraint "${checkpointSchemaName}_${checkpointTableName}_PK" primary key ("MIGRATION_VERSION")
+);
@@ -0,0 +1,6 @@
+create table "${checkpointSchemaName}"."${checkpointTableName}" (
+	"MIGRATION_VERSION" varchar(50) not null,
+	"LAST_KEY" bigint not null,
+	"UPDATED_ON" timestamp default now() not null,
+	constraint "${checkpointSchemaName}_${checkpointTableName}_PK" primary key ("MIGRATION_VERSION")
+);
@@ -1,6 +1,8 @@
 create table "${releaseVersionSchemaName}"."${releaseVersionTableName}" (
 	"CURRENT_RELEASE" varchar(20) not null,
 	"CREATED_ON" timestamp default now() not null,
+	"FINGERPRINT" varchar(64),
+	"STATE" varchar(20),
 	constraint "${releaseVersionSchemaName}_${releaseVersionTableName}_PK" primary key ("CURRENT_RELEASE", "CREATED_ON")
 );
 create index "${releaseVersionSchemaName}_${releaseVersionTableName}_CREATED_ON_IDX" on "${releaseVersionSchemaName}"."${releaseVersionTableName}" ("CREATED_ON");
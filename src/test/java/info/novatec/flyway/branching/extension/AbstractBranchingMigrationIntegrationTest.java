@@ -30,7 +30,9 @@ import org.junit.Test;
 public abstract class AbstractBranchingMigrationIntegrationTest {
     protected static final long SLEEP_TIME = 1000L;
 
-    private static final int EXPECTED_MIGRATIONS = 3;
+    private static final int EXPECTED_MIGRATIONS = 4;
+
+    private static final String EXPECTED_VERSION = "01.01.00";
 
     /**
      * Verifies that db migrations for branches is working.
@@ -44,7 +46,8 @@ public abstract class AbstractBranchingMigrationIntegrationTest {
         cut.setDataSource(getJdbcUrl(), getUserName(), getPassword());
 
         cut.setLocations(getLocations());
-        cut.setCallbacks(new BranchingCallback(cut));
+        BranchingCallback callback = createCallback(cut);
+        cut.setCallbacks(callback);
         cut.setValidateOnMigrate(false);
         cut.setBaselineOnMigrate ( true );
         cut.setBaselineVersion("0");
@@ -54,6 +57,8 @@ public abstract class AbstractBranchingMigrationIntegrationTest {
 
         assertThat("Performed expected number of migrations",
                 migrations, is(EXPECTED_MIGRATIONS));
+        assertThat("Tracked version of latest migration",
+                callback.getCurrentVersion(), is(EXPECTED_VERSION));
 
         try {
             Thread.sleep(SLEEP_TIME);
@@ -65,7 +70,39 @@ public abstract class AbstractBranchingMigrationIntegrationTest {
         assertThat("No more pending migrations should be avilable",
                 migrationInfoService.pending().length, is(0));
     }
-    
+
+    /**
+     * Verifies that the release table is recreated after a clean and the
+     * chain is migrated again.
+     */
+    @Test
+    public final void verifyMigrateAfterClean() {
+        Flyway cut = new Flyway();
+        cut.setDataSource(getJdbcUrl(), getUserName(), getPassword());
+        cut.setLocations(getLocations());
+        BranchingCallback callback = createCallback(cut);
+        cut.setCallbacks(callback);
+        cut.setValidateOnMigrate(false);
+        cut.setBaselineOnMigrate(true);
+        cut.setBaselineVersion("0");
+        cut.migrate();
+
+        cut.clean();
+        assertThat("Release table is recreated at the default release",
+                callback.getCurrentRelease(), is("main"));
+        assertThat("Whole chain is migrated again", cut.migrate(),
+                is(EXPECTED_MIGRATIONS));
+    }
+
+    /**
+     * Creates the callback under test.
+     * @param flyway the flyway instance
+     * @return the callback
+     */
+    protected BranchingCallback createCallback(final Flyway flyway) {
+        return new BranchingCallback(flyway);
+    }
+
     protected abstract String getJdbcUrl();
     
     protected abstract String getUserName();
@@ -0,0 +1,36 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import info.novatec.flyway.branching.extension.plan.MigrationPlanner;
+
+import org.flywaydb.core.Flyway;
+
+/**
+ * Integration test to verify the branching support for flywaydb migrations
+ * resolved from the migration catalog with batched DML statements.
+ */
+public class BranchingBatchedMigrationH2IntegrationTest extends BranchingMigrationH2IntegrationTest {
+
+    private static final int BATCH_SIZE = 2;
+
+    @Override
+    protected BranchingCallback createCallback(final Flyway flyway) {
+        return new BranchingCallback(flyway, new MigrationPlanner(flyway,
+                flyway.getLocations(), BATCH_SIZE).plan(), true);
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.flywaydb.core.Flyway;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+/**
+ * Integration test to verify that the branching callback returns all
+ * connections it borrows from the datasource.
+ */
+public class BranchingCallbackConnectionIntegrationTest {
+
+    /**
+     * Verifies that creating the callback and migrating leaves no open
+     * connections behind.
+     */
+    @Test
+    public final void verifyNoConnectionsAreLeaked() {
+        JdbcDataSource h2DataSource = new JdbcDataSource();
+        h2DataSource.setURL("jdbc:h2:mem:connections" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1");
+        h2DataSource.setUser("sa");
+        CountingDataSource dataSource = new CountingDataSource(h2DataSource);
+
+        Flyway cut = new Flyway();
+        cut.setDataSource(dataSource);
+        cut.setLocations("db/branching/migrations/h2");
+
+        BranchingCallback callback = new BranchingCallback(cut);
+        assertThat("Callback borrows a single connection",
+                dataSource.getOpenedConnections(), is(1));
+        assertThat("Callback returns its connection",
+                dataSource.getOpenConnections(), is(0));
+
+        cut.setCallbacks(callback);
+        cut.setValidateOnMigrate(false);
+        cut.setBaselineOnMigrate(true);
+        cut.setBaselineVersion("0");
+        cut.migrate();
+
+        assertThat("All connections are returned after migrate",
+                dataSource.getOpenConnections(), is(0));
+    }
+
+    /**
+     * DataSource counting the connections that are currently open.
+     */
+    private static final class CountingDataSource implements DataSource {
+        private final DataSource delegate;
+
+        private final AtomicInteger openConnections = new AtomicInteger();
+
+        private final AtomicInteger openedConnections = new AtomicInteger();
+
+        private CountingDataSource(final DataSource dataSource) {
+            this.delegate = dataSource;
+        }
+
+        public int getOpenConnections() {
+            return openConnections.get();
+        }
+
+        public int getOpenedConnections() {
+            return openedConnections.get();
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return count(delegate.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(final String username,
+                final String password) throws SQLException {
+            return count(delegate.getConnection(username, password));
+        }
+
+        private Connection count(final Connection connection) {
+            openConnections.incrementAndGet();
+            openedConnections.incrementAndGet();
+            return (Connection) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class<?>[] {Connection.class},
+                    new InvocationHandler() {
+                        private boolean closed;
+
+                        public Object invoke(final Object proxy,
+                                final Method method, final Object[] args)
+                                throws Throwable {
+                            if ("close".equals(method.getName()) && !closed) {
+                                closed = true;
+                                openConnections.decrementAndGet();
+                            }
+                            try {
+                                return method.invoke(connection, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getTargetException();
+                            }
+                        }
+                    });
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return delegate.getLogWriter();
+        }
+
+        @Override
+        public void setLogWriter(final PrintWriter out) throws SQLException {
+            delegate.setLogWriter(out);
+        }
+
+        @Override
+        public void setLoginTimeout(final int seconds) throws SQLException {
+            delegate.setLoginTimeout(seconds);
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return delegate.getLoginTimeout();
+        }
+
+        public Logger getParentLogger()
+                throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+
+        @Override
+        public <T> T unwrap(final Class<T> iface) throws SQLException {
+            return delegate.unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(final Class<?> iface)
+                throws SQLException {
+            return delegate.isWrapperFor(iface);
+        }
+    }
+}
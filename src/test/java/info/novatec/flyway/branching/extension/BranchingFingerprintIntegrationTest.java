@@ -0,0 +1,196 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import info.novatec.flyway.branching.extension.plan.ChecksumCache;
+import info.novatec.flyway.branching.extension.plan.MigrationCatalog;
+import info.novatec.flyway.branching.extension.plan.MigrationPlanner;
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.resolver.ResolvedMigration;
+import org.flywaydb.core.internal.resolver.ResolvedMigrationImpl;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Integration test to verify the fast path for databases already at the
+ * head release of the release chain.
+ */
+public class BranchingFingerprintIntegrationTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private JdbcDataSource dataSource;
+
+    @Before
+    public final void setup() {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:fingerprint" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+    }
+
+    /**
+     * Verifies that a migrated database is recognized as up to date.
+     */
+    @Test
+    public final void verifyUpToDateAfterMigrate() {
+        Flyway flyway = createFlyway();
+        BranchingCallback callback = new BranchingCallback(flyway);
+        assertThat("Empty database is not up to date",
+                callback.isUpToDate(), is(false));
+        flyway.setCallbacks(callback);
+        flyway.migrate();
+
+        flyway = createFlyway();
+        callback = new BranchingCallback(flyway);
+        assertThat("Migrated database is up to date",
+                callback.isUpToDate(), is(true));
+        assertThat(callback.getCurrentRelease(), is("v11"));
+        flyway.setCallbacks(callback);
+        assertThat("Nothing left to migrate", flyway.migrate(), is(0));
+    }
+
+    /**
+     * Verifies that an up-to-date database resolved from the catalog has
+     * nothing to migrate.
+     */
+    @Test
+    public final void verifyUpToDateFromCatalog() {
+        Flyway flyway = createFlyway();
+        flyway.setCallbacks(new BranchingCallback(flyway, new MigrationPlanner(
+                flyway, flyway.getLocations()).plan(), true));
+        flyway.migrate();
+
+        flyway = createFlyway();
+        BranchingCallback callback = new BranchingCallback(flyway,
+                new MigrationPlanner(flyway, flyway.getLocations()).plan(),
+                true);
+        assertThat(callback.isUpToDate(), is(true));
+        flyway.setCallbacks(callback);
+        assertThat("Nothing left to migrate", flyway.migrate(), is(0));
+    }
+
+    /**
+     * Verifies that a changed release chain is not treated as up to date.
+     */
+    @Test
+    public final void verifyChangedChainIsNotUpToDate() {
+        Flyway flyway = createFlyway();
+        BranchingCallback callback = new BranchingCallback(flyway);
+        flyway.setCallbacks(callback);
+        flyway.migrate();
+
+        flyway = createFlyway();
+        ReleaseChain planned = new MigrationPlanner(flyway,
+                flyway.getLocations()).plan();
+        List<String> releases = new ArrayList<String>(planned.getReleases());
+        releases.add("v12");
+        ReleaseChain changed = new ReleaseChain(
+                Arrays.asList(flyway.getLocations()), releases,
+                planned.getCatalog());
+
+        callback = new BranchingCallback(flyway, changed);
+        assertThat("Changed release chain is not up to date",
+                callback.isUpToDate(), is(false));
+        assertThat(callback.getCurrentRelease(), is("v11"));
+    }
+
+    /**
+     * Verifies that a changed script is not treated as up to date.
+     */
+    @Test
+    public final void verifyChangedScriptIsNotUpToDate() {
+        Flyway flyway = createFlyway();
+        BranchingCallback callback = new BranchingCallback(flyway);
+        flyway.setCallbacks(callback);
+        flyway.migrate();
+
+        flyway = createFlyway();
+        ReleaseChain planned = new MigrationPlanner(flyway,
+                flyway.getLocations()).plan();
+        String head = planned.getHeadRelease();
+        MigrationCatalog catalog = new MigrationCatalog();
+        for (String release : planned.getReleases()) {
+            for (ResolvedMigration migration : planned.getCatalog()
+                    .getMigrations(release).values()) {
+                if (release.equals(head)) {
+                    ResolvedMigrationImpl changed =
+                            new ResolvedMigrationImpl();
+                    changed.setVersion(migration.getVersion());
+                    changed.setDescription(migration.getDescription());
+                    changed.setScript(migration.getScript());
+                    changed.setChecksum(migration.getChecksum() + 1);
+                    changed.setType(migration.getType());
+                    migration = changed;
+                }
+                catalog.add(release, migration);
+            }
+        }
+        ReleaseChain changed = new ReleaseChain(
+                Arrays.asList(flyway.getLocations()), planned.getReleases(),
+                catalog);
+
+        assertThat("Changed script is not up to date",
+                new BranchingCallback(flyway, changed).isUpToDate(),
+                is(false));
+    }
+
+    /**
+     * Verifies that the fingerprint of an up-to-date database is computed
+     * from the checksum cache without reading the scripts again.
+     */
+    @Test
+    public final void verifyFingerprintFromChecksumCache() {
+        File file = new File(folder.getRoot(), "checksums.properties");
+        Flyway flyway = createFlyway();
+        ReleaseChain chain = new MigrationPlanner(flyway,
+                flyway.getLocations()).plan();
+        chain.setChecksumCache(new ChecksumCache(file));
+        BranchingCallback callback = new BranchingCallback(flyway, chain);
+        flyway.setCallbacks(callback);
+        flyway.migrate();
+
+        flyway = createFlyway();
+        chain = new MigrationPlanner(flyway, flyway.getLocations()).plan();
+        ChecksumCache cache = new ChecksumCache(file);
+        chain.setChecksumCache(cache);
+        assertThat("Migrated database is up to date",
+                new BranchingCallback(flyway, chain).isUpToDate(), is(true));
+        assertThat("No script read again", cache.getCalculatedCount(),
+                is(0));
+    }
+
+    private Flyway createFlyway() {
+        Flyway flyway = FlywayTestSupport.createFlyway(dataSource,
+                "db/branching/migrations/h2");
+        flyway.setValidateOnMigrate(false);
+        return flyway;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.flywaydb.core.Flyway;
+import org.junit.Test;
+
+/**
+ * Integration test to verify that release switches are derived from the
+ * release folders, without migrations updating the release table.
+ */
+public class DeclarativeReleaseH2IntegrationTest {
+
+    private static final int EXPECTED_MIGRATIONS = 4;
+
+    /**
+     * Verifies that all releases are migrated and the release table ends at
+     * the head release.
+     */
+    @Test
+    public final void verifyDeclarativeReleaseSwitches() {
+        Flyway cut = new Flyway();
+        cut.setDataSource("jdbc:h2:mem:declarative" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1", "sa", null);
+        cut.setLocations("db/branching/migrations/declarative/h2");
+        cut.setValidateOnMigrate(false);
+        cut.setBaselineOnMigrate(true);
+        cut.setBaselineVersion("0");
+
+        BranchingCallback callback = new BranchingCallback(cut);
+        cut.setCallbacks(callback);
+
+        assertThat(cut.migrate(), is(EXPECTED_MIGRATIONS));
+        assertThat(callback.getCurrentRelease(), is("v12"));
+        assertThat("Release table has been switched to the head release",
+                new BranchingCallback(cut).getCurrentRelease(), is("v12"));
+    }
+}
@@ -0,0 +1,214 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import static info.novatec.flyway.branching.extension.FlywayTestSupport.createFlyway;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import info.novatec.flyway.branching.extension.release.ReleaseTableImpl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration test to verify migrating deferrable releases in background.
+ */
+public class DeferredReleaseMigratorIntegrationTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private static final String DECLARATIVE =
+            "db/branching/migrations/declarative/h2";
+
+    private static final String ATOMIC = "db/branching/migrations/atomic/h2";
+
+    private static final String CHUNKED = "db/branching/migrations/chunked/h2";
+
+    private JdbcDataSource dataSource;
+
+    private ExecutorService executor;
+
+    @Before
+    public final void setup() {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:deferred" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1;MVCC=TRUE");
+        dataSource.setUser("sa");
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public final void cleanup() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Verifies that the blocking releases are applied before returning and
+     * the deferrable release afterwards.
+     * @throws Exception if waiting or reading the release table fails
+     */
+    @Test
+    public final void verifyDeferredRelease() throws Exception {
+        final CountDownLatch backgroundStart = new CountDownLatch(1);
+        executor.submit(new Runnable() {
+            public void run() {
+                try {
+                    backgroundStart.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        Flyway flyway = createFlyway(dataSource, DECLARATIVE);
+        DeferredMigration progress = new DeferredReleaseMigrator(flyway,
+                Collections.singleton("v12"), executor).migrate();
+
+        assertThat(progress.getState(), is(DeferredMigration.State.MIGRATING));
+        assertThat(progress.getReleases(), contains("v12"));
+        assertThat(progress.getTotalMigrations(), is(1));
+        assertThat(progress.getAppliedMigrations(), is(0));
+        assertThat("Blocking releases are applied", getCurrentRelease(),
+                is("v11"));
+
+        backgroundStart.countDown();
+        assertThat(progress.await(TIMEOUT_SECONDS, TimeUnit.SECONDS),
+                is(true));
+        assertThat(progress.getState(), is(DeferredMigration.State.COMPLETED));
+        assertThat(progress.getAppliedMigrations(), is(1));
+        assertThat(getCurrentRelease(), is("v12"));
+        assertThat(getReleaseState(), is("COMPLETED"));
+        assertThat("Database is at the head release", new BranchingCallback(
+                createFlyway(dataSource, DECLARATIVE)).isUpToDate(), is(true));
+        flyway.validate();
+    }
+
+    /**
+     * Verifies that a failing deferred release is reported and stored with
+     * the previous release.
+     * @throws Exception if waiting or reading the release table fails
+     */
+    @Test
+    public final void verifyFailedDeferredRelease() throws Exception {
+        Flyway flyway = createFlyway(dataSource, ATOMIC);
+        DeferredMigration progress = new DeferredReleaseMigrator(flyway,
+                Collections.singleton("v11"), executor).migrate();
+
+        assertThat(progress.await(TIMEOUT_SECONDS, TimeUnit.SECONDS),
+                is(true));
+        assertThat(progress.getState(), is(DeferredMigration.State.FAILED));
+        assertThat(progress.getAppliedMigrations(), is(1));
+        assertThat(getCurrentRelease(), is("main"));
+        assertThat(getReleaseState(), is("FAILED"));
+    }
+
+    /**
+     * Verifies that a deferred migration that must not run in a transaction
+     * applies its own transactions, after the started release has been
+     * stored with the previous release.
+     * @throws Exception if waiting or reading the tables fails
+     */
+    @Test
+    public final void verifyNonTransactionalDeferredMigration()
+            throws Exception {
+        final Thread testThread = Thread.currentThread();
+        final List<String> backgroundStates =
+                Collections.synchronizedList(new ArrayList<String>());
+        dataSource = new JdbcDataSource() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                Connection connection = super.getConnection();
+                if (Thread.currentThread() != testThread) {
+                    backgroundStates.add(createReleaseTable(connection)
+                            .getReleaseState());
+                }
+                return connection;
+            }
+        };
+        dataSource.setURL("jdbc:h2:mem:deferredstate" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1;MVCC=TRUE");
+        dataSource.setUser("sa");
+
+        Flyway flyway = createFlyway(dataSource, CHUNKED);
+        DeferredMigration progress = new DeferredReleaseMigrator(flyway,
+                Collections.singleton("v11"), executor).migrate();
+
+        assertThat(progress.await(TIMEOUT_SECONDS, TimeUnit.SECONDS),
+                is(true));
+        assertThat(progress.getState(), is(DeferredMigration.State.COMPLETED));
+        assertThat(getCurrentRelease(), is("v11"));
+        assertThat(getReleaseState(), is("COMPLETED"));
+        assertThat("Started release is stored before the migration runs "
+                + "on a connection of its own", backgroundStates,
+                hasItem("MIGRATING"));
+        flyway.validate();
+    }
+
+    /**
+     * Verifies that a blocking release must not follow a deferrable one.
+     */
+    @Test(expected = FlywayException.class)
+    public final void verifyBlockingReleaseAfterDeferrableIsRejected() {
+        new DeferredReleaseMigrator(createFlyway(dataSource,
+                DECLARATIVE),
+                Arrays.asList("v11"), executor);
+    }
+
+    private String getCurrentRelease() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            return createReleaseTable(connection).getCurrentRelease();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private String getReleaseState() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            return createReleaseTable(connection).getReleaseState();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private ReleaseTableImpl createReleaseTable(final Connection connection) {
+        DbSupport dbSupport = DbSupportFactory.createDbSupport(connection,
+                false);
+        return ReleaseTableImpl.forSchema(dbSupport,
+                dbSupport.getCurrentSchema());
+    }
+}
@@ -0,0 +1,46 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import javax.sql.DataSource;
+
+import org.flywaydb.core.Flyway;
+
+/**
+ * Shared setup of the flyway instances used by the integration tests.
+ */
+public final class FlywayTestSupport {
+
+    private FlywayTestSupport() {
+    }
+
+    /**
+     * Creates a flyway instance migrating given location. A schema that is
+     * not empty but has no metadata table is baselined at version 0.
+     * @param dataSource the datasource to migrate
+     * @param location the base location of the release folders
+     * @return the flyway instance
+     */
+    public static Flyway createFlyway(final DataSource dataSource,
+            final String location) {
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(dataSource);
+        flyway.setLocations(location);
+        flyway.setBaselineOnMigrate(true);
+        flyway.setBaselineVersion("0");
+        return flyway;
+    }
+}
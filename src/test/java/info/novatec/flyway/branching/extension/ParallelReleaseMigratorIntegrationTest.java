@@ -0,0 +1,203 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import static info.novatec.flyway.branching.extension.FlywayTestSupport.createFlyway;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.internal.dbsupport.JdbcTemplate;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration test to verify applying independent migrations of a release
+ * concurrently.
+ */
+public class ParallelReleaseMigratorIntegrationTest {
+
+    private static final int EXPECTED_MIGRATIONS = 4;
+
+    private static final int THREADS = 2;
+
+    private static final String PARALLEL =
+            "db/branching/migrations/parallel/h2";
+
+    private static final String ATOMIC = "db/branching/migrations/atomic/h2";
+
+    private static final String STANDARD = "db/branching/migrations/h2";
+
+    private static final long RENDEZVOUS_TIMEOUT = 500L;
+
+    private JdbcDataSource dataSource;
+
+    @Before
+    public final void setup() {
+        dataSource = new JdbcDataSource();
+        configure(dataSource);
+    }
+
+    /**
+     * Verifies that independent migrations run concurrently and that all
+     * migrations are applied and ranked in version order.
+     * @throws SQLException if reading the tables fails
+     */
+    @Test
+    public final void verifyParallelMigration() throws SQLException {
+        RendezvousDataSource rendezvous = new RendezvousDataSource();
+        configure(rendezvous);
+        dataSource = rendezvous;
+        Flyway flyway = createFlyway(dataSource, PARALLEL);
+        assertThat(new ParallelReleaseMigrator(flyway, THREADS).migrate(),
+                is(EXPECTED_MIGRATIONS));
+        assertThat("V2 and V3 have been applied concurrently",
+                rendezvous.isOverlapped(), is(true));
+
+        BranchingCallback callback = new BranchingCallback(
+                createFlyway(dataSource, PARALLEL));
+        assertThat(callback.getCurrentRelease(), is("v11"));
+        assertThat("Database is at the head release", callback.isUpToDate(),
+                is(true));
+        flyway.validate();
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(
+                dataSource.getConnection(), 0);
+        try {
+            assertThat(jdbcTemplate.queryForInt(
+                    "select count(*) from PURCHASE"), is(1));
+            List<String> versions = jdbcTemplate.queryForStringList(
+                    "select \"version\" from \"schema_version\" "
+                            + "order by \"version_rank\"");
+            assertThat("Migrations ranked in version order",
+                    versions.toString(), is("[1, 2, 3, 4]"));
+        } finally {
+            jdbcTemplate.getConnection().close();
+        }
+
+        assertThat("Nothing pending on a second run",
+                new ParallelReleaseMigrator(flyway, THREADS).migrate(),
+                is(0));
+    }
+
+    /**
+     * Verifies that a migration updating the release table itself is
+     * applied, as no lock is held on the release table meanwhile.
+     */
+    @Test
+    public final void verifyMigrationUpdatingReleaseTable() {
+        assertThat(new ParallelReleaseMigrator(createFlyway(dataSource,
+                STANDARD), THREADS).migrate(), is(EXPECTED_MIGRATIONS));
+        assertThat(new BranchingCallback(createFlyway(dataSource, STANDARD))
+                .getCurrentRelease(), is("v11"));
+    }
+
+    /**
+     * Verifies that a failing migration stops the release and is recorded
+     * as failed, as H2 cannot roll back its DDL, while the migration
+     * applied before is recorded and switches the release.
+     * @throws SQLException if reading the tables fails
+     */
+    @Test
+    public final void verifyFailureStopsRelease() throws SQLException {
+        Flyway flyway = createFlyway(dataSource, ATOMIC);
+        try {
+            new ParallelReleaseMigrator(flyway, THREADS).migrate();
+            fail("Migration of release v11 is expected to fail");
+        } catch (FlywayException e) {
+            // expected
+        }
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(
+                dataSource.getConnection(), 0);
+        try {
+            assertThat(jdbcTemplate.queryForInt("select count(*) from ITEM"),
+                    is(1));
+            assertThat(jdbcTemplate.queryForInt(
+                    "select count(*) from \"schema_version\" "
+                            + "where \"success\" = false"), is(1));
+        } finally {
+            jdbcTemplate.getConnection().close();
+        }
+        assertThat(new BranchingCallback(createFlyway(dataSource, ATOMIC))
+                .getCurrentRelease(), is("v11"));
+
+        try {
+            new ParallelReleaseMigrator(flyway, THREADS).migrate();
+            fail("Failed migration is expected to be detected");
+        } catch (FlywayException e) {
+            // expected
+        }
+    }
+
+    private static void configure(final JdbcDataSource h2DataSource) {
+        h2DataSource.setURL("jdbc:h2:mem:parallel" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1;MVCC=TRUE");
+        h2DataSource.setUser("sa");
+    }
+
+    /**
+     * DataSource letting every worker wait for the connection of another
+     * worker, so concurrently started migrations are detected.
+     */
+    private static final class RendezvousDataSource extends JdbcDataSource {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Thread coordinator = Thread.currentThread();
+
+        private int arrivals;
+
+        private boolean overlapped;
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (Thread.currentThread() != coordinator) {
+                awaitOtherWorker();
+            }
+            return super.getConnection();
+        }
+
+        public synchronized boolean isOverlapped() {
+            return overlapped;
+        }
+
+        private synchronized void awaitOtherWorker() {
+            int arrival = ++arrivals;
+            notifyAll();
+            long deadline = System.currentTimeMillis() + RENDEZVOUS_TIMEOUT;
+            long remaining = RENDEZVOUS_TIMEOUT;
+            while (arrivals == arrival && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            if (arrivals != arrival) {
+                overlapped = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import static info.novatec.flyway.branching.extension.FlywayTestSupport.createFlyway;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import info.novatec.flyway.branching.extension.plan.ChecksumCache;
+import info.novatec.flyway.branching.extension.plan.MigrationPlanner;
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+
+import java.io.File;
+import java.sql.SQLException;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.internal.dbsupport.JdbcTemplate;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Integration test to verify the branch-aware validation of the applied
+ * migrations.
+ */
+public class ReleaseChainValidatorIntegrationTest {
+
+    private static final String LOCATION =
+            "db/branching/migrations/declarative/h2";
+
+    private static final int MIGRATIONS = 4;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private JdbcDataSource dataSource;
+
+    private File cacheFile;
+
+    @Before
+    public final void setup() {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:validator" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        cacheFile = new File(folder.getRoot(), "checksums.properties");
+    }
+
+    /**
+     * Verifies that a database migrated through all releases is valid and
+     * that the checksums are read only once.
+     */
+    @Test
+    public final void verifyValidationUsesChecksumCache() {
+        migrate(LOCATION);
+
+        ChecksumCache cache = new ChecksumCache(cacheFile);
+        new ReleaseChainValidator(createFlyway(dataSource, LOCATION),
+                cache).validate();
+        assertThat(cache.getCalculatedCount(), is(MIGRATIONS));
+        assertThat("Cache has been persisted", cacheFile.isFile(), is(true));
+
+        ChecksumCache reloaded = new ChecksumCache(cacheFile);
+        new ReleaseChainValidator(createFlyway(dataSource, LOCATION),
+                reloaded).validate();
+        assertThat("Unmodified scripts are not read again",
+                reloaded.getCalculatedCount(), is(0));
+    }
+
+    /**
+     * Verifies that a modified script is detected.
+     * @throws SQLException if updating the metadata table fails
+     */
+    @Test(expected = FlywayException.class)
+    public final void verifyChecksumMismatchIsDetected() throws SQLException {
+        migrate(LOCATION);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(
+                dataSource.getConnection(), 0);
+        try {
+            jdbcTemplate.execute("update \"schema_version\" set "
+                    + "\"checksum\" = 1 where \"version\" = '01.00.01'");
+        } finally {
+            jdbcTemplate.getConnection().close();
+        }
+        new ReleaseChainValidator(createFlyway(dataSource, LOCATION),
+                new ChecksumCache(cacheFile)).validate();
+    }
+
+    /**
+     * Verifies that an applied migration missing in the release chain is
+     * detected.
+     */
+    @Test(expected = FlywayException.class)
+    public final void verifyMigrationOutsideChainIsDetected() {
+        migrate("db/branching/migrations/h2");
+        new ReleaseChainValidator(createFlyway(dataSource, LOCATION),
+                new ChecksumCache(cacheFile)).validate();
+    }
+
+    /**
+     * Verifies that nothing is validated before the first migration.
+     */
+    @Test
+    public final void verifyEmptyDatabaseIsValid() {
+        ChecksumCache cache = new ChecksumCache(cacheFile);
+        new ReleaseChainValidator(createFlyway(dataSource, LOCATION),
+                cache).validate();
+        assertThat(cache.getCalculatedCount(), is(0));
+    }
+
+    private void migrate(final String location) {
+        Flyway flyway = createFlyway(dataSource, location);
+        ReleaseChain releaseChain = new MigrationPlanner(flyway,
+                flyway.getLocations()).plan();
+        flyway.setCallbacks(new BranchingCallback(flyway, releaseChain));
+        flyway.setValidateOnMigrate(false);
+        flyway.migrate();
+    }
+}
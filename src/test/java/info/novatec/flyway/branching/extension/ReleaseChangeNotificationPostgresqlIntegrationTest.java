@@ -0,0 +1,138 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import info.novatec.flyway.branching.extension.release.CachingReleaseTable;
+import info.novatec.flyway.branching.extension.release.PostgreSQLReleaseChangeListener;
+import info.novatec.flyway.branching.extension.release.PostgreSQLReleaseChangeNotifier;
+import info.novatec.flyway.branching.extension.release.ReleaseTableImpl;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration test to verify that release switches of the release table
+ * invalidate the current release cached by other instances on PostgreSQL.
+ */
+public class ReleaseChangeNotificationPostgresqlIntegrationTest {
+
+    private static final long POLL_INTERVAL_MILLIS = 50;
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private Connection reader;
+
+    private Connection listening;
+
+    private Connection writer;
+
+    private CachingReleaseTable cache;
+
+    private PostgreSQLReleaseChangeListener listener;
+
+    @Before
+    public final void setup() throws SQLException {
+        reader = connect();
+        listening = connect();
+        writer = connect();
+        writer.setAutoCommit(false);
+
+        cache = new CachingReleaseTable(createReleaseTable(reader), 1,
+                TimeUnit.HOURS);
+        listener = new PostgreSQLReleaseChangeListener(listening,
+                PostgreSQLReleaseChangeNotifier.DEFAULT_CHANNEL, cache,
+                POLL_INTERVAL_MILLIS);
+        listener.start();
+    }
+
+    /**
+     * Cleaning up the test database.
+     * @throws SQLException if closing a connection fails
+     */
+    @After
+    public final void cleanup() throws SQLException {
+        listener.stop();
+        try {
+            reader.createStatement().execute("drop table releasetable");
+        } catch (SQLException e) {
+            // No OP
+        }
+        writer.close();
+        listening.close();
+        reader.close();
+    }
+
+    /**
+     * Verifies that a committed release switch invalidates the cache.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public final void verifyCommittedSwitchInvalidatesCache()
+            throws Exception {
+        assertThat(cache.getCurrentRelease(), is("main"));
+
+        createReleaseTable(writer).setCurrentRelease("v11");
+        writer.commit();
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!"v11".equals(cache.getCurrentRelease())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+        }
+        assertThat(cache.getCurrentRelease(), is("v11"));
+        assertThat(cache.getLoadCount(), is(2));
+    }
+
+    /**
+     * Verifies that a rolled back release switch is not published.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public final void verifyRolledBackSwitchIsNotPublished()
+            throws Exception {
+        assertThat(cache.getCurrentRelease(), is("main"));
+
+        createReleaseTable(writer).setCurrentRelease("v11");
+        writer.rollback();
+
+        Thread.sleep(10 * POLL_INTERVAL_MILLIS);
+        assertThat(cache.getCurrentRelease(), is("main"));
+        assertThat(cache.getLoadCount(), is(1));
+    }
+
+    private static Connection connect() throws SQLException {
+        return DriverManager.getConnection("jdbc:postgresql:dbmigration",
+                "dbmigration", "dbmigration");
+    }
+
+    private static ReleaseTableImpl createReleaseTable(
+            final Connection connection) {
+        DbSupport dbSupport = DbSupportFactory.createDbSupport(connection,
+                false);
+        return ReleaseTableImpl.forSchema(dbSupport,
+                dbSupport.getCurrentSchema());
+    }
+}
@@ -0,0 +1,276 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import static info.novatec.flyway.branching.extension.FlywayTestSupport.createFlyway;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import info.novatec.flyway.branching.extension.plan.MigrationPlanner;
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.JdbcTemplate;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration test to verify applying the migrations of a release in a
+ * single transaction.
+ */
+public class ReleaseTransactionMigratorIntegrationTest {
+
+    private static final String DECLARATIVE =
+            "db/branching/migrations/declarative/h2";
+
+    private static final String ATOMIC = "db/branching/migrations/atomic/h2";
+
+    private static final String CONCURRENT =
+            "db/branching/migrations/concurrent/h2";
+
+    private static final int EXPECTED_MIGRATIONS = 4;
+
+    private static final long LOCK_WAIT_MILLIS = 500L;
+
+    private static final int ONLINE_MIGRATIONS = 3;
+
+    private static final int BACKPORT_MIGRATIONS = 4;
+
+    private static final String BACKPORT_LOCATION =
+            "db/branching/migrations/backport/h2";
+
+    private JdbcDataSource dataSource;
+
+    @Before
+    public final void setup() {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:releasetx" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+    }
+
+    /**
+     * Verifies that H2, which has no transactional DDL, falls back to one
+     * transaction per migration.
+     */
+    @Test
+    public final void verifyFallbackWithoutTransactionalDdl() {
+        Flyway flyway = createFlyway(dataSource, DECLARATIVE);
+        assertThat(new ReleaseTransactionMigrator(flyway).migrate(),
+                is(EXPECTED_MIGRATIONS));
+        assertThat(new BranchingCallback(createFlyway(dataSource,
+                DECLARATIVE)).getCurrentRelease(), is("v12"));
+    }
+
+    /**
+     * Verifies that all releases are applied and recorded like flyway does.
+     */
+    @Test
+    public final void verifyTransactionalReleases() {
+        Flyway flyway = createFlyway(dataSource, DECLARATIVE);
+        assertThat(new TransactionalMigrator(flyway).migrate(),
+                is(EXPECTED_MIGRATIONS));
+
+        BranchingCallback callback = new BranchingCallback(createFlyway(
+                dataSource, DECLARATIVE));
+        assertThat(callback.getCurrentRelease(), is("v12"));
+        assertThat("Database is at the head release", callback.isUpToDate(),
+                is(true));
+
+        flyway.validate();
+        assertThat("All migrations recorded in the metadata table",
+                flyway.info().applied().length, is(EXPECTED_MIGRATIONS));
+    }
+
+    /**
+     * Verifies that a failing migration rolls back its whole release
+     * including the release switch.
+     * @throws SQLException if reading the item table fails
+     */
+    @Test
+    public final void verifyReleaseIsAtomic() throws SQLException {
+        Flyway flyway = createFlyway(dataSource, ATOMIC);
+        try {
+            new TransactionalMigrator(flyway).migrate();
+            fail("Migration of release v11 is expected to fail");
+        } catch (FlywayException e) {
+            // expected
+        }
+
+        assertThat("Release v11 has not been switched to",
+                new BranchingCallback(createFlyway(dataSource, ATOMIC))
+                        .getCurrentRelease(), is("main"));
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(
+                dataSource.getConnection(), 0);
+        try {
+            assertThat("Data of release v11 has been rolled back",
+                    jdbcTemplate.queryForInt("select count(*) from ITEM"),
+                    is(0));
+            assertThat("Only release main has been recorded",
+                    jdbcTemplate.queryForInt(
+                            "select count(*) from \"schema_version\""),
+                    is(1));
+        } finally {
+            jdbcTemplate.getConnection().close();
+        }
+    }
+
+    /**
+     * Verifies that an index migration is applied outside of the release
+     * transaction when indexes are built online.
+     * @throws SQLException if reading the tables fails
+     */
+    @Test
+    public final void verifyOnlineIndexBuild() throws SQLException {
+        Flyway flyway = createFlyway(dataSource,
+                "db/branching/migrations/online/h2");
+        ReleaseChain releaseChain = new MigrationPlanner(flyway,
+                flyway.getLocations(), 0, true).plan();
+        assertThat(new TransactionalMigrator(flyway, releaseChain).migrate(),
+                is(ONLINE_MIGRATIONS));
+        flyway.validate();
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(
+                dataSource.getConnection(), 0);
+        try {
+            assertThat(jdbcTemplate.queryForInt(
+                    "select count(distinct INDEX_NAME) from "
+                    + "INFORMATION_SCHEMA.INDEXES where INDEX_NAME in "
+                    + "('IDX_ITEM_NAME', 'IDX_ITEM_ID_NAME')"), is(2));
+            assertThat(jdbcTemplate.queryForInt("select count(*) from ITEM"),
+                    is(1));
+        } finally {
+            jdbcTemplate.getConnection().close();
+        }
+    }
+
+    /**
+     * Verifies that a migration backported into a later release is recorded
+     * but executed only once, with and without release transactions.
+     * @throws SQLException if reading the tables fails
+     */
+    @Test
+    public final void verifyBackportedMigrationIsExecutedOnce()
+            throws SQLException {
+        assertThat(new TransactionalMigrator(createFlyway(dataSource,
+                BACKPORT_LOCATION)).migrate(), is(BACKPORT_MIGRATIONS));
+        assertThat(sumBackfilled(), is(2));
+
+        setup();
+        assertThat(new ReleaseTransactionMigrator(createFlyway(dataSource,
+                BACKPORT_LOCATION)).migrate(), is(BACKPORT_MIGRATIONS));
+        assertThat(sumBackfilled(), is(2));
+        createFlyway(dataSource, BACKPORT_LOCATION).validate();
+    }
+
+    /**
+     * Verifies that concurrent runs wait for each other and apply every
+     * migration once. Both runs plan the same migrations while the release
+     * table is locked, the second one skips those applied meanwhile.
+     * @throws Exception if a run fails or reading the item table fails
+     */
+    @Test
+    public final void verifyConcurrentRunsApplyOnce() throws Exception {
+        dataSource.setURL("jdbc:h2:mem:releasetx" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1;MVCC=TRUE;LOCK_TIMEOUT=10000");
+        Flyway flyway = createFlyway(dataSource, CONCURRENT);
+        flyway.setTarget(MigrationVersion.fromVersion("1"));
+        flyway.setCallbacks(new BranchingCallback(flyway));
+        flyway.migrate();
+
+        Connection lockConnection = dataSource.getConnection();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            lockConnection.setAutoCommit(false);
+            new JdbcTemplate(lockConnection, 0).execute(
+                    "select * from \"releasetable\" for update");
+            List<Future<Integer>> runs = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 2; i++) {
+                runs.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() {
+                        return new TransactionalMigrator(createFlyway(
+                                dataSource, CONCURRENT)).migrate();
+                    }
+                }));
+            }
+            Thread.sleep(LOCK_WAIT_MILLIS);
+            lockConnection.commit();
+
+            assertThat("Every migration is applied by one run only",
+                    runs.get(0).get() + runs.get(1).get(), is(2));
+        } finally {
+            executor.shutdownNow();
+            lockConnection.close();
+        }
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(
+                dataSource.getConnection(), 0);
+        try {
+            assertThat(jdbcTemplate.queryForInt("select count(*) from ITEM"),
+                    is(2));
+        } finally {
+            jdbcTemplate.getConnection().close();
+        }
+        createFlyway(dataSource, CONCURRENT).validate();
+    }
+
+    private int sumBackfilled() throws SQLException {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(
+                dataSource.getConnection(), 0);
+        try {
+            return jdbcTemplate.queryForInt(
+                    "select sum(BACKFILLED) from PERSON");
+        } finally {
+            jdbcTemplate.getConnection().close();
+        }
+    }
+
+    /**
+     * Migrator applying releases in one transaction on H2 as well, where
+     * only DML is rolled back.
+     */
+    private static final class TransactionalMigrator
+            extends ReleaseTransactionMigrator {
+        private TransactionalMigrator(final Flyway flyway) {
+            super(flyway);
+        }
+
+        private TransactionalMigrator(final Flyway flyway,
+                final ReleaseChain releaseChain) {
+            super(flyway, releaseChain);
+        }
+
+        @Override
+        protected boolean supportsTransactionalReleases(
+                final DbSupport dbSupport) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension;
+
+import static info.novatec.flyway.branching.extension.FlywayTestSupport.createFlyway;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.sql.SQLException;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.internal.dbsupport.JdbcTemplate;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration test to verify installing squashed baseline scripts into empty
+ * schemas.
+ */
+public class SquashedBaselineInstallerIntegrationTest {
+
+    private static final String LOCATION =
+            "db/branching/migrations/baseline/h2";
+
+    private static final String BASELINE_SCRIPT =
+            "B01_01_00__Squashed_Release_1_1.sql";
+
+    private JdbcDataSource dataSource;
+
+    @Before
+    public final void setup() {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:baseline" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+    }
+
+    /**
+     * Verifies that an empty schema gets the newest baseline and only the
+     * migrations following it are applied.
+     * @throws SQLException if reading the database fails
+     */
+    @Test
+    public final void verifyBaselineIsInstalledIntoEmptySchema()
+            throws SQLException {
+        Flyway flyway = createFlyway(dataSource, LOCATION);
+        BranchingCallback callback = new BranchingCallback(flyway);
+        assertThat("Release table matches the baseline",
+                callback.getCurrentRelease(), is("v11"));
+        flyway.setCallbacks(callback);
+        assertThat("Only release v12 is left", flyway.migrate(), is(1));
+        assertThat(callback.getCurrentRelease(), is("v12"));
+
+        assertThat(queryScript("01.00.00"), is(BASELINE_SCRIPT));
+        assertThat(queryScript("01.01.00"), is(BASELINE_SCRIPT));
+        assertThat(queryScript("01.02.00"),
+                is("V01_02_00__DDL_Add_Email_To_Person_Table.sql"));
+        assertThat(queryInt("select count(*) from PERSON"), is(3));
+
+        Flyway validating = createFlyway(dataSource, LOCATION);
+        validating.validate();
+        assertThat("Superseded migrations are recorded as applied",
+                validating.info().applied().length, is(4));
+    }
+
+    /**
+     * Verifies that a schema that is not empty is migrated as usual.
+     * @throws SQLException if preparing the database fails
+     */
+    @Test
+    public final void verifyNonEmptySchemaIsMigrated() throws SQLException {
+        execute("create table EXISTING (ID int)");
+        Flyway flyway = createFlyway(dataSource, LOCATION);
+
+        assertThat(new SquashedBaselineInstaller(flyway).install(),
+                is(false));
+        BranchingCallback callback = new BranchingCallback(flyway);
+        assertThat(callback.getCurrentRelease(), is("main"));
+        flyway.setCallbacks(callback);
+        assertThat("All migrations are replayed", flyway.migrate(), is(4));
+        assertThat(queryScript("01.00.00"),
+                is("V01_00_00__DDL_Create_Person_Table.sql"));
+    }
+
+    /**
+     * Verifies that nothing is installed for a chain without baselines.
+     */
+    @Test
+    public final void verifyChainWithoutBaselineIsIgnored() {
+        Flyway flyway = createFlyway(dataSource, LOCATION);
+        flyway.setLocations("db/branching/migrations/declarative/h2");
+        assertThat(new SquashedBaselineInstaller(flyway).install(),
+                is(false));
+    }
+
+    private String queryScript(final String version) throws SQLException {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(
+                dataSource.getConnection(), 0);
+        try {
+            return jdbcTemplate.queryForString("select \"script\" from "
+                    + "\"schema_version\" where \"version\" = ?", version);
+        } finally {
+            jdbcTemplate.getConnection().close();
+        }
+    }
+
+    private int queryInt(final String sql) throws SQLException {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(
+                dataSource.getConnection(), 0);
+        try {
+            return jdbcTemplate.queryForInt(sql);
+        } finally {
+            jdbcTemplate.getConnection().close();
+        }
+    }
+
+    private void execute(final String sql) throws SQLException {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(
+                dataSource.getConnection(), 0);
+        try {
+            jdbcTemplate.execute(sql);
+        } finally {
+            jdbcTemplate.getConnection().close();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.cluster;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.callback.FlywayCallback;
+import org.junit.Test;
+
+/**
+ * Integration test to verify that concurrently starting nodes migrate a
+ * shared database only once.
+ */
+public class ClusterMigratorIntegrationTest {
+
+    private static final int NODES = 4;
+
+    private static final int EXPECTED_MIGRATIONS = 4;
+
+    private static final long POLL_INTERVAL = 50L;
+
+    private static final long TIMEOUT = 30000L;
+
+    /**
+     * Verifies that a single leader applies all migrations while the
+     * followers wait for the head release.
+     * @throws Exception if a node fails
+     */
+    @Test
+    public final void verifyLeaderElection() throws Exception {
+        final String url = "jdbc:h2:mem:cluster" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1;MVCC=TRUE";
+
+        ExecutorService executor = Executors.newFixedThreadPool(NODES);
+        List<Future<ClusterMigrator>> nodes =
+                new ArrayList<Future<ClusterMigrator>>();
+        final List<Integer> migrations = new ArrayList<Integer>();
+        try {
+            for (int i = 0; i < NODES; i++) {
+                nodes.add(executor.submit(new Callable<ClusterMigrator>() {
+                    public ClusterMigrator call() {
+                        Flyway flyway = new Flyway();
+                        flyway.setDataSource(url, "sa", null);
+                        flyway.setLocations("db/branching/migrations/h2");
+                        flyway.setValidateOnMigrate(false);
+                        flyway.setBaselineOnMigrate(true);
+                        flyway.setBaselineVersion("0");
+                        ClusterMigrator node = new ClusterMigrator(flyway,
+                                POLL_INTERVAL, TIMEOUT);
+                        int applied = node.migrate();
+                        synchronized (migrations) {
+                            migrations.add(applied);
+                        }
+                        return node;
+                    }
+                }));
+            }
+
+            int leaders = 0;
+            for (Future<ClusterMigrator> node : nodes) {
+                if (node.get().isLeader()) {
+                    leaders++;
+                }
+            }
+            assertThat("At least one node has been elected", leaders,
+                    greaterThanOrEqualTo(1));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int total = 0;
+        for (int applied : migrations) {
+            total += applied;
+        }
+        assertThat("Migrations applied only once", total,
+                is(EXPECTED_MIGRATIONS));
+    }
+
+    /**
+     * Verifies that the leader keeps the callbacks of the user and creates
+     * the lock table in the schema of the release table.
+     * @throws SQLException if querying the lock table fails
+     */
+    @Test
+    public final void verifyUserCallbacksAndLockSchema() throws SQLException {
+        Flyway flyway = new Flyway();
+        flyway.setDataSource("jdbc:h2:mem:clusterschema" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1", "sa", null);
+        flyway.setLocations("db/branching/migrations/tenant/h2");
+        flyway.setSchemas("CLUSTER");
+        flyway.setValidateOnMigrate(false);
+        flyway.setBaselineOnMigrate(true);
+        flyway.setBaselineVersion("0");
+        final List<String> events = new ArrayList<String>();
+        FlywayCallback userCallback = (FlywayCallback) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] {FlywayCallback.class}, new InvocationHandler() {
+                    public Object invoke(final Object proxy,
+                            final Method method, final Object[] args) {
+                        events.add(method.getName());
+                        return null;
+                    }
+                });
+        flyway.setCallbacks(userCallback);
+
+        ClusterMigrator cut = new ClusterMigrator(flyway, POLL_INTERVAL,
+                TIMEOUT);
+        assertThat(cut.migrate(), is(EXPECTED_MIGRATIONS));
+
+        assertThat("User callback has been called",
+                events.contains("afterMigrate"), is(true));
+        assertThat("User callbacks are restored",
+                flyway.getCallbacks().length, is(1));
+        assertThat(flyway.getCallbacks()[0], sameInstance(userCallback));
+        Connection connection = flyway.getDataSource().getConnection();
+        try {
+            assertThat("Lock table in the release schema",
+                    hasTable(connection, "CLUSTER"), is(true));
+            assertThat("No lock table in the default schema",
+                    hasTable(connection, "PUBLIC"), is(false));
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static boolean hasTable(final Connection connection,
+            final String schema) throws SQLException {
+        ResultSet tables = connection.getMetaData().getTables(null, schema,
+                "releaselock", null);
+        try {
+            return tables.next();
+        } finally {
+            tables.close();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.cluster;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.junit.Test;
+
+/**
+ * Integration test to verify the session-scoped advisory lock for H2.
+ */
+public class H2AdvisoryLockIntegrationTest {
+
+    private static final int KEY = 42;
+
+    /**
+     * Verifies that the lock is exclusive and released by unlock.
+     * @throws SQLException if connecting fails
+     */
+    @Test
+    public final void verifyLockIsExclusive() throws SQLException {
+        verifyLockIsExclusive(";MVCC=TRUE");
+        verifyLockIsExclusive("");
+    }
+
+    /**
+     * Verifies that the lock of a closed connection, e.g. of a crashed node,
+     * is released.
+     * @throws SQLException if connecting fails
+     */
+    @Test
+    public final void verifyLockIsReleasedWithConnection()
+            throws SQLException {
+        String url = createUrl(";MVCC=TRUE");
+        Connection first = DriverManager.getConnection(url, "sa", null);
+        Connection second = DriverManager.getConnection(url, "sa", null);
+        try {
+            assertThat(createLock(first).tryLock(), is(true));
+            first.close();
+            assertThat("Lock of the closed connection is released",
+                    createLock(second).tryLock(), is(true));
+        } finally {
+            second.close();
+        }
+    }
+
+    private void verifyLockIsExclusive(final String options)
+            throws SQLException {
+        String url = createUrl(options);
+        Connection first = DriverManager.getConnection(url, "sa", null);
+        Connection second = DriverManager.getConnection(url, "sa", null);
+        try {
+            AdvisoryLock firstLock = createLock(first);
+            AdvisoryLock secondLock = createLock(second);
+            assertThat(firstLock.tryLock(), is(true));
+            assertThat("Lock is held by the first connection",
+                    secondLock.tryLock(), is(false));
+            firstLock.unlock();
+            assertThat(secondLock.tryLock(), is(true));
+            secondLock.unlock();
+        } finally {
+            second.close();
+            first.close();
+        }
+    }
+
+    private String createUrl(final String options) {
+        return "jdbc:h2:mem:lock" + System.nanoTime() + ";DB_CLOSE_DELAY=-1"
+                + options;
+    }
+
+    private AdvisoryLock createLock(final Connection connection) {
+        DbSupport dbSupport = DbSupportFactory.createDbSupport(connection,
+                false);
+        return new H2AdvisoryLock(dbSupport, dbSupport.getCurrentSchema()
+                .getTable("releaselock"), KEY);
+    }
+}
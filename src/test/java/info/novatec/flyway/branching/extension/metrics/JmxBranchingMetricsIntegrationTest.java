@@ -0,0 +1,145 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.metrics;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import info.novatec.flyway.branching.extension.BranchingCallback;
+import info.novatec.flyway.branching.extension.ParallelReleaseMigrator;
+import info.novatec.flyway.branching.extension.ReleaseTransactionMigrator;
+import info.novatec.flyway.branching.extension.plan.MigrationPlanner;
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.junit.Test;
+
+/**
+ * Integration test to verify the metrics recorded for branching migrations.
+ */
+public class JmxBranchingMetricsIntegrationTest {
+
+    private static final long EXPECTED_MIGRATIONS = 4;
+
+    private static final String DECLARATIVE =
+            "db/branching/migrations/declarative/h2";
+
+    /**
+     * Verifies that the metrics of a migration across two releases are
+     * recorded and exposed as MBean.
+     * @throws JMException if reading the MBean fails
+     */
+    @Test
+    public final void verifyMetrics() throws JMException {
+        Flyway flyway = new Flyway();
+        flyway.setDataSource("jdbc:h2:mem:metrics" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1", "sa", null);
+        flyway.setLocations("db/branching/migrations/h2");
+        flyway.setValidateOnMigrate(false);
+        flyway.setBaselineOnMigrate(true);
+        flyway.setBaselineVersion("0");
+
+        JmxBranchingMetrics cut = new JmxBranchingMetrics();
+        BranchingCallback callback = new BranchingCallback(flyway,
+                new MigrationPlanner(flyway, flyway.getLocations()).plan(),
+                false, cut);
+        flyway.setCallbacks(callback);
+        flyway.migrate();
+
+        assertThat(cut.getMigrationCount(), is(EXPECTED_MIGRATIONS));
+        assertThat("Switched from main to v11", cut.getReleaseSwitchCount(),
+                is(1L));
+        assertThat(cut.getReleaseDurations().keySet(),
+                contains("main", "v11"));
+        assertThat(cut.getConnectionCount(), is(1L));
+        assertThat("Fingerprint and release read on creation, release after migrate",
+                cut.getReleaseTableQueryCount(), is(3L));
+        assertThat("Sub-millisecond queries are not truncated",
+                cut.getReleaseTableQueryTime(), greaterThan(0L));
+        assertThat(cut.getMaxReleaseTableQueryTime(),
+                lessThanOrEqualTo(cut.getReleaseTableQueryTime()));
+
+        cut.register();
+        try {
+            assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(
+                    new ObjectName(JmxBranchingMetrics.DEFAULT_OBJECT_NAME),
+                    "MigrationCount"), is((Object) EXPECTED_MIGRATIONS));
+        } finally {
+            cut.unregister();
+        }
+    }
+
+    /**
+     * Verifies that the migrators applying the release chain without
+     * flyway's migrate report the applied migrations and the release
+     * switches, also when falling back to flyway's migrate.
+     */
+    @Test
+    public final void verifyMigratorMetrics() {
+        Flyway flyway = createFlyway();
+        JmxBranchingMetrics cut = new JmxBranchingMetrics();
+        new ReleaseTransactionMigrator(flyway, plan(flyway), cut).migrate();
+        assertMigratorMetrics(cut);
+
+        flyway = createFlyway();
+        cut = new JmxBranchingMetrics();
+        new ReleaseTransactionMigrator(flyway, plan(flyway), cut) {
+            @Override
+            protected boolean supportsTransactionalReleases(
+                    final DbSupport dbSupport) {
+                return true;
+            }
+        }.migrate();
+        assertMigratorMetrics(cut);
+
+        flyway = createFlyway();
+        cut = new JmxBranchingMetrics();
+        new ParallelReleaseMigrator(flyway, plan(flyway), 2, cut).migrate();
+        assertMigratorMetrics(cut);
+    }
+
+    private static void assertMigratorMetrics(final JmxBranchingMetrics cut) {
+        assertThat(cut.getMigrationCount(), is(EXPECTED_MIGRATIONS));
+        assertThat("Switched from main to v11 and v12",
+                cut.getReleaseSwitchCount(), is(2L));
+        assertThat(cut.getReleaseDurations().keySet(),
+                contains("main", "v11", "v12"));
+    }
+
+    private static Flyway createFlyway() {
+        Flyway flyway = new Flyway();
+        flyway.setDataSource("jdbc:h2:mem:migratormetrics" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1", "sa", null);
+        flyway.setLocations(DECLARATIVE);
+        flyway.setBaselineOnMigrate(true);
+        flyway.setBaselineVersion("0");
+        return flyway;
+    }
+
+    private static ReleaseChain plan(final Flyway flyway) {
+        return new MigrationPlanner(flyway, flyway.getLocations(), 0, true)
+                .plan();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.flywaydb.core.internal.util.PlaceholderReplacer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration test to verify the batched execution of sql scripts.
+ */
+public class BatchingSqlScriptExecutorIntegrationTest {
+
+    private static final int BATCH_SIZE = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Connection connection;
+
+    private DbSupport dbSupport;
+
+    @Before
+    public final void setup() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:batching"
+                + System.nanoTime(), "sa", null);
+        dbSupport = DbSupportFactory.createDbSupport(connection, false);
+    }
+
+    @After
+    public final void cleanup() throws SQLException {
+        connection.close();
+    }
+
+    /**
+     * Verifies that DML and DDL statements are executed in script order.
+     * @throws SQLException if counting the rows fails
+     */
+    @Test
+    public final void verifyStatementOrder() throws SQLException {
+        execute("create table T (ID int primary key);\n"
+                + "insert into T values (1);\n"
+                + "insert into T values (2);\n"
+                + "insert into T values (3);\n"
+                + "alter table T add column NAME varchar(10);\n"
+                + "update T set NAME = 'x';\n");
+
+        assertThat(dbSupport.getJdbcTemplate().queryForInt(
+                "select count(*) from T where NAME = 'x'"), is(3));
+    }
+
+    /**
+     * Verifies that a failing batch is reported with its position.
+     */
+    @Test
+    public final void verifyBatchFailure() {
+        try {
+            execute("create table T (ID int primary key);\n"
+                    + "insert into T values (1);\n"
+                    + "insert into T values (2);\n"
+                    + "insert into T values (2);\n"
+                    + "insert into T values (3);\n");
+            fail("Duplicate key expected");
+        } catch (SqlBatchException e) {
+            assertThat(e.getBatchNumber(), is(2));
+            assertThat(e.getFirstLine(), is(4));
+            assertThat(e.getLastLine(), is(5));
+            assertThat(e.getLineNumber(), is(4));
+        }
+    }
+
+    private void execute(final String script) {
+        new BatchingSqlScriptExecutor(BATCH_SIZE).execute(connection,
+                dbSupport, null, new StreamingSqlScript(dbSupport,
+                        new ByteArrayInputStream(script.getBytes(UTF_8)),
+                        "UTF-8", new PlaceholderReplacer(
+                                new HashMap<String, String>(), "${", "}")));
+    }
+}
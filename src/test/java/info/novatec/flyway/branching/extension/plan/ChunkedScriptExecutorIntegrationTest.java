@@ -0,0 +1,127 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import static info.novatec.flyway.branching.extension.FlywayTestSupport.createFlyway;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import info.novatec.flyway.branching.extension.BranchingCallback;
+import info.novatec.flyway.branching.extension.ReleaseTransactionMigrator;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration test to verify chunked, resumable data migrations.
+ */
+public class ChunkedScriptExecutorIntegrationTest {
+
+    private static final String LOCATION =
+            "db/branching/migrations/chunked/h2";
+
+    private static final MigrationVersion CHUNKED_VERSION =
+            MigrationVersion.fromVersion("01.01.00");
+
+    private static final int PERSONS = 25;
+
+    private static final long CHECKPOINT = 10L;
+
+    private JdbcDataSource dataSource;
+
+    @Before
+    public final void setup() {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:chunked" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+    }
+
+    /**
+     * Verifies that all rows are migrated and the checkpoint ends at the
+     * last key.
+     * @throws SQLException if reading the tables fails
+     */
+    @Test
+    public final void verifyChunkedMigration() throws SQLException {
+        assertThat(new ReleaseTransactionMigrator(createFlyway(dataSource,
+                LOCATION)).migrate(), is(2));
+
+        Connection connection = dataSource.getConnection();
+        try {
+            DbSupport dbSupport = DbSupportFactory.createDbSupport(
+                    connection, false);
+            assertThat(dbSupport.getJdbcTemplate().queryForInt(
+                    "select sum(BACKFILLED) from PERSON"), is(PERSONS));
+            assertThat(new ChunkCheckpointTable(dbSupport,
+                    getClass().getClassLoader()).getLastKey(connection,
+                    CHUNKED_VERSION), is((long) PERSONS));
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Verifies that a restarted migration resumes after the checkpoint.
+     * @throws SQLException if accessing the tables fails
+     */
+    @Test
+    public final void verifyResumeAfterCheckpoint() throws SQLException {
+        Flyway flyway = createFlyway(dataSource, LOCATION);
+        flyway.setTarget(MigrationVersion.fromVersion("01.00.00"));
+        flyway.setCallbacks(new BranchingCallback(flyway,
+                new MigrationPlanner(flyway, flyway.getLocations()).plan(),
+                true));
+        assertThat(flyway.migrate(), is(1));
+
+        Connection connection = dataSource.getConnection();
+        try {
+            DbSupport dbSupport = DbSupportFactory.createDbSupport(
+                    connection, false);
+            ChunkCheckpointTable checkpoints = new ChunkCheckpointTable(
+                    dbSupport, getClass().getClassLoader());
+            checkpoints.createIfNotExists();
+            checkpoints.setLastKey(connection, CHUNKED_VERSION, CHECKPOINT);
+
+            assertThat(new ReleaseTransactionMigrator(createFlyway(
+                    dataSource, LOCATION)).migrate(), is(1));
+            assertThat("Rows up to the checkpoint are not migrated again",
+                    dbSupport.getJdbcTemplate().queryForInt(
+                            "select sum(BACKFILLED) from PERSON"),
+                    is(PERSONS - (int) CHECKPOINT));
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Verifies that a directive without key is rejected.
+     */
+    @Test(expected = FlywayException.class)
+    public final void verifyKeyIsRequired() {
+        ChunkedScriptExecutor.fromDirective(" table=PERSON, size=10",
+                "V1__Test.sql");
+    }
+}
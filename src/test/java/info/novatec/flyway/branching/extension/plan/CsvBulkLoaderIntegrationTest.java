@@ -0,0 +1,111 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import static info.novatec.flyway.branching.extension.FlywayTestSupport.createFlyway;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import info.novatec.flyway.branching.extension.ReleaseTransactionMigrator;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.zip.CRC32;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.flywaydb.core.internal.util.scanner.classpath.ClassPathResource;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration test to verify bulk loads of CSV files.
+ */
+public class CsvBulkLoaderIntegrationTest {
+
+    private static final String LOCATION =
+            "db/branching/migrations/bulkload/h2";
+
+    private static final String SCRIPT = LOCATION
+            + "/main/V01_00_01__DML_Load_Persons.sql";
+
+    private static final int PERSONS = 3;
+
+    private JdbcDataSource dataSource;
+
+    @Before
+    public final void setup() {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:bulkload" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+    }
+
+    /**
+     * Verifies that the CSV file is loaded before the statements of the
+     * script and the migration is recorded in the metadata table.
+     * @throws SQLException if reading the tables fails
+     */
+    @Test
+    public final void verifyBulkLoad() throws SQLException {
+        Flyway flyway = createFlyway(dataSource, LOCATION);
+        assertThat(new ReleaseTransactionMigrator(flyway).migrate(), is(3));
+
+        Connection connection = dataSource.getConnection();
+        try {
+            DbSupport dbSupport = DbSupportFactory.createDbSupport(
+                    connection, false);
+            assertThat(dbSupport.getJdbcTemplate().queryForInt(
+                    "select count(*) from PERSON"), is(PERSONS));
+            assertThat(dbSupport.getJdbcTemplate().queryForString(
+                    "select NAME from PERSON where ID = 3"),
+                    is("Carol, Jr."));
+            assertThat(dbSupport.getJdbcTemplate().queryForString(
+                    "select CITY from PERSON where ID = 3"), is("Unknown"));
+        } finally {
+            connection.close();
+        }
+        assertThat(flyway.info().current().getVersion(),
+                is(MigrationVersion.fromVersion("01.01.00")));
+    }
+
+    /**
+     * Verifies that the checksum of a bulk load covers the CSV file.
+     */
+    @Test
+    public final void verifyChecksumIncludesCsv() {
+        CatalogScriptRunner runner = new CatalogScriptRunner(
+                getClass().getClassLoader(), null, "UTF-8", 0, false);
+        ClassPathResource script = new ClassPathResource(SCRIPT,
+                getClass().getClassLoader());
+        CRC32 crc32 = new CRC32();
+        crc32.update(script.loadAsBytes());
+        assertThat(runner.checksum(script), not(is((int) crc32.getValue())));
+    }
+
+    /**
+     * Verifies that a directive without table is rejected.
+     */
+    @Test(expected = FlywayException.class)
+    public final void verifyTableIsRequired() {
+        CsvBulkLoader.fromDirective(" persons.csv", "V1__Test.sql");
+    }
+}
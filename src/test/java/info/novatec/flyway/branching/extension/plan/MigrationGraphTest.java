@@ -0,0 +1,99 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.MigrationVersion;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test to verify the dependency graph of the migrations of a release.
+ */
+public class MigrationGraphTest {
+
+    private List<PlannedMigration> migrations;
+
+    @Before
+    public final void setup() {
+        Flyway flyway = new Flyway();
+        flyway.setLocations("db/branching/migrations/parallel/h2");
+        migrations = new MigrationPlanner(flyway, flyway.getLocations())
+                .plan().getPlan("main", MigrationVersion.EMPTY, null)
+                .getMigrations();
+    }
+
+    /**
+     * Verifies the declared dependencies.
+     */
+    @Test
+    public final void verifyDeclaredDependencies() {
+        MigrationGraph graph = new MigrationGraph(migrations.subList(1, 4));
+
+        assertThat(graph.getPrerequisites(migrations.get(1)), is(empty()));
+        assertThat(graph.getPrerequisites(migrations.get(2)), is(empty()));
+        assertThat(graph.getPrerequisites(migrations.get(3)),
+                contains(migrations.get(1), migrations.get(2)));
+    }
+
+    /**
+     * Verifies the migrations ready to be applied while the graph is
+     * processed.
+     */
+    @Test
+    public final void verifyReadyMigrations() {
+        MigrationGraph graph = new MigrationGraph(migrations.subList(1, 4));
+        Set<PlannedMigration> applied = new HashSet<PlannedMigration>();
+        Set<PlannedMigration> running = new HashSet<PlannedMigration>();
+
+        assertThat(graph.getReady(applied, running),
+                contains(migrations.get(1), migrations.get(2)));
+
+        running.add(migrations.get(2));
+        applied.add(migrations.get(1));
+        assertThat(graph.getReady(applied, running), is(empty()));
+
+        running.clear();
+        applied.add(migrations.get(2));
+        assertThat(graph.getReady(applied, running),
+                contains(migrations.get(3)));
+    }
+
+    /**
+     * Verifies that a migration without directive depends on all previous
+     * migrations.
+     */
+    @Test
+    public final void verifyUndeclaredDependencies() {
+        MigrationGraph graph = new MigrationGraph(migrations);
+
+        assertThat(graph.getReady(Collections.<PlannedMigration>emptySet(),
+                Collections.<PlannedMigration>emptySet()),
+                contains(migrations.get(0), migrations.get(1),
+                        migrations.get(2)));
+        assertThat(graph.getPrerequisites(migrations.get(0)), is(empty()));
+    }
+}
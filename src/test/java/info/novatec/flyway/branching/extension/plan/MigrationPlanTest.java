@@ -0,0 +1,134 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.resolver.ResolvedMigration;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test to verify the offline migration plan of the release chain.
+ */
+public class MigrationPlanTest {
+
+    private ReleaseChain releaseChain;
+
+    @Before
+    public final void setup() {
+        Flyway flyway = new Flyway();
+        flyway.setLocations("db/branching/migrations/declarative/h2");
+        releaseChain = new MigrationPlanner(flyway, flyway.getLocations())
+                .plan();
+    }
+
+    /**
+     * Verifies the plan for an empty database.
+     */
+    @Test
+    public final void verifyPlanFromScratch() {
+        MigrationPlan plan = releaseChain.getPlan("main",
+                MigrationVersion.EMPTY, null);
+
+        assertThat(plan.getMigrations().size(), is(4));
+        assertThat(plan.getReleaseSwitches(), contains("v11", "v12"));
+        assertThat(plan.getToRelease(), is("v12"));
+    }
+
+    /**
+     * Verifies the plan for a partially migrated database up to a target
+     * release.
+     */
+    @Test
+    public final void verifyPlanToTargetRelease() {
+        MigrationPlan plan = releaseChain.getPlan("main",
+                MigrationVersion.fromVersion("01.00.01"), "v11");
+
+        assertThat(plan.getMigrations().size(), is(1));
+        assertThat(plan.getMigrations().get(0).getMigration().getVersion(),
+                is(MigrationVersion.fromVersion("01.01.00")));
+        assertThat(plan.getReleaseSwitches(), contains("v11"));
+    }
+
+    /**
+     * Verifies that a migration backported into a later release is skipped,
+     * whether the original is planned as well or has already been applied.
+     */
+    @Test
+    public final void verifyBackportedMigrationIsSkipped() {
+        Flyway flyway = new Flyway();
+        flyway.setLocations("db/branching/migrations/backport/h2");
+        ReleaseChain backportChain = new MigrationPlanner(flyway,
+                flyway.getLocations()).plan();
+
+        MigrationPlan plan = backportChain.getPlan("main",
+                MigrationVersion.EMPTY, null);
+        assertThat(plan.getMigrations().size(), is(4));
+        assertThat(plan.getSkippedMigrations().size(), is(1));
+        DuplicateMigration duplicate = (DuplicateMigration) plan
+                .getSkippedMigrations().get(0).getMigration();
+        assertThat(duplicate.getVersion(),
+                is(MigrationVersion.fromVersion("01.01.00")));
+        assertThat(duplicate.getOriginal().getMigration().getVersion(),
+                is(MigrationVersion.fromVersion("01.00.01")));
+
+        assertThat(backportChain.getPlan("main",
+                MigrationVersion.fromVersion("01.00.01"), null)
+                .getSkippedMigrations().size(), is(1));
+        assertThat("Nothing is skipped without backports",
+                releaseChain.getPlan("main", MigrationVersion.EMPTY, null)
+                        .getSkippedMigrations().size(), is(0));
+    }
+
+    /**
+     * Verifies that only scripts of the same size as a planned script are
+     * read for comparing their content.
+     */
+    @Test
+    public final void verifyOnlyScriptsOfSameSizeAreHashed() {
+        Flyway flyway = new Flyway();
+        flyway.setLocations("db/branching/migrations/backport/h2");
+        ReleaseChain backportChain = new MigrationPlanner(flyway,
+                flyway.getLocations()).plan();
+
+        backportChain.getPlan("main", MigrationVersion.EMPTY, null);
+        int hashed = 0;
+        for (String release : backportChain.getReleases()) {
+            for (ResolvedMigration migration : backportChain.getCatalog()
+                    .getMigrations(release).values()) {
+                if (((CatalogMigration) migration).isContentHashed()) {
+                    hashed++;
+                }
+            }
+        }
+        assertThat("Only the backported script and its original are hashed",
+                hashed, is(2));
+    }
+
+    /**
+     * Verifies that a plan back to an earlier release is rejected.
+     */
+    @Test(expected = FlywayException.class)
+    public final void verifyDowngradeIsRejected() {
+        releaseChain.getPlan("v12", MigrationVersion.EMPTY, "main");
+    }
+}
@@ -0,0 +1,90 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.resolver.ResolvedMigration;
+import org.junit.Test;
+
+/**
+ * Test to verify the recognition and rewriting of index creations built
+ * online.
+ */
+public class OnlineIndexBuilderTest {
+
+    /**
+     * Verifies which statements are recognized as index creations.
+     */
+    @Test
+    public final void verifyIndexCreationIsRecognized() {
+        assertThat(OnlineIndexBuilder.isCreateIndex(
+                "create index IDX_A on A (B)"), is(true));
+        assertThat(OnlineIndexBuilder.isCreateIndex(
+                "CREATE UNIQUE INDEX IF NOT EXISTS \"Idx\" ON A (B)"),
+                is(true));
+        assertThat(OnlineIndexBuilder.isCreateIndex(
+                "create index on A (B)"), is(false));
+        assertThat(OnlineIndexBuilder.isCreateIndex(
+                "create table A (B int)"), is(false));
+    }
+
+    /**
+     * Verifies the rewriting to a concurrent index creation.
+     */
+    @Test
+    public final void verifyConcurrentRewrite() {
+        assertThat(OnlineIndexBuilder.toConcurrent(
+                "create unique index IDX_A on A (B)"),
+                is("create unique index concurrently IDX_A on A (B)"));
+        assertThat(OnlineIndexBuilder.toConcurrent(
+                "CREATE INDEX CONCURRENTLY IDX_A ON A (B)"),
+                is("CREATE INDEX CONCURRENTLY IDX_A ON A (B)"));
+        assertThat(OnlineIndexBuilder.getIndexName(
+                "create index IDX_A on A (B)"), is("idx_a"));
+        assertThat(OnlineIndexBuilder.getIndexName(
+                "create index if not exists \"Idx\" on A (B)"), is("Idx"));
+    }
+
+    /**
+     * Verifies that only index scripts are executed outside of a
+     * transaction and only if online index builds are enabled.
+     */
+    @Test
+    public final void verifyIndexMigrationsRunOutsideTransaction() {
+        Flyway flyway = new Flyway();
+        flyway.setLocations("db/branching/migrations/online/h2");
+
+        ReleaseChain online = new MigrationPlanner(flyway,
+                flyway.getLocations(), 0, true).plan();
+        assertThat(isTransactional(online, "2"), is(false));
+        assertThat(isTransactional(online, "3"), is(true));
+
+        ReleaseChain offline = new MigrationPlanner(flyway,
+                flyway.getLocations()).plan();
+        assertThat(isTransactional(offline, "2"), is(true));
+    }
+
+    private boolean isTransactional(final ReleaseChain releaseChain,
+            final String version) {
+        ResolvedMigration migration = releaseChain.getCatalog()
+                .getMigrations("v11").get(MigrationVersion.fromVersion(version));
+        return migration.getExecutor().executeInTransaction();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.plan;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.flywaydb.core.internal.dbsupport.SqlScript;
+import org.flywaydb.core.internal.dbsupport.SqlStatement;
+import org.flywaydb.core.internal.util.PlaceholderReplacer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration test to verify that streamed sql scripts are parsed like
+ * flyway's own sql scripts.
+ */
+public class StreamingSqlScriptIntegrationTest {
+
+    private static final String SCRIPT = "-- comment\n"
+            + "create table ${table} (\n"
+            + "    ID int primary key,\n"
+            + "    NAME varchar(100)\n"
+            + ");\n"
+            + "/* multi-line\n"
+            + "   comment */\n"
+            + "\n"
+            + "insert into ${table} values (1, 'a;b');\n"
+            + "insert into ${table} values (2, 'c')";
+
+    private Connection connection;
+
+    private DbSupport dbSupport;
+
+    private PlaceholderReplacer placeholderReplacer;
+
+    @Before
+    public final void setup() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:streaming"
+                + System.nanoTime(), "sa", null);
+        dbSupport = DbSupportFactory.createDbSupport(connection, false);
+        Map<String, String> placeholders =
+                Collections.singletonMap("table", "PERSON");
+        placeholderReplacer = new PlaceholderReplacer(placeholders, "${", "}");
+    }
+
+    @After
+    public final void cleanup() throws SQLException {
+        connection.close();
+    }
+
+    /**
+     * Verifies that the streamed statements match the statements parsed by
+     * flyway, including line numbers and replaced placeholders.
+     * @throws Exception if reading the script fails
+     */
+    @Test
+    public final void verifyStatementsMatchFlyway() throws Exception {
+        List<SqlStatement> expected = new SqlScript(
+                placeholderReplacer.replacePlaceholders(SCRIPT), dbSupport)
+                .getSqlStatements();
+
+        List<SqlStatement> actual = new ArrayList<SqlStatement>();
+        for (SqlStatement sqlStatement : new StreamingSqlScript(dbSupport,
+                new ByteArrayInputStream(SCRIPT.getBytes("UTF-8")), "UTF-8",
+                placeholderReplacer)) {
+            actual.add(sqlStatement);
+        }
+
+        assertThat(actual.size(), is(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(actual.get(i).getSql(), is(expected.get(i).getSql()));
+            assertThat(actual.get(i).getLineNumber(),
+                    is(expected.get(i).getLineNumber()));
+        }
+    }
+}
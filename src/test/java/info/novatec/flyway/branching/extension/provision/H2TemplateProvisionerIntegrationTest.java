@@ -0,0 +1,145 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.provision;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import info.novatec.flyway.branching.extension.BranchingCallback;
+import info.novatec.flyway.branching.extension.FlywayTestSupport;
+import info.novatec.flyway.branching.extension.plan.MigrationPlanner;
+import info.novatec.flyway.branching.extension.plan.ReleaseChain;
+
+import java.sql.SQLException;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.internal.dbsupport.JdbcTemplate;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration test to verify provisioning H2 databases from a template.
+ */
+public class H2TemplateProvisionerIntegrationTest {
+
+    private static final String LOCATION =
+            "db/branching/migrations/declarative/h2";
+
+    private static final String URL_PATTERN =
+            "jdbc:h2:mem:%s;DB_CLOSE_DELAY=-1";
+
+    private String prefix;
+
+    private Flyway templateFlyway;
+
+    private ReleaseChain releaseChain;
+
+    @Before
+    public final void setup() {
+        prefix = "provisioned" + System.nanoTime();
+        templateFlyway = createFlyway(prefix + "template");
+        releaseChain = new MigrationPlanner(templateFlyway,
+                templateFlyway.getLocations()).plan();
+    }
+
+    /**
+     * Verifies that provisioned databases are at the head release without
+     * replaying the migrations.
+     * @throws SQLException if reading the provisioned database fails
+     */
+    @Test
+    public final void verifyProvisioningAtHeadRelease() throws SQLException {
+        H2TemplateProvisioner cut = createProvisioner();
+        cut.buildTemplate(null);
+        assertThat(cut.getTemplateRelease(), is("v12"));
+
+        cut.provision(prefix + "tenant1");
+        cut.provision(prefix + "tenant2");
+
+        BranchingCallback callback = new BranchingCallback(createFlyway(
+                prefix + "tenant2"));
+        assertThat(callback.getCurrentRelease(), is("v12"));
+        assertThat("Provisioned database is up to date",
+                callback.isUpToDate(), is(true));
+        Flyway flyway = createFlyway(prefix + "tenant2");
+        flyway.validate();
+        assertThat("Baseline and all migrations are recorded",
+                flyway.info().applied().length, is(5));
+        assertThat(countPersons(prefix + "tenant1"), is(3));
+    }
+
+    /**
+     * Verifies that a database provisioned at an earlier release continues
+     * with the remaining releases.
+     */
+    @Test
+    public final void verifyProvisioningAtEarlierRelease() {
+        H2TemplateProvisioner cut = createProvisioner();
+        cut.buildTemplate("v11");
+        assertThat("Template flyway settings are restored",
+                templateFlyway.getTarget(), is(MigrationVersion.LATEST));
+        assertThat(templateFlyway.getLocations(), is(new String[] {
+                "classpath:" + LOCATION}));
+        assertThat(templateFlyway.getCallbacks().length, is(0));
+        assertThat(templateFlyway.getResolvers().length, is(0));
+        cut.provision(prefix + "tenant");
+
+        Flyway flyway = createFlyway(prefix + "tenant");
+        BranchingCallback callback = new BranchingCallback(flyway);
+        assertThat(callback.getCurrentRelease(), is("v11"));
+        flyway.setCallbacks(callback);
+        assertThat("Only release v12 is left", flyway.migrate(), is(1));
+        assertThat(callback.getCurrentRelease(), is("v12"));
+    }
+
+    /**
+     * Verifies that provisioning requires a built template.
+     */
+    @Test(expected = FlywayException.class)
+    public final void verifyTemplateIsRequired() {
+        createProvisioner().provision(prefix + "tenant");
+    }
+
+    private H2TemplateProvisioner createProvisioner() {
+        return new H2TemplateProvisioner(templateFlyway, releaseChain,
+                URL_PATTERN, "sa", "");
+    }
+
+    private int countPersons(final String database) throws SQLException {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(createDataSource(
+                database).getConnection(), 0);
+        try {
+            return jdbcTemplate.queryForInt("select count(*) from PERSON");
+        } finally {
+            jdbcTemplate.getConnection().close();
+        }
+    }
+
+    private Flyway createFlyway(final String database) {
+        return FlywayTestSupport.createFlyway(createDataSource(database),
+                LOCATION);
+    }
+
+    private JdbcDataSource createDataSource(final String database) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(String.format(URL_PATTERN, database));
+        dataSource.setUser("sa");
+        return dataSource;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.release;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration test to verify the read-through cache of the current release.
+ */
+public class CachingReleaseTableIntegrationTest {
+
+    private static final long SHORT_TTL_MILLIS = 50;
+
+    private Connection connection;
+
+    private DbSupport dbSupport;
+
+    @Before
+    public final void setup() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:cachingrelease"
+                + System.nanoTime(), "sa", null);
+        dbSupport = DbSupportFactory.createDbSupport(connection, false);
+    }
+
+    @After
+    public final void cleanup() throws SQLException {
+        connection.close();
+    }
+
+    /**
+     * Verifies that the current release is read only once within its time
+     * to live and again after explicit invalidation.
+     */
+    @Test
+    public final void verifyReleaseIsCached() {
+        CachingReleaseTable cut = new CachingReleaseTable(
+                createReleaseTable(), 1, TimeUnit.HOURS);
+
+        assertThat(cut.getCurrentRelease(), is("main"));
+        assertThat(cut.getCurrentRelease(), is("main"));
+        assertThat("Release is loaded once", cut.getLoadCount(), is(1));
+
+        cut.invalidateCache();
+        assertThat(cut.getCurrentRelease(), is("main"));
+        assertThat("Release is loaded after invalidation",
+                cut.getLoadCount(), is(2));
+    }
+
+    /**
+     * Verifies that an expired release is loaded again.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public final void verifyReleaseExpires() throws InterruptedException {
+        CachingReleaseTable cut = new CachingReleaseTable(
+                createReleaseTable(), SHORT_TTL_MILLIS, TimeUnit.MILLISECONDS);
+
+        cut.getCurrentRelease();
+        Thread.sleep(2 * SHORT_TTL_MILLIS);
+        cut.getCurrentRelease();
+        assertThat("Release is loaded after expiry", cut.getLoadCount(),
+                is(2));
+    }
+
+    /**
+     * Verifies that a release switch invalidates the cache and calls the
+     * notifier.
+     */
+    @Test
+    public final void verifyReleaseSwitchInvalidates() {
+        final List<String> notified = new ArrayList<String>();
+        CachingReleaseTable cut = new CachingReleaseTable(
+                createReleaseTable(), 1, TimeUnit.HOURS,
+                new ReleaseChangeNotifier() {
+                    public void releaseChanged(final String release) {
+                        notified.add(release);
+                    }
+                });
+
+        assertThat(cut.getCurrentRelease(), is("main"));
+        cut.setCurrentRelease("v11");
+        assertThat(cut.getCurrentRelease(), is("v11"));
+        assertThat(notified, contains("v11"));
+    }
+
+    private ReleaseTableImpl createReleaseTable() {
+        return ReleaseTableImpl.forSchema(dbSupport,
+                dbSupport.getCurrentSchema());
+    }
+}
@@ -0,0 +1,276 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.release;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.flywaydb.core.internal.dbsupport.DbSupport;
+import org.flywaydb.core.internal.dbsupport.DbSupportFactory;
+import org.flywaydb.core.internal.dbsupport.JdbcTemplate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration test to verify the release table implementation.
+ */
+public class ReleaseTableImplIntegrationTest {
+
+    private static final long SWITCH_DELAY_MILLIS = 500;
+
+    private static final long CLOCK_SKEW_MILLIS = 60000;
+
+    private Connection connection;
+
+    private DbSupport dbSupport;
+
+    @Before
+    public final void setup() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:releasetable"
+                + System.nanoTime(), "sa", null);
+        dbSupport = DbSupportFactory.createDbSupport(connection, false);
+    }
+
+    @After
+    public final void cleanup() throws SQLException {
+        connection.close();
+    }
+
+    /**
+     * Verifies that the existence of the release table is checked only once
+     * until the cache is invalidated.
+     */
+    @Test
+    public final void verifyExistenceCheckIsCached() {
+        ReleaseTableImpl cut = createReleaseTable();
+
+        assertThat(cut.getCurrentRelease(), is("main"));
+        cut.setCurrentRelease("v11");
+        cut.lock();
+        assertThat(cut.getCurrentRelease(), is("v11"));
+        assertThat("Existence is checked once",
+                cut.getCatalogQueryCount(), is(1));
+
+        cut.invalidate();
+        cut.getCurrentRelease();
+        assertThat("Table and its columns are checked after invalidation",
+                cut.getCatalogQueryCount(), is(4));
+    }
+
+    /**
+     * Verifies that the existence of the optional columns is checked only
+     * once until the cache is invalidated.
+     */
+    @Test
+    public final void verifyColumnCheckIsCached() {
+        ReleaseTableImpl cut = createReleaseTable();
+        cut.getCurrentRelease();
+
+        cut.setFingerprint("abc");
+        cut.getFingerprint();
+        cut.setReleaseState("COMPLETED");
+        cut.getReleaseState();
+        cut.getFingerprint();
+        assertThat("Columns of a created table are not checked",
+                cut.getCatalogQueryCount(), is(1));
+
+        cut.invalidate();
+        cut.getReleaseState();
+        cut.getFingerprint();
+        assertThat("Table and each column are checked once after "
+                + "invalidation", cut.getCatalogQueryCount(), is(4));
+    }
+
+    /**
+     * Verifies that a release table created by an earlier version gets the
+     * optional columns when it is first accessed, not by the setters.
+     * @throws SQLException if creating the old table fails
+     */
+    @Test
+    public final void verifyUpgradeOfOldTable() throws SQLException {
+        JdbcTemplate jdbcTemplate = dbSupport.getJdbcTemplate();
+        jdbcTemplate.execute("create table \"releasetable\" ("
+                + "\"CURRENT_RELEASE\" varchar(20) not null, "
+                + "\"CREATED_ON\" timestamp default current_timestamp "
+                + "not null)");
+        jdbcTemplate.execute("insert into \"releasetable\" "
+                + "(\"CURRENT_RELEASE\") values ('main')");
+
+        ReleaseTableImpl cut = createReleaseTable();
+        assertThat("No column added for reading the fingerprint",
+                cut.getFingerprint(), is((String) null));
+        assertThat(dbSupport.getCurrentSchema().getTable("releasetable")
+                .hasColumn("FINGERPRINT"), is(false));
+
+        assertThat(cut.getCurrentRelease(), is("main"));
+        assertThat(dbSupport.getCurrentSchema().getTable("releasetable")
+                .hasColumn("FINGERPRINT"), is(true));
+        cut.setFingerprint("abc");
+        cut.setReleaseState("COMPLETED");
+        assertThat(cut.getFingerprint(), is("abc"));
+        assertThat(cut.getReleaseState(), is("COMPLETED"));
+    }
+
+    /**
+     * Verifies that the release table is recreated after it has been
+     * dropped and the cache has been invalidated.
+     * @throws SQLException if dropping the table fails
+     */
+    @Test
+    public final void verifyInvalidateAfterClean() throws SQLException {
+        ReleaseTableImpl cut = createReleaseTable();
+        cut.setCurrentRelease("v11");
+
+        dbSupport.getCurrentSchema().clean();
+        cut.invalidate();
+
+        assertThat(cut.getCurrentRelease(), is("main"));
+    }
+
+    /**
+     * Verifies that every release switch is appended to the release history
+     * and the latest switch is the current release.
+     * @throws SQLException if counting the history fails
+     */
+    @Test
+    public final void verifyReleaseHistory() throws SQLException {
+        ReleaseTableImpl cut = createReleaseTable();
+        cut.setCurrentRelease("v11");
+        cut.setCurrentRelease("v12");
+        cut.setCurrentRelease("v13");
+
+        assertThat(cut.getCurrentRelease(), is("v13"));
+        assertThat("One row per release switch",
+                dbSupport.getJdbcTemplate().queryForInt(
+                        "select count(*) from \"releasetable\""), is(4));
+    }
+
+    /**
+     * Verifies that concurrent release switches are serialized, so a switch
+     * follows a concurrent one even if that one was done by a node whose
+     * clock is ahead.
+     * @throws Exception if accessing the release table fails
+     */
+    @Test
+    public final void verifyConcurrentSwitches() throws Exception {
+        String url = "jdbc:h2:mem:concurrentswitch" + System.nanoTime()
+                + ";MVCC=TRUE;LOCK_TIMEOUT=10000";
+        Connection first = DriverManager.getConnection(url, "sa", null);
+        final Connection second = DriverManager.getConnection(url, "sa",
+                null);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ReleaseTableImpl releaseTable = createReleaseTable(first);
+            releaseTable.getCurrentRelease();
+            first.setAutoCommit(false);
+            releaseTable.lock();
+            PreparedStatement statement = first.prepareStatement(
+                    "insert into \"releasetable\" (\"CURRENT_RELEASE\", "
+                            + "\"CREATED_ON\") values ('v11', ?)");
+            try {
+                statement.setTimestamp(1, new Timestamp(
+                        System.currentTimeMillis() + CLOCK_SKEW_MILLIS));
+                statement.executeUpdate();
+            } finally {
+                statement.close();
+            }
+
+            Future<Void> switched = executor.submit(new Callable<Void>() {
+                public Void call() throws SQLException {
+                    second.setAutoCommit(false);
+                    createReleaseTable(second).setCurrentRelease("v12");
+                    second.commit();
+                    return null;
+                }
+            });
+            Thread.sleep(SWITCH_DELAY_MILLIS);
+            first.commit();
+            switched.get();
+
+            assertThat(createReleaseTable(first).getCurrentRelease(),
+                    is("v12"));
+            assertThat("One creation time per release switch",
+                    new JdbcTemplate(first, 0).queryForInt(
+                            "select count(distinct \"CREATED_ON\") "
+                                    + "from \"releasetable\""), is(3));
+        } finally {
+            executor.shutdownNow();
+            second.close();
+            first.close();
+        }
+    }
+
+    /**
+     * Verifies that the fingerprint is stored with the latest release switch
+     * and reset by the next one.
+     */
+    @Test
+    public final void verifyFingerprint() {
+        ReleaseTableImpl cut = createReleaseTable();
+        cut.setFingerprint("abc");
+        assertThat(cut.getFingerprint(), is("abc"));
+
+        cut.setCurrentRelease("v11");
+        assertThat("Release switch resets the fingerprint",
+                cut.getFingerprint(), is((String) null));
+    }
+
+    /**
+     * Verifies that the notifier is called on release switches only.
+     */
+    @Test
+    public final void verifyNotifierIsCalledOnReleaseSwitch() {
+        final List<String> notified = new ArrayList<String>();
+        ReleaseTableImpl cut = createReleaseTable();
+        cut.setReleaseChangeNotifier(new ReleaseChangeNotifier() {
+            public void releaseChanged(final String release) {
+                notified.add(release);
+            }
+        });
+
+        cut.getCurrentRelease();
+        cut.setFingerprint("abc");
+        cut.setReleaseState("COMPLETED");
+        cut.setCurrentRelease("v11");
+        cut.setCurrentRelease("v12");
+        assertThat(notified, contains("v11", "v12"));
+    }
+
+    private ReleaseTableImpl createReleaseTable() {
+        return ReleaseTableImpl.forSchema(dbSupport,
+                dbSupport.getCurrentSchema());
+    }
+
+    private ReleaseTableImpl createReleaseTable(final Connection con) {
+        DbSupport support = DbSupportFactory.createDbSupport(con, false);
+        return ReleaseTableImpl.forSchema(support,
+                support.getCurrentSchema());
+    }
+}
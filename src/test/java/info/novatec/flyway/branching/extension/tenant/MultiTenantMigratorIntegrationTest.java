@@ -0,0 +1,70 @@
+/*
+* Flyway Branching Extension.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package info.novatec.flyway.branching.extension.tenant;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+/**
+ * Integration test to verify the branching migration of several tenant
+ * schemas in parallel.
+ */
+public class MultiTenantMigratorIntegrationTest {
+
+    private static final int EXPECTED_MIGRATIONS = 4;
+
+    /**
+     * Verifies that every tenant schema is migrated through all releases.
+     */
+    @Test
+    public final void verifyTenantMigrations() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:tenants" + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1;MVCC=TRUE");
+        dataSource.setUser("sa");
+
+        Properties configuration = new Properties();
+        configuration.setProperty("flyway.locations",
+                "db/branching/migrations/tenant/h2");
+        configuration.setProperty("flyway.validateOnMigrate", "false");
+        configuration.setProperty("flyway.baselineOnMigrate", "true");
+        configuration.setProperty("flyway.baselineVersion", "0");
+
+        MultiTenantMigrator cut = new MultiTenantMigrator(dataSource,
+                configuration, 2);
+        TenantMigrationReport report = cut.migrate(Arrays.asList(
+                "TENANT_A", "TENANT_B", "TENANT_C"));
+
+        assertThat("All tenants have been migrated",
+                report.getResults().size(), is(3));
+        assertThat("No tenant failed", report.getFailedResults().size(),
+                is(0));
+        for (TenantMigrationResult result : report.getResults()) {
+            assertThat(result.getSchema() + " started on main",
+                    result.getStartRelease(), is("main"));
+            assertThat(result.getSchema() + " ended on v11",
+                    result.getEndRelease(), is("v11"));
+            assertThat(result.getSchema() + " applied all migrations",
+                    result.getMigrations(), is(EXPECTED_MIGRATIONS));
+        }
+    }
+}
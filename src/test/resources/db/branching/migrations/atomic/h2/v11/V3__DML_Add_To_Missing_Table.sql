@@ -0,0 +1 @@
+insert into MISSING_TABLE (ID) values (1);
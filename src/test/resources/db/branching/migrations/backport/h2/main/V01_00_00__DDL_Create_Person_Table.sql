@@ -0,0 +1,8 @@
+create table PERSON (
+    ID identity not null primary key,
+    FIRSTNAME varchar(100) not null,
+    LASTNAME varchar(100) not null,
+    BACKFILLED int not null default 0
+);
+insert into PERSON (FIRSTNAME, LASTNAME) values ('Hans','Mustermann');
+insert into PERSON (FIRSTNAME, LASTNAME) values ('Max','Maier');
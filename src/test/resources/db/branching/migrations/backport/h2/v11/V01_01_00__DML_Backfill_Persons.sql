@@ -0,0 +1 @@
+update PERSON set BACKFILLED = BACKFILLED + 1;
@@ -0,0 +1,2 @@
+alter table PERSON
+    add column EMAIL varchar(200);
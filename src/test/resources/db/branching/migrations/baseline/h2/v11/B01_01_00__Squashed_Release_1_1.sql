@@ -0,0 +1,11 @@
+create table PERSON (
+    ID identity not null primary key,
+    FIRSTNAME varchar(100) not null,
+    LASTNAME varchar(100) not null,
+    GENDER varchar(10) not null,
+    BIRTHDATE date,
+    NATIONALITY varchar(100)
+);
+insert into PERSON (FIRSTNAME, LASTNAME, GENDER, BIRTHDATE) values ('Hans','Mustermann','Male','1969-11-30');
+insert into PERSON (FIRSTNAME, LASTNAME, GENDER, BIRTHDATE) values ('Max','Maier','Male','1980-08-10');
+insert into PERSON (FIRSTNAME, LASTNAME, GENDER, BIRTHDATE) values ('Sabine','Müller','Female','1970-01-01');
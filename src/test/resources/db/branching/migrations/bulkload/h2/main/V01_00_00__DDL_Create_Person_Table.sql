@@ -0,0 +1,5 @@
+create table PERSON (
+    ID bigint not null primary key,
+    NAME varchar(100) not null,
+    CITY varchar(100)
+);
@@ -0,0 +1,2 @@
+-- @load: persons.csv into PERSON
+update PERSON set CITY = 'Unknown' where CITY is null;
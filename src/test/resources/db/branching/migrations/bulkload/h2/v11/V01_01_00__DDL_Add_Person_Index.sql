@@ -0,0 +1 @@
+create index IDX_PERSON_CITY on PERSON (CITY);
@@ -0,0 +1,6 @@
+create table PERSON (
+    ID bigint not null primary key,
+    NAME varchar(100) not null,
+    BACKFILLED int not null default 0
+);
+insert into PERSON (ID, NAME) select X, 'Person ' || X from SYSTEM_RANGE(1, 25);
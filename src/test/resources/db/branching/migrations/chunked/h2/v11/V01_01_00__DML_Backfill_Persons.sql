@@ -0,0 +1,3 @@
+-- @chunked: table=PERSON, key=ID, size=10
+update PERSON set BACKFILLED = BACKFILLED + 1
+    where ID > :chunk_start and ID <= :chunk_end;
@@ -0,0 +1 @@
+insert into ITEM (ID, NAME) values (2, 'second');
@@ -0,0 +1,4 @@
+-- Built online on PostgreSQL
+create index IDX_ITEM_NAME
+    on ITEM (NAME);
+create unique index IDX_ITEM_ID_NAME on ITEM (ID, NAME);
@@ -0,0 +1,5 @@
+-- @depends:
+create table PRODUCT (
+    ID int not null primary key,
+    NAME varchar(100) not null
+);
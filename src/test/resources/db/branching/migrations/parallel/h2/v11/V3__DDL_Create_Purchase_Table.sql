@@ -0,0 +1,6 @@
+-- @depends:
+create table PURCHASE (
+    ID int not null primary key,
+    CUSTOMER_ID int not null,
+    PRODUCT_ID int not null
+);
@@ -0,0 +1,5 @@
+-- Requires the product and the purchase table.
+-- @depends: 2, 3
+insert into CUSTOMER (ID, NAME) values (1, 'customer');
+insert into PRODUCT (ID, NAME) values (1, 'product');
+insert into PURCHASE (ID, CUSTOMER_ID, PRODUCT_ID) values (1, 1, 1);
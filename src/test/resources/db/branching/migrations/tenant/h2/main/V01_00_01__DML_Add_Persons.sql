@@ -0,0 +1,3 @@
+insert into PERSON (FIRSTNAME, LASTNAME, GENDER, BIRTHDATE) values ('Hans','Mustermann','Male','1969-11-30');
+insert into PERSON (FIRSTNAME, LASTNAME, GENDER, BIRTHDATE) values ('Max','Maier','Male','1980-08-10');
+insert into PERSON (FIRSTNAME, LASTNAME, GENDER, BIRTHDATE) values ('Sabine','Müller','Female','1970-01-01');
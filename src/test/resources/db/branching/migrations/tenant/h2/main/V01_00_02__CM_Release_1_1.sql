@@ -0,0 +1 @@
+update "releasetable" set "CURRENT_RELEASE" = 'v11';
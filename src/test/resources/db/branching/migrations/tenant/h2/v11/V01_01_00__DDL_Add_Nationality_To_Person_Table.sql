@@ -0,0 +1,2 @@
+alter table PERSON
+    add column NATIONALITY varchar(100);